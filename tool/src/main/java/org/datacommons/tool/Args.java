@@ -6,6 +6,7 @@ import java.util.Map;
 import org.apache.logging.log4j.util.Strings;
 import org.datacommons.proto.Debug;
 import org.datacommons.util.FileGroup;
+import org.datacommons.util.McfFileWriter;
 
 // Class representing the command line arguments to dc-import tool. Largely used as a struct.
 class Args {
@@ -13,6 +14,11 @@ class Args {
   public ResolutionMode resolutionMode = ResolutionMode.NONE;
   public boolean doStatChecks = false;
   public List<String> samplePlaces = null;
+  // When > 0, the summary report counts the places and dates of a stat var approximately once it
+  // has more than this many of either.
+  public int summarySketchLimit = 0;
+  // Check the series of all the places, partitioned on disk, rather than those of sample places.
+  public boolean fullStatChecks = false;
   public boolean verbose = false;
   public FileGroup fileGroup = null;
   public Map<OutputFileType, Path> outputFiles = null;
@@ -20,6 +26,47 @@ class Args {
   public Path outputDir = null;
   public boolean generateSummaryReport = true;
   public boolean checkObservationAbout = false;
+  // When > 0, CSV files larger than this are split into byte ranges of about this size that are
+  // processed in parallel.
+  public long csvSplitBytes = 0;
+  // When > 0, MCF files are memory-mapped and parsed in parallel chunks of about this many bytes.
+  public long mcfChunkBytes = 0;
+  // When > 0, the rows of each CSV are checked and resolved on this many threads, with at most
+  // pipelineQueueSize rows in flight.
+  public int pipelineWorkers = 0;
+  public int pipelineQueueSize = 1000;
+  // When > 0, instance MCF nodes held for existence checks, resolution and stat checks are spilled
+  // to disk once they exceed this size.
+  public long mcfHeapLimitBytes = 0;
+  // When > 0, existence checks are sent to DC asynchronously with up to this many calls in flight.
+  public int existenceChecksInFlight = 0;
+  // When not null, existence check results are cached in this file across runs, for cacheTtlHours.
+  public Path existenceCachePath = null;
+  // When not null, external ID resolution results are cached in this file across runs, for
+  // cacheTtlHours.
+  public Path resolutionCachePath = null;
+  public int cacheTtlHours = 168;
+  // When not null, existence checks are answered offline from a schema snapshot built from these
+  // MCF or index files.
+  public List<String> schemaSnapshotFiles = null;
+  // When > 0, external ID resolution calls are sent to DC asynchronously with up to this many
+  // calls in flight.
+  public int resolutionCallsInFlight = 0;
+  // In FULL resolution mode, rows parsed in the external ID pass are spilled to disk and replayed
+  // in the table pass.
+  public boolean spillParsedRows = false;
+  // Read CSVs with MappedCsvReader instead of commons-csv.
+  public boolean mmapCsv = false;
+  // Compression of the output MCF files.
+  public McfFileWriter.Compression outputCompression = McfFileWriter.Compression.NONE;
+  // Formats of the output files. Each output is written in all of them.
+  public List<McfFileWriter.Format> outputFormats = List.of(McfFileWriter.Format.MCF);
+  // When > 0, output MCF files are split into shards of this many nodes or (uncompressed) bytes.
+  public long outputShardNodes = 0;
+  public long outputShardBytes = 0;
+  // When > 0, output MCF is serialized and written on a background thread per output file, with
+  // up to this many writes queued.
+  public int asyncOutputQueueSize = 0;
 
   public String toString() {
     StringBuilder argStr = new StringBuilder();
@@ -35,7 +82,65 @@ class Args {
     if (samplePlaces != null) {
       argStr.append(", sample-places=" + Strings.join(samplePlaces, ':'));
     }
+    if (summarySketchLimit > 0) {
+      argStr.append(", summary-sketch-limit=" + summarySketchLimit);
+    }
+    if (fullStatChecks) {
+      argStr.append(", full-stat-checks=" + fullStatChecks);
+    }
     argStr.append(", observation-about=" + checkObservationAbout);
+    if (csvSplitBytes > 0) {
+      argStr.append(", csv-split-mb=" + csvSplitBytes / (1024.0 * 1024));
+    }
+    if (mcfChunkBytes > 0) {
+      argStr.append(", mcf-chunk-mb=" + mcfChunkBytes / (1024 * 1024));
+    }
+    if (existenceChecksInFlight > 0) {
+      argStr.append(", existence-checks-in-flight=" + existenceChecksInFlight);
+    }
+    if (spillParsedRows) {
+      argStr.append(", spill-parsed-rows=" + spillParsedRows);
+    }
+    if (mmapCsv) {
+      argStr.append(", mmap-csv=" + mmapCsv);
+    }
+    if (!outputFormats.equals(List.of(McfFileWriter.Format.MCF))) {
+      argStr.append(", output-format=" + Strings.join(outputFormats, ','));
+    }
+    if (outputCompression != McfFileWriter.Compression.NONE) {
+      argStr.append(", output-compression=" + outputCompression.name());
+    }
+    if (outputShardNodes > 0) {
+      argStr.append(", output-shard-nodes=" + outputShardNodes);
+    }
+    if (outputShardBytes > 0) {
+      argStr.append(", output-shard-mb=" + outputShardBytes / (1024 * 1024));
+    }
+    if (asyncOutputQueueSize > 0) {
+      argStr.append(", async-output-queue=" + asyncOutputQueueSize);
+    }
+    if (resolutionCallsInFlight > 0) {
+      argStr.append(", resolution-calls-in-flight=" + resolutionCallsInFlight);
+    }
+    if (schemaSnapshotFiles != null) {
+      argStr.append(", schema-snapshot=" + Strings.join(schemaSnapshotFiles, ','));
+    }
+    if (existenceCachePath != null) {
+      argStr.append(", existence-cache-path=" + existenceCachePath);
+    }
+    if (resolutionCachePath != null) {
+      argStr.append(", resolution-cache-path=" + resolutionCachePath);
+    }
+    if (existenceCachePath != null || resolutionCachePath != null) {
+      argStr.append(", cache-ttl-hours=" + cacheTtlHours);
+    }
+    if (mcfHeapLimitBytes > 0) {
+      argStr.append(", mcf-heap-limit-mb=" + mcfHeapLimitBytes / (1024 * 1024));
+    }
+    if (pipelineWorkers > 0) {
+      argStr.append(", pipeline-workers=" + pipelineWorkers);
+      argStr.append(", pipeline-queue-size=" + pipelineQueueSize);
+    }
     return argStr.toString();
   }
 
@@ -18,11 +18,15 @@ import freemarker.template.TemplateException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.Callable;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.datacommons.util.FileGroup;
+import org.datacommons.util.McfFileWriter;
 import picocli.CommandLine;
 
 @CommandLine.Command(name = "genmcf", description = "Generate Instance MCF from TMCF/CSV files")
@@ -46,6 +50,50 @@ class GenMcf implements Callable<Integer> {
       scope = CommandLine.ScopeType.INHERIT)
   private Character delimiter;
 
+  @CommandLine.Option(
+      names = {"--output-compression"},
+      defaultValue = "NONE",
+      description =
+          "Compression of the generated MCF files. One of NONE or GZIP. With GZIP, a '.gz' "
+              + "suffix is added to the file names. Defaults to NONE.")
+  private McfFileWriter.Compression outputCompression;
+
+  @CommandLine.Option(
+      names = {"--output-format"},
+      defaultValue = "MCF",
+      split = ",",
+      description =
+          "Comma-separated formats of the generated files. MCF for text MCF, and PROTO for "
+              + "length-delimited McfGraph protos in '.mcfpb' files, which are read back without "
+              + "parsing when given as input. Defaults to MCF.")
+  private List<McfFileWriter.Format> outputFormats;
+
+  @CommandLine.Option(
+      names = {"--output-shard-nodes"},
+      defaultValue = "0",
+      description =
+          "Splits each generated MCF file into shards of this many nodes, named like "
+              + "table_mcf_nodes_foo-00003-of-00010.mcf. "
+              + "Defaults to 0, which does not shard by number of nodes.")
+  private long outputShardNodes;
+
+  @CommandLine.Option(
+      names = {"--output-shard-mb"},
+      defaultValue = "0",
+      description =
+          "Splits each generated MCF file into shards of about this many megabytes of "
+              + "(uncompressed) MCF. Defaults to 0, which does not shard by size.")
+  private int outputShardMb;
+
+  @CommandLine.Option(
+      names = {"--async-output-queue"},
+      defaultValue = "0",
+      description =
+          "Serializes and writes the generated MCF on a background thread per output file, "
+              + "with up to this many graphs queued. Defaults to 0, which writes on the "
+              + "processing thread.")
+  private int asyncOutputQueue;
+
   @CommandLine.ParentCommand private Main parent;
 
   @CommandLine.Spec CommandLine.Model.CommandSpec spec; // injected by picocli
@@ -60,7 +108,40 @@ class GenMcf implements Callable<Integer> {
     args.resolutionMode = parent.resolutionMode;
     args.doStatChecks = parent.doStatChecks;
     args.samplePlaces = parent.samplePlaces;
+    args.summarySketchLimit = parent.summarySketchLimit;
+    args.fullStatChecks = parent.fullStatChecks;
     args.numThreads = parent.numThreads;
+    args.csvSplitBytes = (long) (parent.csvSplitMb * 1024 * 1024);
+    args.mcfChunkBytes = parent.mcfChunkMb * 1024L * 1024L;
+    args.pipelineWorkers = parent.pipelineWorkers;
+    args.pipelineQueueSize = parent.pipelineQueueSize;
+    if (args.pipelineWorkers < 0) {
+      throw new CommandLine.ParameterException(
+          spec.commandLine(), "--pipeline-workers must not be negative");
+    }
+    if (args.pipelineQueueSize <= 0) {
+      throw new CommandLine.ParameterException(
+          spec.commandLine(), "--pipeline-queue-size must be positive");
+    }
+    args.mcfHeapLimitBytes = parent.mcfHeapLimitMb * 1024L * 1024L;
+    args.existenceChecksInFlight = parent.existenceChecksInFlight;
+    if (parent.existenceCachePath != null) {
+      args.existenceCachePath = parent.existenceCachePath.toPath();
+    }
+    if (parent.resolutionCachePath != null) {
+      args.resolutionCachePath = parent.resolutionCachePath.toPath();
+    }
+    args.cacheTtlHours = parent.cacheTtlHours;
+    args.schemaSnapshotFiles = parent.schemaSnapshotFiles;
+    args.resolutionCallsInFlight = parent.resolutionCallsInFlight;
+    args.spillParsedRows = parent.spillParsedRows;
+    args.mmapCsv = parent.mmapCsv;
+    args.outputCompression = outputCompression;
+    // Each format once.
+    args.outputFormats = new ArrayList<>(EnumSet.copyOf(outputFormats));
+    args.outputShardNodes = outputShardNodes;
+    args.outputShardBytes = outputShardMb * 1024L * 1024L;
+    args.asyncOutputQueueSize = asyncOutputQueue;
     if (args.samplePlaces != null && !args.doStatChecks) {
       logger.warn(
           "Sample places entered without stat checks being enabled. Sample places will be unused.");
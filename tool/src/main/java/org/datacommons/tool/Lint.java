@@ -58,7 +58,34 @@ class Lint implements Callable<Integer> {
     args.resolutionMode = parent.resolutionMode;
     args.doStatChecks = parent.doStatChecks;
     args.samplePlaces = parent.samplePlaces;
+    args.summarySketchLimit = parent.summarySketchLimit;
+    args.fullStatChecks = parent.fullStatChecks;
     args.numThreads = parent.numThreads;
+    args.csvSplitBytes = (long) (parent.csvSplitMb * 1024 * 1024);
+    args.mcfChunkBytes = parent.mcfChunkMb * 1024L * 1024L;
+    args.pipelineWorkers = parent.pipelineWorkers;
+    args.pipelineQueueSize = parent.pipelineQueueSize;
+    if (args.pipelineWorkers < 0) {
+      throw new CommandLine.ParameterException(
+          spec.commandLine(), "--pipeline-workers must not be negative");
+    }
+    if (args.pipelineQueueSize <= 0) {
+      throw new CommandLine.ParameterException(
+          spec.commandLine(), "--pipeline-queue-size must be positive");
+    }
+    args.mcfHeapLimitBytes = parent.mcfHeapLimitMb * 1024L * 1024L;
+    args.existenceChecksInFlight = parent.existenceChecksInFlight;
+    if (parent.existenceCachePath != null) {
+      args.existenceCachePath = parent.existenceCachePath.toPath();
+    }
+    if (parent.resolutionCachePath != null) {
+      args.resolutionCachePath = parent.resolutionCachePath.toPath();
+    }
+    args.cacheTtlHours = parent.cacheTtlHours;
+    args.schemaSnapshotFiles = parent.schemaSnapshotFiles;
+    args.resolutionCallsInFlight = parent.resolutionCallsInFlight;
+    args.spillParsedRows = parent.spillParsedRows;
+    args.mmapCsv = parent.mmapCsv;
     if (args.samplePlaces != null && !args.doStatChecks) {
       logger.warn(
           "Sample places entered without stat checks being enabled. Sample places will be unused.");
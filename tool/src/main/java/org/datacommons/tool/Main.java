@@ -67,6 +67,36 @@ class Main {
               + "You rarely want to use this mode.")
   public Args.ResolutionMode resolutionMode = Args.ResolutionMode.NONE;
 
+  @CommandLine.Option(
+      names = {"--resolution-calls-in-flight"},
+      defaultValue = "0",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Sends external ID resolution calls to DC asynchronously, with up to this many calls "
+              + "in flight. This flag only applies if --resolution is FULL. "
+              + "Defaults to 0, which makes one call at a time and waits for it.")
+  public int resolutionCallsInFlight;
+
+  @CommandLine.Option(
+      names = {"--spill-parsed-rows"},
+      defaultValue = "false",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Saves the CSV rows parsed while looking up external IDs to disk, and processes "
+              + "them from there, so that each CSV is parsed once instead of twice. "
+              + "This flag only applies if --resolution is FULL. Defaults to false.")
+  public boolean spillParsedRows;
+
+  @CommandLine.Option(
+      names = {"--mmap-csv"},
+      defaultValue = "false",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Reads CSV files by memory-mapping them and tokenizing the bytes directly, instead of "
+              + "with commons-csv. Only the cells that the TMCF refers to are decoded, which is "
+              + "faster for wide CSVs. Defaults to false.")
+  public boolean mmapCsv;
+
   @CommandLine.Option(
       names = {"-s", "--stat-checks"},
       defaultValue = "true",
@@ -89,6 +119,27 @@ class Main {
               + "places are picked for roughly each distinct place type.")
   public List<String> samplePlaces;
 
+  @CommandLine.Option(
+      names = {"--summary-sketch-limit"},
+      defaultValue = "0",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Specifies the number of distinct places and dates of a stat var that are counted "
+              + "exactly for the summary report, beyond which they are estimated in bounded "
+              + "memory. Defaults to 0, which counts them all exactly.")
+  public int summarySketchLimit;
+
+  @CommandLine.Option(
+      names = {"--full-stat-checks"},
+      defaultValue = "false",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Runs the stats checks on the series of all the places rather than only on those of "
+              + "the sample places. The series are kept in temporary files in the output "
+              + "directory rather than in memory. This flag should only be set if --stat-checks "
+              + "is true. Defaults to false.")
+  public boolean fullStatChecks;
+
   @CommandLine.Option(
       names = {"-n", "--num-threads"},
       defaultValue = "1",
@@ -116,6 +167,102 @@ class Main {
               + "Defaults to true.")
   public boolean checkObservationAbout;
 
+  @CommandLine.Option(
+      names = {"--csv-split-mb"},
+      defaultValue = "0",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Splits CSV files larger than this many megabytes into ranges of about this size, "
+              + "which are processed concurrently (see --num-threads). May be fractional. "
+              + "Defaults to 0, which disables splitting.")
+  public double csvSplitMb;
+
+  @CommandLine.Option(
+      names = {"--mcf-chunk-mb"},
+      defaultValue = "0",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Parses MCF files by memory-mapping them and splitting them into chunks of about this "
+              + "many megabytes at node boundaries, which are parsed concurrently (see "
+              + "--num-threads). Defaults to 0, which parses MCF files line by line.")
+  public int mcfChunkMb;
+
+  @CommandLine.Option(
+      names = {"--pipeline-workers"},
+      defaultValue = "0",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Specifies the number of threads that check and resolve the rows of the CSVs, "
+              + "while reading and writing happen on separate threads. "
+              + "Defaults to 0, which processes the rows of a CSV on a single thread.")
+  public int pipelineWorkers;
+
+  @CommandLine.Option(
+      names = {"--pipeline-queue-size"},
+      defaultValue = "1000",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Specifies the maximum number of rows of a CSV in flight when --pipeline-workers "
+              + "is set. Defaults to 1000.")
+  public int pipelineQueueSize;
+
+  @CommandLine.Option(
+      names = {"--mcf-heap-limit-mb"},
+      defaultValue = "0",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Spills instance MCF nodes to a temporary file in the output directory once they "
+              + "take more than this many megabytes, instead of holding all of them in memory. "
+              + "Defaults to 0, which keeps all the nodes in memory.")
+  public int mcfHeapLimitMb;
+
+  @CommandLine.Option(
+      names = {"--existence-checks-in-flight"},
+      defaultValue = "0",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Sends existence check calls to DC asynchronously, with up to this many calls in "
+              + "flight. This flag should only be set if --existence-checks is true. "
+              + "Defaults to 0, which makes one call at a time and waits for it.")
+  public int existenceChecksInFlight;
+
+  @CommandLine.Option(
+      names = {"--existence-cache-path"},
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Specifies a file that caches the results of existence checks across runs. "
+              + "This flag should only be set if --existence-checks is true. "
+              + "By default, nothing is cached across runs.")
+  public File existenceCachePath;
+
+  @CommandLine.Option(
+      names = {"--resolution-cache-path"},
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Specifies a file that caches the DCIDs that external IDs resolve to across runs. "
+              + "This flag only applies if --resolution is FULL. "
+              + "By default, nothing is cached across runs.")
+  public File resolutionCachePath;
+
+  @CommandLine.Option(
+      names = {"--cache-ttl-hours"},
+      defaultValue = "168",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Specifies the number of hours after which cached results are checked again. "
+              + "Defaults to 168 (a week).")
+  public int cacheTtlHours;
+
+  @CommandLine.Option(
+      names = {"--schema-snapshot"},
+      split = ",",
+      scope = CommandLine.ScopeType.INHERIT,
+      description =
+          "Specifies a list of schema MCF files (or a schema_snapshot.bin index file written "
+              + "by an earlier run) that existence checks are answered from, without calling "
+              + "DC. This flag should only be set if --existence-checks is true.")
+  public List<String> schemaSnapshotFiles;
+
   public static void main(String... args) {
     System.exit(
         new CommandLine(new Main()).setCaseInsensitiveEnumValuesAllowed(true).execute(args));
@@ -15,14 +15,24 @@
 package org.datacommons.tool;
 
 import freemarker.template.TemplateException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import org.apache.logging.log4j.LogManager;
@@ -33,13 +43,20 @@ import org.datacommons.util.*;
 
 public class Processor {
   private static final Logger logger = LogManager.getLogger(Processor.class);
+  private static final String SCHEMA_SNAPSHOT_INDEX_FILE = "schema_snapshot.bin";
   private final Args args;
   private ExistenceChecker existenceChecker;
   private ExternalIdResolver idResolver;
+  // CSV -> file with the rows parsed in the external ID pass, which the table pass replays instead
+  // of parsing the CSV again. Only set with args.spillParsedRows.
+  private final Map<File, Path> spilledRows = new ConcurrentHashMap<>();
   private StatChecker statChecker;
   private StatVarState statVarState;
-  private final List<Mcf.McfGraph> nodesForVariousChecks = new ArrayList<>();
+  private final McfGraphStore nodesForVariousChecks;
   private final ExecutorService execService;
+  // Workers of the RowPipelines of all the CSVs (and their ranges), or null without
+  // args.pipelineWorkers.
+  private final ExecutorService pipelineExecService;
   private final LogWrapper logCtx;
   private HttpClient httpClient;
 
@@ -64,7 +81,7 @@ public class Processor {
         processor.checkNodes();
       }
 
-      List<Mcf.McfGraph> nodesForStatProcessing = processor.nodesForVariousChecks;
+      Iterable<Mcf.McfGraph> nodesForStatProcessing = processor.nodesForVariousChecks;
       if (args.resolutionMode != Args.ResolutionMode.NONE) {
         if (args.resolutionMode == Args.ResolutionMode.FULL) {
           // Find external IDs from in-memory MCF nodes and CSVs, and map them to DCIDs.
@@ -105,6 +122,9 @@ public class Processor {
       logger.error("Aborting prematurely, see report.json.");
       retVal = -1;
     }
+    processor.nodesForVariousChecks.close();
+    if (processor.pipelineExecService != null) processor.pipelineExecService.shutdown();
+    if (processor.existenceChecker != null) processor.existenceChecker.saveCache();
     processor.logCtx.persistLog();
     if (args.generateSummaryReport) {
       SummaryReportGenerator.generateReportSummary(
@@ -116,7 +136,7 @@ public class Processor {
     return retVal;
   }
 
-  private Processor(Args args) {
+  private Processor(Args args) throws IOException {
     logger.info("Command options: " + args.toString());
 
     this.args = args;
@@ -127,18 +147,65 @@ public class Processor {
     // because other features might still make API calls
     this.httpClient = HttpClient.newHttpClient();
     if (args.doExistenceChecks) {
-      existenceChecker = new ExistenceChecker(this.httpClient, args.verbose, logCtx);
+      SchemaSnapshot snapshot = null;
+      if (args.schemaSnapshotFiles != null) {
+        snapshot = loadSchemaSnapshot();
+      }
+      ExistenceCache cache = null;
+      if (args.existenceCachePath != null && snapshot == null) {
+        cache = ExistenceCache.open(args.existenceCachePath, Duration.ofHours(args.cacheTtlHours));
+      }
+      existenceChecker =
+          new ExistenceChecker(
+              this.httpClient, args.verbose, logCtx, args.existenceChecksInFlight, cache, snapshot);
     }
     if (args.resolutionMode == Args.ResolutionMode.FULL) {
-      idResolver = new ExternalIdResolver(this.httpClient, args.verbose, logCtx);
+      ResolutionCache cache = null;
+      if (args.resolutionCachePath != null) {
+        cache =
+            ResolutionCache.open(args.resolutionCachePath, Duration.ofHours(args.cacheTtlHours));
+      }
+      idResolver =
+          new ExternalIdResolver(
+              this.httpClient, args.verbose, logCtx, args.resolutionCallsInFlight, cache);
     }
     statVarState = new StatVarState(logCtx);
+    nodesForVariousChecks = new McfGraphStore(args.mcfHeapLimitBytes, args.outputDir);
     if (args.doStatChecks) {
       Set<String> samplePlaces =
           args.samplePlaces == null ? null : new HashSet<>(args.samplePlaces);
-      statChecker = new StatChecker(logCtx, samplePlaces);
+      statChecker =
+          new StatChecker(
+              logCtx,
+              samplePlaces,
+              args.summarySketchLimit,
+              args.fullStatChecks ? new SeriesPartitions(args.outputDir) : null);
     }
     execService = Executors.newFixedThreadPool(args.numThreads);
+    pipelineExecService =
+        args.pipelineWorkers > 0 ? Executors.newFixedThreadPool(args.pipelineWorkers) : null;
+  }
+
+  // Loads the schema snapshot for offline existence checks. If it is built from MCF files, it is
+  // also saved as an index file in the output directory, which can be passed in later runs instead.
+  private SchemaSnapshot loadSchemaSnapshot() throws IOException {
+    logger.info("Loading schema snapshot for offline existence checks");
+    List<Path> files = new ArrayList<>();
+    boolean allIndexFiles = true;
+    for (String file : args.schemaSnapshotFiles) {
+      Path path = Path.of(file);
+      files.add(path);
+      allIndexFiles &= SchemaSnapshot.isIndexFile(path);
+    }
+    // Problems in the schema MCFs are not problems of the import, so do not report them.
+    SchemaSnapshot snapshot = SchemaSnapshot.load(files, new LogWrapper(Debug.Log.newBuilder()));
+    logger.info("Loaded schema snapshot with {} nodes and triples", snapshot.size());
+    if (!allIndexFiles && args.outputDir != null) {
+      Path index = args.outputDir.resolve(SCHEMA_SNAPSHOT_INDEX_FILE);
+      snapshot.save(index);
+      logger.info("Saved schema snapshot index to {}", index);
+    }
+    return snapshot;
   }
 
   private void processNodes(Mcf.McfType type)
@@ -159,7 +226,15 @@ public class Processor {
     long numNodesProcessed = 0;
     if (args.verbose) logger.info("Checking {}", file.getName());
     // TODO: isResolved is more allowing, be stricter.
-    McfParser parser = McfParser.init(type, file.getPath(), false, logCtx);
+    McfParser parser =
+        McfParser.init(
+            type,
+            file.getPath(),
+            false,
+            logCtx,
+            args.mcfChunkBytes,
+            execService,
+            2 * args.numThreads);
     Mcf.McfGraph n;
     while ((n = parser.parseNextNode()) != null) {
       n = McfMutator.mutate(n.toBuilder(), logCtx);
@@ -194,7 +269,17 @@ public class Processor {
     if (args.verbose) logger.info("TMCF " + args.fileGroup.getTmcf().getName());
 
     List<Callable<Void>> cbs = new ArrayList<Callable<Void>>(args.fileGroup.getCsvs().size());
+    // Writers of the CSVs that are split into byte ranges, and the writers of their ranges (in
+    // order), which are merged once all the ranges are processed.
+    Map<WriterPair, List<WriterPair>> splitWriters = new LinkedHashMap<>();
     for (File csvFile : args.fileGroup.getCsvs()) {
+      if (args.csvSplitBytes > 0
+          && csvFile.length() > args.csvSplitBytes
+          && !CompressedFiles.isCompressed(csvFile.getPath())
+          && !spilledRows.containsKey(csvFile)) {
+        addTableRangeCallables(csvFile, cbs, splitWriters);
+        continue;
+      }
       cbs.add(
           new Callable<Void>() {
             @Override
@@ -206,19 +291,31 @@ public class Processor {
     }
     execService.invokeAll(cbs);
 
+    for (var kv : splitWriters.entrySet()) {
+      for (WriterPair part : kv.getValue()) {
+        kv.getKey().appendPart(part);
+      }
+      kv.getKey().close();
+    }
+
     if (existenceChecker != null) existenceChecker.drainRemoteCalls();
   }
 
   // This is a thread-safe function invoked in parallel per CSV file.
-  private void processTable(File csvFile)
-      throws IOException, DCTooManyFailuresException, InterruptedException {
+  private void processTable(File csvFile) throws Exception {
+    Path spillFile = spilledRows.remove(csvFile);
+    if (spillFile != null) {
+      replayTable(csvFile, spillFile);
+      return;
+    }
     if (args.verbose) logger.info("Checking CSV " + csvFile.getPath());
     TmcfCsvParser parser =
         TmcfCsvParser.init(
             args.fileGroup.getTmcf().getPath(),
             csvFile.getPath(),
             args.fileGroup.delimiter(),
-            logCtx);
+            logCtx,
+            args.mmapCsv);
     // If there were too many failures when initializing the parser, parser will be null and we
     // don't want to continue processing.
     if (parser == null) {
@@ -230,49 +327,178 @@ public class Processor {
             Args.OutputFileType.TABLE_MCF_NODES,
             Args.OutputFileType.FAILED_TABLE_MCF_NODES,
             csvFile);
-    Mcf.McfGraph g;
-    int numNodeSuccesses = 0, numPVSuccesses = 0, numRowSuccesses = 0, numRowsProcessed = 0;
-    while ((g = parser.parseNextRow()) != null) {
-      g = McfMutator.mutate(g.toBuilder(), logCtx);
+    processTableRows(csvFile.getName(), parser, writerPair);
+    writerPair.close();
+  }
 
-      // This will set counters/messages in logCtx.
-      boolean success =
-          McfChecker.check(g, existenceChecker, statVarState, args.checkObservationAbout, logCtx);
+  // Processes the rows of a CSV file that were parsed and spilled to "spillFile" in the external ID
+  // pass, and deletes the file.
+  private void replayTable(File csvFile, Path spillFile) throws Exception {
+    if (args.verbose) logger.info("Checking CSV " + csvFile.getPath() + " from parsed rows");
+    WriterPair writerPair =
+        new WriterPair(
+            args,
+            Args.OutputFileType.TABLE_MCF_NODES,
+            Args.OutputFileType.FAILED_TABLE_MCF_NODES,
+            csvFile);
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(spillFile), 1 << 16)) {
+      processTableRows(
+          csvFile.getName(), () -> Mcf.McfGraph.parseDelimitedFrom(in), g -> g, writerPair);
+    } finally {
+      Files.deleteIfExists(spillFile);
+    }
+    writerPair.close();
+  }
 
-      if (args.resolutionMode != Args.ResolutionMode.NONE) {
-        g = resolveCommon(g, writerPair);
-      } else {
-        if (args.outputFiles != null) {
-          writerPair.writeSuccess(g);
-        }
-      }
+  // Splits a large CSV file into byte ranges of about args.csvSplitBytes, and adds a callable per
+  // range to "cbs". The template is parsed and checked only once for the whole file, and each range
+  // writes to its own part of the CSV's WriterPair, recorded in "splitWriters".
+  private void addTableRangeCallables(
+      File csvFile, List<Callable<Void>> cbs, Map<WriterPair, List<WriterPair>> splitWriters)
+      throws IOException, DCTooManyFailuresException, InterruptedException {
+    if (args.verbose) logger.info("Checking CSV " + csvFile.getPath() + " in byte ranges");
+    TmcfCsvParser headerParser =
+        TmcfCsvParser.init(
+            args.fileGroup.getTmcf().getPath(),
+            csvFile.getPath(),
+            args.fileGroup.delimiter(),
+            logCtx,
+            args.mmapCsv);
+    // Like in processTable(), too many failures when initializing the parser stop processing.
+    if (headerParser == null) {
+      throw new DCTooManyFailuresException("processTables encountered too many failures");
+    }
+    headerParser.close();
+    WriterPair writerPair =
+        new WriterPair(
+            args,
+            Args.OutputFileType.TABLE_MCF_NODES,
+            Args.OutputFileType.FAILED_TABLE_MCF_NODES,
+            csvFile);
+    List<WriterPair> parts = new ArrayList<>();
+    List<CsvSplitter.Range> ranges =
+        CsvSplitter.split(csvFile.getPath(), args.fileGroup.delimiter(), args.csvSplitBytes);
+    for (int i = 0; i < ranges.size(); i++) {
+      CsvSplitter.Range range = ranges.get(i);
+      WriterPair part = writerPair.newPart(i);
+      parts.add(part);
+      String name = csvFile.getName() + " " + range;
+      cbs.add(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              TmcfCsvParser parser = headerParser.forRange(csvFile.getPath(), range);
+              try {
+                processTableRows(name, parser, part);
+              } finally {
+                parser.close();
+                part.close();
+              }
+              return null;
+            }
+          });
+    }
+    splitWriters.put(writerPair, parts);
+  }
 
-      // Add relevant nodes from graph to statChecker and check for value inconsistencies.
-      success &= processStats(List.of(g));
-      if (success) {
-        numRowSuccesses++;
-        numNodeSuccesses += g.getNodesCount();
-        for (var kv : g.getNodesMap().entrySet()) {
-          numPVSuccesses += kv.getValue().getPvsCount();
-        }
-      }
-      numRowsProcessed++;
-      if (!logCtx.trackStatus(1, "rows processed")) {
-        throw new DCTooManyFailuresException("encountered too many failures");
+  // This is a thread-safe function invoked in parallel per CSV file or byte range of a CSV file.
+  private void processTableRows(String name, TmcfCsvParser parser, WriterPair writerPair)
+      throws Exception {
+    processTableRows(name, parser::readNextRow, parser::processRow, writerPair);
+  }
+
+  // Like above, for rows read from "source" (one at a time) and turned into graphs by "parse"
+  // (concurrently).
+  private <R> void processTableRows(
+      String name,
+      RowPipeline.Source<R> source,
+      RowPipeline.Stage<R, Mcf.McfGraph> parse,
+      WriterPair writerPair)
+      throws Exception {
+    TableCounts counts = new TableCounts();
+    if (pipelineExecService != null) {
+      // Read rows on one thread, check and resolve them on the pipeline workers, which are shared
+      // by all the CSVs, and write them out in order on this thread.
+      new RowPipeline<R, RowResult>(pipelineExecService, args.pipelineQueueSize)
+          .run(
+              source,
+              row -> processRow(parse.apply(row)),
+              result -> finishRow(result, writerPair, counts));
+    } else {
+      R row;
+      while ((row = source.next()) != null) {
+        finishRow(processRow(parse.apply(row)), writerPair, counts);
       }
     }
-    logCtx.incrementInfoCounterBy("NumRowSuccesses", numRowSuccesses);
-    logCtx.incrementInfoCounterBy("NumNodeSuccesses", numNodeSuccesses);
-    logCtx.incrementInfoCounterBy("NumPVSuccesses", numPVSuccesses);
+    logCtx.incrementInfoCounterBy("NumRowSuccesses", counts.numRowSuccesses);
+    logCtx.incrementInfoCounterBy("NumNodeSuccesses", counts.numNodeSuccesses);
+    logCtx.incrementInfoCounterBy("NumPVSuccesses", counts.numPVSuccesses);
     logger.info(
         "Checked "
             + (args.resolutionMode != Args.ResolutionMode.NONE ? "and Resolved " : "")
             + "CSV {} ({}"
             + " rows, {} nodes)",
-        csvFile.getName(),
-        numRowsProcessed,
-        numNodeSuccesses);
-    writerPair.close();
+        name,
+        counts.numRowsProcessed,
+        counts.numNodeSuccesses);
+  }
+
+  // The outcome of checking (and resolving) a row of a CSV file.
+  private static class RowResult {
+    // The resolved graph if resolution is enabled, otherwise the checked graph.
+    Mcf.McfGraph graph;
+    // The nodes that failed resolution, or null if resolution is disabled.
+    Mcf.McfGraph failedGraph;
+    boolean success;
+  }
+
+  private static class TableCounts {
+    int numNodeSuccesses = 0, numPVSuccesses = 0, numRowSuccesses = 0, numRowsProcessed = 0;
+  }
+
+  // Mutates, checks and resolves a graph parsed from a CSV row. This is thread-safe.
+  private RowResult processRow(Mcf.McfGraph g) throws IOException, InterruptedException {
+    RowResult result = new RowResult();
+    g = McfMutator.mutate(g.toBuilder(), logCtx);
+
+    // This will set counters/messages in logCtx.
+    result.success =
+        McfChecker.check(g, existenceChecker, statVarState, args.checkObservationAbout, logCtx);
+
+    if (args.resolutionMode != Args.ResolutionMode.NONE) {
+      McfResolver resolver = new McfResolver(g, args.verbose, idResolver, logCtx);
+      resolver.resolve();
+      g = resolver.resolvedGraph();
+      result.failedGraph = resolver.failedGraph();
+    }
+    result.graph = g;
+
+    // Add relevant nodes from graph to statChecker and check for value inconsistencies.
+    result.success &= processStats(List.of(g));
+    return result;
+  }
+
+  // Writes out a processed row and updates the counts. Must be called in the order of the rows.
+  private void finishRow(RowResult result, WriterPair writerPair, TableCounts counts)
+      throws IOException, DCTooManyFailuresException {
+    if (args.outputFiles != null) {
+      if (result.failedGraph == null) {
+        writerPair.writeSuccess(result.graph);
+      } else {
+        writeResolved(result.graph, result.failedGraph, writerPair);
+      }
+    }
+    if (result.success) {
+      counts.numRowSuccesses++;
+      counts.numNodeSuccesses += result.graph.getNodesCount();
+      for (var kv : result.graph.getNodesMap().entrySet()) {
+        counts.numPVSuccesses += kv.getValue().getPvsCount();
+      }
+    }
+    counts.numRowsProcessed++;
+    if (!logCtx.trackStatus(1, "rows processed")) {
+      throw new DCTooManyFailuresException("encountered too many failures");
+    }
   }
 
   // Called only when existenceChecker is enabled.
@@ -304,18 +530,21 @@ public class Processor {
     McfResolver resolver = new McfResolver(mcfGraph, args.verbose, idResolver, logCtx);
     resolver.resolve();
     if (args.outputFiles != null) {
-      var resolved = resolver.resolvedGraph();
-      if (!resolved.getNodesMap().isEmpty()) {
-        writerPair.writeSuccess(resolved);
-      }
-      var failed = resolver.failedGraph();
-      if (!failed.getNodesMap().isEmpty()) {
-        writerPair.writeFailure(failed);
-      }
+      writeResolved(resolver.resolvedGraph(), resolver.failedGraph(), writerPair);
     }
     return resolver.resolvedGraph();
   }
 
+  private static void writeResolved(
+      Mcf.McfGraph resolved, Mcf.McfGraph failed, WriterPair writerPair) throws IOException {
+    if (!resolved.getNodesMap().isEmpty()) {
+      writerPair.writeSuccess(resolved);
+    }
+    if (!failed.getNodesMap().isEmpty()) {
+      writerPair.writeFailure(failed);
+    }
+  }
+
   // Process all the CSV tables to load all external IDs.
   private void lookupExternalIds()
       throws IOException, InterruptedException, DCTooManyFailuresException {
@@ -353,23 +582,59 @@ public class Processor {
   }
 
   // This is a thread-safe function invoked in parallel per CSV file.
+  //
+  // With args.spillParsedRows, the parsed rows are also written to a file for processTable() to
+  // replay, so the CSV is parsed only once. Since the rows are not parsed again, parsing problems
+  // are then reported to logCtx here.
   private void lookupExternalIdsFromTable(File csvFile, LogWrapper dummyLog)
       throws DCTooManyFailuresException, IOException, InterruptedException {
     if (args.verbose) logger.info("Reading external IDs from CSV " + csvFile.getPath());
+    LogWrapper parseLog = args.spillParsedRows ? logCtx : dummyLog;
     TmcfCsvParser parser =
         TmcfCsvParser.init(
             args.fileGroup.getTmcf().getPath(),
             csvFile.getPath(),
             args.fileGroup.delimiter(),
-            dummyLog);
-    if (parser == null) return;
+            parseLog,
+            args.mmapCsv);
+    if (parser == null) {
+      if (args.spillParsedRows) {
+        // Like in processTable().
+        throw new DCTooManyFailuresException("processTables encountered too many failures");
+      }
+      return;
+    }
+    if (!args.spillParsedRows) {
+      lookupExternalIdsFromRows(parser, null, parseLog);
+      return;
+    }
+    Path spillFile =
+        Files.createTempFile(args.outputDir, csvFile.getName() + ".", ".parsed_rows.tmp");
+    spillFile.toFile().deleteOnExit();
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(spillFile), 1 << 16)) {
+      lookupExternalIdsFromRows(parser, out, parseLog);
+    } catch (Exception e) {
+      // The rows are incomplete, so processTable() parses the CSV again instead.
+      Files.deleteIfExists(spillFile);
+      throw e;
+    }
+    // Only once all the rows are written.
+    spilledRows.put(csvFile, spillFile);
+  }
+
+  private void lookupExternalIdsFromRows(
+      TmcfCsvParser parser, OutputStream spillOut, LogWrapper parseLog)
+      throws DCTooManyFailuresException, IOException, InterruptedException {
     Mcf.McfGraph g;
     while ((g = parser.parseNextRow()) != null) {
       for (var idAndNode : g.getNodesMap().entrySet()) {
         idResolver.submitNode(idAndNode.getValue());
       }
-      if (!dummyLog.trackStatus(1, "rows processed")) {
-        System.err.println("Too Many Errors ::\n" + dummyLog.dumpLog());
+      if (spillOut != null) {
+        g.writeDelimitedTo(spillOut);
+      }
+      if (!parseLog.trackStatus(1, "rows processed")) {
+        System.err.println("Too Many Errors ::\n" + parseLog.dumpLog());
         throw new DCTooManyFailuresException("encountered too many failures");
       }
     }
@@ -378,7 +643,7 @@ public class Processor {
   // If statCheck is not null, Add stats from graphs and check for any value inconsistencies. Return
   // false if there are value inconsistencies found. All stats will still be added even if there are
   // value inconsistencies.
-  private boolean processStats(List<Mcf.McfGraph> graphs) {
+  private boolean processStats(Iterable<Mcf.McfGraph> graphs) {
     if (statChecker == null) return true;
     boolean errorFound = false;
     for (Mcf.McfGraph g : graphs) {
@@ -388,10 +653,11 @@ public class Processor {
     return errorFound;
   }
 
-  private void checkStats() {
+  private void checkStats() throws InterruptedException {
     if (statChecker == null) return;
     logger.info("Performing stats checks");
-    statChecker.check();
+    // Several tasks per thread, since the series of some places take longer to check.
+    statChecker.check(execService, 4 * args.numThreads);
     statChecker.fetchSamplePlaceNames(httpClient);
   }
 
@@ -0,0 +1,127 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.tool;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A bounded producer/consumer pipeline for rows of an input file, with three stages:
+//  1. A reader thread that reads rows from a Source, in order.
+//  2. The threads of "workers", which run the Stage on rows concurrently. The executor can be
+//     shared by pipelines that run concurrently, which bounds their total number of workers.
+//  3. The calling thread, which passes the Stage outputs to the Sink in the order of the rows.
+//
+// Only the middle stage has a configurable number of threads. The Source and the Sink are a
+// sequential reader and writer of one file, so more threads would not help them. The steps of the
+// Stage (e.g., mutating, checking and resolving a row) are independent per row, so they run one
+// after the other on the same worker: giving each its own pool would only add a queue handoff per
+// row and step, with the same total number of threads.
+//
+// At most "queueSize" rows are in flight between the reader and the sink, so the reader blocks
+// when the workers or the sink fall behind, and memory use does not grow with the input size.
+//
+// An exception in any stage stops the pipeline, and is rethrown from run().
+class RowPipeline<I, O> {
+  interface Source<I> {
+    // Returns null when there are no more rows.
+    I next() throws Exception;
+  }
+
+  interface Stage<I, O> {
+    O apply(I input) throws Exception;
+  }
+
+  interface Sink<O> {
+    void accept(O output) throws Exception;
+  }
+
+  private final ExecutorService workers;
+  private final int queueSize;
+
+  // The executor is not shut down by the pipeline.
+  public RowPipeline(ExecutorService workers, int queueSize) {
+    if (queueSize <= 0) {
+      throw new IllegalArgumentException("queueSize must be positive: " + queueSize);
+    }
+    this.workers = workers;
+    this.queueSize = queueSize;
+  }
+
+  // Runs the pipeline until the source is exhausted and all the rows are consumed by the sink.
+  // If a stage fails, the cause is rethrown as is when it is an Exception, otherwise wrapped in an
+  // ExecutionException.
+  public void run(Source<I> source, Stage<I, O> stage, Sink<O> sink) throws Exception {
+    // Futures of the stage outputs, in row order. The end of input is marked by a null output.
+    BlockingQueue<Future<O>> pending = new ArrayBlockingQueue<>(queueSize);
+    // Set once the sink stops consuming, so that the rows still queued for the workers are skipped.
+    AtomicBoolean stopped = new AtomicBoolean(false);
+    Thread reader =
+        new Thread(
+            () -> {
+              try {
+                I input;
+                while ((input = source.next()) != null) {
+                  final I row = input;
+                  CompletableFuture<O> output = new CompletableFuture<>();
+                  pending.put(output);
+                  workers.execute(
+                      () -> {
+                        if (stopped.get()) {
+                          output.cancel(false);
+                          return;
+                        }
+                        try {
+                          output.complete(stage.apply(row));
+                        } catch (Throwable e) {
+                          output.completeExceptionally(e);
+                        }
+                      });
+                }
+                pending.put(CompletableFuture.completedFuture(null));
+              } catch (InterruptedException e) {
+                // The sink has stopped consuming, nothing more to do.
+              } catch (Throwable e) {
+                try {
+                  pending.put(CompletableFuture.failedFuture(e));
+                } catch (InterruptedException ie) {
+                  // The sink has stopped consuming, nothing more to do.
+                }
+              }
+            },
+            "row-pipeline-reader");
+    reader.setDaemon(true);
+    reader.start();
+    try {
+      O output;
+      while ((output = pending.take().get()) != null) {
+        sink.accept(output);
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    } finally {
+      stopped.set(true);
+      reader.interrupt();
+      reader.join();
+    }
+  }
+}
@@ -1,57 +1,169 @@
 package org.datacommons.tool;
 
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import org.apache.commons.io.FilenameUtils;
 import org.datacommons.proto.Mcf;
-import org.datacommons.util.McfUtil;
+import org.datacommons.util.AsyncWriter;
+import org.datacommons.util.CompressedFiles;
+import org.datacommons.util.McfFileWriter;
 
 // Encloses a pair of writers for success and corresponding failure types, and creates the file
-// on-demand when a write comes in.
+// on-demand when a write comes in. The files are compressed and sharded as per args (see
+// McfFileWriter), except for part files. There is a file per type for each of args.outputFormats.
+//
+// With args.asyncOutputQueueSize > 0, graphs are serialized and written on a background thread
+// (see AsyncWriter), in the order they are passed in, and close() waits for them to be written.
 class WriterPair {
   private final Args args;
   private final Args.OutputFileType successType;
   private final Args.OutputFileType failureType;
   private final File csvFile;
-  private BufferedWriter successWriter = null;
-  private BufferedWriter failureWriter = null;
+  // When not null, this pair writes to temporary part files (used when a CSV is processed in
+  // parallel byte ranges) that are appended to the main pair with appendPart().
+  private final String partSuffix;
+  // Writers for each of args.outputFormats, in that order.
+  private final McfFileWriter[] successWriters;
+  private final McfFileWriter[] failureWriters;
+  // Created on the first write, when writing asynchronously.
+  private AsyncWriter asyncWriter = null;
 
   public WriterPair(
       Args args, Args.OutputFileType successType, Args.OutputFileType failureType, File csvFile)
       throws IOException {
+    this(args, successType, failureType, csvFile, null);
+  }
+
+  private WriterPair(
+      Args args,
+      Args.OutputFileType successType,
+      Args.OutputFileType failureType,
+      File csvFile,
+      String partSuffix) {
     this.args = args;
     this.successType = successType;
     this.failureType = failureType;
     this.csvFile = csvFile;
+    this.partSuffix = partSuffix;
+    this.successWriters = new McfFileWriter[args.outputFormats.size()];
+    this.failureWriters = new McfFileWriter[args.outputFormats.size()];
+  }
+
+  // Returns a pair that writes the outputs of the "index"-th part of the input.
+  public WriterPair newPart(int index) {
+    return new WriterPair(args, successType, failureType, csvFile, ".part" + index);
   }
 
   public void writeSuccess(Mcf.McfGraph g) throws IOException {
-    if (successWriter == null) {
-      successWriter = newWriter(successType);
-    }
-    successWriter.write(McfUtil.serializeMcfGraph(g, false));
+    run(() -> write(g, successType, successWriters));
   }
 
   public void writeFailure(Mcf.McfGraph g) throws IOException {
-    if (failureWriter == null) {
-      failureWriter = newWriter(failureType);
-    }
-    failureWriter.write(McfUtil.serializeMcfGraph(g, false));
+    run(() -> write(g, failureType, failureWriters));
+  }
+
+  // Appends the outputs of a closed part (from newPart()) to this pair and deletes the part files.
+  public void appendPart(WriterPair part) throws IOException {
+    run(
+        () -> {
+          for (int i = 0; i < successWriters.length; i++) {
+            if (part.successWriters[i] != null) {
+              if (successWriters[i] == null) {
+                successWriters[i] = newWriter(successType, i);
+              }
+              transfer(part.filePath(successType, i), args.outputFormats.get(i), successWriters[i]);
+            }
+            if (part.failureWriters[i] != null) {
+              if (failureWriters[i] == null) {
+                failureWriters[i] = newWriter(failureType, i);
+              }
+              transfer(part.filePath(failureType, i), args.outputFormats.get(i), failureWriters[i]);
+            }
+          }
+        });
   }
 
   public void close() throws IOException {
-    if (failureWriter != null) failureWriter.close();
-    if (successWriter != null) successWriter.close();
+    try {
+      if (asyncWriter != null) asyncWriter.close();
+    } finally {
+      for (int i = 0; i < successWriters.length; i++) {
+        if (failureWriters[i] != null) failureWriters[i].close();
+        if (successWriters[i] != null) successWriters[i].close();
+      }
+    }
+  }
+
+  private void run(AsyncWriter.Write write) throws IOException {
+    if (args.asyncOutputQueueSize <= 0) {
+      write.run();
+      return;
+    }
+    if (asyncWriter == null) {
+      asyncWriter = new AsyncWriter(successType.name().toLowerCase(), args.asyncOutputQueueSize);
+    }
+    asyncWriter.submit(write);
   }
 
-  private BufferedWriter newWriter(Args.OutputFileType type) throws IOException {
+  private void write(Mcf.McfGraph g, Args.OutputFileType type, McfFileWriter[] writers)
+      throws IOException {
+    for (int i = 0; i < writers.length; i++) {
+      if (writers[i] == null) {
+        writers[i] = newWriter(type, i);
+      }
+      writers[i].write(g);
+    }
+  }
+
+  private static void transfer(String partPath, McfFileWriter.Format format, McfFileWriter writer)
+      throws IOException {
+    Path path = Path.of(partPath);
+    if (format == McfFileWriter.Format.PROTO) {
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+        writer.append(in);
+      }
+    } else {
+      try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+        writer.append(reader);
+      }
+    }
+    Files.delete(path);
+  }
+
+  // Returns the path of the "type" file in the "formatIndex"-th of args.outputFormats.
+  private String filePath(Args.OutputFileType type, int formatIndex) {
     String filePath = args.outputFiles.get(type).toString();
     if (csvFile != null) {
-      String fileSuffix = FilenameUtils.removeExtension(csvFile.getName()) + ".mcf";
+      String fileSuffix =
+          FilenameUtils.removeExtension(CompressedFiles.stripSuffix(csvFile.getName())) + ".mcf";
       filePath = FilenameUtils.removeExtension(filePath) + "_" + fileSuffix;
     }
-    return new BufferedWriter(new FileWriter(filePath));
+    if (args.outputFormats.get(formatIndex) == McfFileWriter.Format.PROTO) {
+      filePath = FilenameUtils.removeExtension(filePath) + McfFileWriter.PROTO_EXTENSION;
+    }
+    if (partSuffix != null) {
+      filePath += partSuffix;
+    }
+    return filePath;
+  }
+
+  private McfFileWriter newWriter(Args.OutputFileType type, int formatIndex) {
+    McfFileWriter.Format format = args.outputFormats.get(formatIndex);
+    if (partSuffix != null) {
+      return new McfFileWriter(
+          filePath(type, formatIndex), McfFileWriter.Compression.NONE, format, 0, 0);
+    }
+    return new McfFileWriter(
+        filePath(type, formatIndex),
+        args.outputCompression,
+        format,
+        args.outputShardNodes,
+        args.outputShardBytes);
   }
 }
@@ -16,18 +16,25 @@ package org.datacommons.tool;
 
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.truth.Expect;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 import org.apache.commons.io.FilenameUtils;
+import org.datacommons.proto.Mcf;
+import org.datacommons.util.CompressedFiles;
+import org.datacommons.util.McfFileWriter;
+import org.datacommons.util.McfParser;
+import org.datacommons.util.McfUtil;
 import org.datacommons.util.SummaryReportGenerator;
 import org.datacommons.util.TmcfCsvParser;
 import org.junit.Rule;
@@ -58,76 +65,181 @@ public class GenMcfTest {
 
   @Test
   public void GenMcfTest() throws IOException {
+    File[] testDirectories = new File(resourceFile("genmcf")).listFiles(File::isDirectory);
+    for (File directory : testDirectories) {
+      runTest(directory, List.of());
+    }
+  }
+
+  // Rows parsed in the external ID pass are replayed from disk, with the same output.
+  @Test
+  public void GenMcfSpillParsedRowsTest() throws IOException {
+    runTest(testDirectory("resolution"), List.of("--spill-parsed-rows"));
+  }
+
+  // The CSVs are split into many byte ranges, whose outputs are merged back in order. Note that
+  // --num-threads is left at 1, since the report records it.
+  @Test
+  public void GenMcfCsvSplitTest() throws IOException {
+    for (String testName : List.of("statchecks", "successtmcf")) {
+      runTest(testDirectory(testName), List.of("--csv-split-mb=0.0002"));
+    }
+  }
+
+  @Test
+  public void GenMcfPipelineWorkersTest() throws IOException {
+    for (String testName : List.of("statchecks", "successtmcf")) {
+      runTest(testDirectory(testName), List.of("--pipeline-workers=2", "--pipeline-queue-size=2"));
+      runTest(testDirectory(testName), List.of("--pipeline-workers=2", "--csv-split-mb=0.0002"));
+    }
+  }
+
+  @Test
+  public void GenMcfMmapCsvTest() throws IOException {
+    for (String testName : List.of("statchecks", "successtmcf")) {
+      runTest(testDirectory(testName), List.of("--mmap-csv"));
+    }
+  }
+
+  // The fixture has no more places than are sampled for any place type, so checking the series of
+  // all the places finds the same issues.
+  @Test
+  public void GenMcfFullStatChecksTest() throws IOException {
+    runTest(testDirectory("statchecks"), List.of("--full-stat-checks"));
+  }
+
+  // The same nodes are written in other formats, compressed or sharded.
+  @Test
+  public void GenMcfOutputOptionsTest() throws IOException {
+    runTest(
+        testDirectory("successtmcf"),
+        List.of("--output-compression=GZIP", "--output-shard-nodes=2"));
+    runTest(testDirectory("successtmcf"), List.of("--output-format=PROTO"));
+  }
+
+  @Test
+  public void GenMcfInvalidPipelineFlagsTest() throws IOException {
+    String input = Path.of(testDirectory("successtmcf").getPath(), "input").toString();
+    for (String flag : List.of("--pipeline-queue-size=0", "--pipeline-workers=-1")) {
+      int exitCode =
+          new CommandLine(new Main())
+              .execute(
+                  "genmcf",
+                  Path.of(input, "SuccessMcf.tmcf").toString(),
+                  Path.of(input, "SuccessTmcf.csv").toString(),
+                  "--pipeline-workers=2",
+                  flag,
+                  "--output-dir=" + testFolder.newFolder().toPath());
+      assertEquals(CommandLine.ExitCode.USAGE, exitCode);
+    }
+  }
+
+  // Runs genmcf on the input of a test directory, with "extraArgs", and compares the output with
+  // the golden files. Golden files are only produced when there are no "extraArgs", as the other
+  // runs must produce the same output.
+  private void runTest(File directory, List<String> extraArgs) throws IOException {
     // Set this so that the generated node IDs are deterministic
     TmcfCsvParser.TEST_mode = true;
     SummaryReportGenerator.TEST_mode = true;
 
-    String goldenFilesPrefix = System.getProperty("goldenFilesPrefix");
+    String goldenFilesPrefix = extraArgs.isEmpty() ? System.getProperty("goldenFilesPrefix") : null;
     Main app = new Main();
     CommandLine cmd = new CommandLine(app);
-    File[] testDirectories = new File(resourceFile("genmcf")).listFiles(File::isDirectory);
-    for (File directory : testDirectories) {
-      String testName = directory.getName();
-      System.err.println(testName + ": BEGIN");
-      assertTrue(EXPECTED_FILES_TO_CHECK.containsKey(testName));
-      List<String> argsList = new ArrayList<>();
-      argsList.add("genmcf");
-      File[] inputFiles = new File(Path.of(directory.getPath(), "input").toString()).listFiles();
-      List<String> expectedOutputFiles =
-          new ArrayList<>(
-              List.of(
-                  "report.json",
-                  "instance_mcf_nodes.mcf",
-                  "failed_instance_mcf_nodes.mcf",
-                  "summary_report.html"));
-      for (File inputFile : inputFiles) {
-        argsList.add(inputFile.getPath());
-        String fName = inputFile.getName();
-        if (fName.endsWith(".csv") || fName.endsWith(".tsv")) {
-          expectedOutputFiles.add(
-              "table_mcf_nodes_" + FilenameUtils.removeExtension(fName) + ".mcf");
-          expectedOutputFiles.add(
-              "failed_table_mcf_nodes_" + FilenameUtils.removeExtension(fName) + ".mcf");
-        }
+    String testName = directory.getName();
+    System.err.println(testName + ": BEGIN " + extraArgs);
+    assertTrue(EXPECTED_FILES_TO_CHECK.containsKey(testName));
+    List<String> argsList = new ArrayList<>();
+    argsList.add("genmcf");
+    File[] inputFiles = new File(Path.of(directory.getPath(), "input").toString()).listFiles();
+    List<String> expectedOutputFiles =
+        new ArrayList<>(
+            List.of(
+                "report.json",
+                "instance_mcf_nodes.mcf",
+                "failed_instance_mcf_nodes.mcf",
+                "summary_report.html"));
+    for (File inputFile : inputFiles) {
+      argsList.add(inputFile.getPath());
+      String fName = inputFile.getName();
+      if (fName.endsWith(".csv") || fName.endsWith(".tsv")) {
+        expectedOutputFiles.add("table_mcf_nodes_" + FilenameUtils.removeExtension(fName) + ".mcf");
+        expectedOutputFiles.add(
+            "failed_table_mcf_nodes_" + FilenameUtils.removeExtension(fName) + ".mcf");
+      }
+    }
+    argsList.add("--resolution=FULL");
+    Path outputDir = testFolder.newFolder().toPath();
+    argsList.add("--output-dir=" + outputDir);
+    argsList.addAll(extraArgs);
+    String[] args = argsList.toArray(new String[argsList.size()]);
+    cmd.execute(args);
+
+    Integer numChecked = 0;
+    if (goldenFilesPrefix != null && !goldenFilesPrefix.isEmpty()) {
+      for (var f : expectedOutputFiles) {
+        Path actual = outputDir.resolve(f);
+        if (!f.equals("report.json") && !new File(actual.toString()).exists()) continue;
+
+        Path golden = Path.of(goldenFilesPrefix, "genmcf", testName, "output", f);
+        Files.copy(actual, golden, REPLACE_EXISTING);
+        numChecked++;
       }
-      argsList.add("--resolution=FULL");
-      argsList.add("--output-dir=" + Paths.get(testFolder.getRoot().getPath(), testName));
-      String[] args = argsList.toArray(new String[argsList.size()]);
-      cmd.execute(args);
-
-      Integer numChecked = 0;
-      if (goldenFilesPrefix != null && !goldenFilesPrefix.isEmpty()) {
-        for (var f : expectedOutputFiles) {
-          Path actual = TestUtil.getTestFilePath(testFolder, testName, f);
-          if (!f.equals("report.json") && !new File(actual.toString()).exists()) continue;
-
-          Path golden = Path.of(goldenFilesPrefix, "genmcf", testName, "output", f);
-          Files.copy(actual, golden, REPLACE_EXISTING);
-          numChecked++;
+    } else {
+      for (var f : expectedOutputFiles) {
+        Path actual = outputDir.resolve(f);
+        Path expected = TestUtil.getOutputFilePath(directory.getPath(), f);
+        if (f.equals("report.json")) {
+          TestUtil.assertReportFilesAreSimilar(
+              expect, TestUtil.readStringFromPath(expected), TestUtil.readStringFromPath(actual));
+        } else if (f.equals("summary_report.html")) {
+          if (!new File(actual.toString()).exists()) continue;
+          TestUtil.assertHtmlFilesAreSimilar(
+              TestUtil.readStringFromPath(expected), TestUtil.readStringFromPath(actual));
+        } else {
+          String actualMcf = mcfFromOutputs(outputDir, f);
+          if (actualMcf == null) continue;
+          assertEquals(org.datacommons.util.TestUtil.mcfFromFile(expected.toString()), actualMcf);
         }
-      } else {
-        for (var f : expectedOutputFiles) {
-          Path actual = TestUtil.getTestFilePath(testFolder, testName, f);
-          if (!f.equals("report.json") && !new File(actual.toString()).exists()) continue;
-
-          Path expected = TestUtil.getOutputFilePath(directory.getPath(), f);
-          if (f.equals("report.json")) {
-            TestUtil.assertReportFilesAreSimilar(
-                expect, TestUtil.readStringFromPath(expected), TestUtil.readStringFromPath(actual));
-          } else if (f.equals("summary_report.html")) {
-            TestUtil.assertHtmlFilesAreSimilar(
-                TestUtil.readStringFromPath(expected), TestUtil.readStringFromPath(actual));
-          } else {
-            assertEquals(
-                org.datacommons.util.TestUtil.mcfFromFile(expected.toString()),
-                org.datacommons.util.TestUtil.mcfFromFile(actual.toString()));
-          }
-          numChecked++;
+        numChecked++;
+      }
+    }
+    // Temporary files, like the parts of split CSVs and the series of full stat checks, are
+    // deleted.
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(outputDir)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        assertFalse(name, name.contains(".part") || name.startsWith("series_partition"));
+      }
+    }
+    assertEquals(numChecked, EXPECTED_FILES_TO_CHECK.get(testName));
+    System.err.println(testName + ": PASSED");
+  }
+
+  // Returns the nodes of the output file "f" in "outputDir", as mcfFromFile() does, when written
+  // in any --output-format, with any --output-compression and in any number of shards. Returns
+  // null if there is no such output.
+  private static String mcfFromOutputs(Path outputDir, String f) throws IOException {
+    String pattern =
+        Pattern.quote(FilenameUtils.removeExtension(f))
+            + "(-\\d{5}-of-\\d{5})?(\\.mcf|"
+            + Pattern.quote(McfFileWriter.PROTO_EXTENSION)
+            + ")";
+    List<Mcf.McfGraph> graphs = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(outputDir)) {
+      for (Path file : files) {
+        if (CompressedFiles.stripSuffix(file.getFileName().toString()).matches(pattern)) {
+          graphs.add(
+              McfParser.parseInstanceMcfFile(
+                  file.toString(), false, org.datacommons.util.TestUtil.newLogCtx()));
         }
       }
-      assertEquals(numChecked, EXPECTED_FILES_TO_CHECK.get(testName));
-      System.err.println(testName + ": PASSED");
     }
+    if (graphs.isEmpty()) return null;
+    return McfUtil.serializeMcfGraph(McfUtil.mergeGraphs(graphs), true);
+  }
+
+  private File testDirectory(String testName) {
+    return new File(resourceFile("genmcf"), testName);
   }
 
   private String resourceFile(String resource) {
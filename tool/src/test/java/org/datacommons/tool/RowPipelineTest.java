@@ -0,0 +1,123 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.tool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class RowPipelineTest {
+  private static final int NUM_ROWS = 1000;
+
+  private final ExecutorService workers = Executors.newFixedThreadPool(4);
+
+  @After
+  public void tearDown() {
+    workers.shutdownNow();
+  }
+
+  @Test
+  public void outputInRowOrder() throws Exception {
+    AtomicInteger next = new AtomicInteger();
+    Random random = new Random(1);
+    List<Integer> got = new ArrayList<>();
+    new RowPipeline<Integer, Integer>(workers, 16)
+        .run(
+            () -> next.get() < NUM_ROWS ? next.getAndIncrement() : null,
+            row -> {
+              // Rows finish out of order.
+              if (row % 7 == 0) Thread.sleep(1);
+              return 2 * row;
+            },
+            got::add);
+    List<Integer> want = new ArrayList<>();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      want.add(2 * i);
+    }
+    assertEquals(want, got);
+  }
+
+  @Test
+  public void readerBlocksAtQueueSize() throws Exception {
+    int queueSize = 4;
+    AtomicInteger numRead = new AtomicInteger();
+    AtomicInteger numWritten = new AtomicInteger();
+    new RowPipeline<Integer, Integer>(workers, queueSize)
+        .run(
+            () -> numRead.get() < NUM_ROWS ? numRead.getAndIncrement() : null,
+            row -> row,
+            row -> {
+              if (numWritten.getAndIncrement() == 0) {
+                // While the sink is stuck on the first row, the reader fills the queue and waits.
+                Thread.sleep(500);
+                // The row in the sink, the queued rows, and the row the reader waits to queue.
+                assertTrue(numRead.get() <= queueSize + 2);
+              }
+            });
+    assertEquals(NUM_ROWS, numRead.get());
+    assertEquals(NUM_ROWS, numWritten.get());
+  }
+
+  @Test
+  public void rethrowsStageFailure() throws Exception {
+    AtomicInteger next = new AtomicInteger();
+    AtomicInteger numWritten = new AtomicInteger();
+    try {
+      new RowPipeline<Integer, Integer>(workers, 16)
+          .run(
+              () -> next.get() < NUM_ROWS ? next.getAndIncrement() : null,
+              row -> {
+                if (row == 100) throw new IOException("bad row " + row);
+                return row;
+              },
+              row -> numWritten.incrementAndGet());
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertEquals("bad row 100", e.getMessage());
+    }
+    // The rows before the failed one are all written, in order.
+    assertEquals(100, numWritten.get());
+  }
+
+  @Test
+  public void rethrowsSourceFailure() throws Exception {
+    AtomicInteger next = new AtomicInteger();
+    AtomicInteger numWritten = new AtomicInteger();
+    try {
+      new RowPipeline<Integer, Integer>(workers, 16)
+          .run(
+              () -> {
+                if (next.get() == 100) throw new IOException("bad read");
+                return next.getAndIncrement();
+              },
+              row -> row,
+              row -> numWritten.incrementAndGet());
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertEquals("bad read", e.getMessage());
+    }
+    assertEquals(100, numWritten.get());
+  }
+}
@@ -9,6 +9,7 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 // This class is a collection of static methods to help with communicating with
 // the Data Commons API.
@@ -25,7 +26,22 @@ public class ApiHelper {
   public static JsonObject fetchPropertyValues(
       HttpClient httpClient, List<String> nodes, String property)
       throws IOException, InterruptedException {
+    var response =
+        httpClient.send(
+            newPropertyValuesRequest(nodes, property), HttpResponse.BodyHandlers.ofString());
+    return parsePayload(response.body());
+  }
+
+  // Like fetchPropertyValues(), but does not block on the call. The returned future completes with
+  // the payload (or null) on a thread of the httpClient's executor.
+  public static CompletableFuture<JsonObject> fetchPropertyValuesAsync(
+      HttpClient httpClient, List<String> nodes, String property) {
+    return httpClient
+        .sendAsync(newPropertyValuesRequest(nodes, property), HttpResponse.BodyHandlers.ofString())
+        .thenApply(response -> parsePayload(response.body()));
+  }
 
+  private static HttpRequest newPropertyValuesRequest(List<String> nodes, String property) {
     JsonArray dcids = new JsonArray();
     for (var node : nodes) {
       dcids.add(node);
@@ -36,15 +52,15 @@ public class ApiHelper {
     arg.addProperty("property", property);
     arg.addProperty("direction", "out");
 
-    var request =
-        HttpRequest.newBuilder(URI.create(API_ROOT))
-            .version(HttpClient.Version.HTTP_1_1)
-            .header("accept", "application/json")
-            .POST(HttpRequest.BodyPublishers.ofString(arg.toString()))
-            .build();
+    return HttpRequest.newBuilder(URI.create(API_ROOT))
+        .version(HttpClient.Version.HTTP_1_1)
+        .header("accept", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(arg.toString()))
+        .build();
+  }
 
-    var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    var payloadJson = new JsonParser().parse(response.body().trim()).getAsJsonObject();
+  private static JsonObject parsePayload(String body) {
+    var payloadJson = new JsonParser().parse(body.trim()).getAsJsonObject();
     if (payloadJson == null || !payloadJson.has("payload")) return null;
     return new JsonParser().parse(payloadJson.get("payload").getAsString()).getAsJsonObject();
   }
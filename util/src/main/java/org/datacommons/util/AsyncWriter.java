@@ -0,0 +1,101 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Runs writes (e.g., serializing an McfGraph and writing it to a file) in the order they are
+// submitted, on a dedicated background thread, so that the submitting thread can go on with other
+// work while output catches up.
+//
+// At most "queueSize" writes are pending, after which submit() blocks. If a write fails, the
+// remaining ones are skipped, and the failure is rethrown by the next submit() or by close(), which
+// waits for all the submitted writes to finish.
+//
+// submit() and close() must be called from one thread at a time.
+public class AsyncWriter implements Closeable {
+  public interface Write {
+    void run() throws IOException;
+  }
+
+  // Marks the end of the writes in the queue.
+  private static final Write END = () -> {};
+
+  private final BlockingQueue<Write> queue;
+  private final Thread thread;
+  private volatile Exception failure = null;
+  private boolean closed = false;
+
+  public AsyncWriter(String name, int queueSize) {
+    queue = new ArrayBlockingQueue<>(queueSize);
+    thread = new Thread(this::runWrites, "async-writer-" + name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public void submit(Write write) throws IOException {
+    if (closed) throw new IOException("AsyncWriter is closed");
+    throwIfFailed();
+    try {
+      queue.put(write);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while submitting a write");
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    try {
+      queue.put(END);
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for writes");
+    }
+    throwIfFailed();
+  }
+
+  private void throwIfFailed() throws IOException {
+    Exception e = failure;
+    if (e instanceof IOException) throw (IOException) e;
+    if (e != null) throw new IOException("Async write failed", e);
+  }
+
+  private void runWrites() {
+    while (true) {
+      Write write;
+      try {
+        write = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (write == END) return;
+      // After a failure, keep taking writes so that submit() does not block.
+      if (failure != null) continue;
+      try {
+        write.run();
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+      }
+    }
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+// Reads input files that may be gzip-compressed (".gz" suffix, e.g., "data.csv.gz"), without
+// decompressing them to disk first.
+//
+// Compressed files are decompressed on a background thread (see PrefetchInputStream), so that
+// decompression overlaps with parsing.
+public class CompressedFiles {
+  public static final String GZIP_SUFFIX = ".gz";
+  private static final int GZIP_BUFFER_SIZE = 1 << 16;
+  private static final int PREFETCH_CHUNK_SIZE = 1 << 16;
+  private static final int PREFETCH_MAX_CHUNKS = 16;
+
+  public static boolean isCompressed(String path) {
+    return path.toLowerCase().endsWith(GZIP_SUFFIX);
+  }
+
+  // Returns "name" without the compression suffix, if any. E.g., "data.csv" for "data.csv.gz".
+  public static String stripSuffix(String name) {
+    return isCompressed(name) ? name.substring(0, name.length() - GZIP_SUFFIX.length()) : name;
+  }
+
+  // Opens "file" for reading, decompressing it if it is compressed.
+  public static InputStream newInputStream(Path file) throws IOException {
+    InputStream in = Files.newInputStream(file);
+    if (!isCompressed(file.toString())) {
+      return in;
+    }
+    try {
+      return new PrefetchInputStream(
+          new GZIPInputStream(in, GZIP_BUFFER_SIZE),
+          file.getFileName().toString(),
+          PREFETCH_CHUNK_SIZE,
+          PREFETCH_MAX_CHUNKS);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  // Opens "file" for reading as UTF-8 text, decompressing it if it is compressed.
+  public static BufferedReader newReader(Path file) throws IOException {
+    return new BufferedReader(new InputStreamReader(newInputStream(file), StandardCharsets.UTF_8));
+  }
+}
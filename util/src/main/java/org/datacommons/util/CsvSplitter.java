@@ -0,0 +1,146 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Splits a CSV file into byte ranges that each start and end at a record boundary, so that the
+// ranges can be parsed independently (see TmcfCsvParser.forRange).
+//
+// The scan understands the same quoting rules as the CSVFormat used by TmcfCsvParser: a '"' opens a
+// quoted value only at the start of a cell (ignoring surrounding spaces), a doubled '"' inside a
+// quoted value is a literal quote and '\' escapes the next character. Newlines inside quoted values
+// never end a record. Only '\n' (and thus "\r\n") line endings are used as split points.
+public class CsvSplitter {
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  // A range of bytes [start, end) in the CSV file. The range does not include the header.
+  public static final class Range {
+    public final long start;
+    public final long end;
+    // Number of lines in the file before "start", to keep line numbers in logs file-relative.
+    public final long lineOffset;
+
+    Range(long start, long end, long lineOffset) {
+      this.start = start;
+      this.end = end;
+      this.lineOffset = lineOffset;
+    }
+
+    @Override
+    public String toString() {
+      return "[" + start + ", " + end + ") after line " + lineOffset;
+    }
+  }
+
+  private enum State {
+    CELL_START,
+    UNQUOTED,
+    QUOTED,
+    // Seen a '"' inside a quoted value. It is either the closing quote or the first of a pair.
+    QUOTE_IN_QUOTED,
+  }
+
+  // Returns byte ranges of roughly "targetBytes" each that together cover all the records after the
+  // header. Returns an empty list if the file has no records after the header.
+  public static List<Range> split(String csvFile, char delimiter, long targetBytes)
+      throws IOException {
+    if (targetBytes <= 0) {
+      throw new IllegalArgumentException("targetBytes must be positive: " + targetBytes);
+    }
+    List<Range> ranges = new ArrayList<>();
+    // A multi-byte delimiter can never match a single byte, so treat it as absent. This still
+    // splits correctly, but is more conservative about quotes after such a delimiter.
+    int delim = delimiter < 0x80 ? delimiter : -1;
+    try (InputStream in = new BufferedInputStream(new FileInputStream(csvFile), BUFFER_SIZE)) {
+      byte[] buf = new byte[BUFFER_SIZE];
+      State state = State.CELL_START;
+      boolean escaped = false;
+      boolean prevCr = false;
+      long lines = 0;
+      long pos = 0;
+      // -1 until the end of the header record has been seen.
+      long rangeStart = -1;
+      long rangeLineOffset = 0;
+      int n;
+      while ((n = in.read(buf)) > 0) {
+        for (int i = 0; i < n; i++, pos++) {
+          int b = buf[i];
+          // Count lines like commons-csv does: "\r", "\n" and "\r\n" are each one line.
+          if (b == '\r' || (b == '\n' && !prevCr)) lines++;
+          prevCr = b == '\r';
+
+          if (escaped) {
+            escaped = false;
+            if (state == State.CELL_START) state = State.UNQUOTED;
+            continue;
+          }
+          if (b == '\\') {
+            escaped = true;
+            continue;
+          }
+          boolean recordEnd = false;
+          switch (state) {
+            case QUOTED:
+              if (b == '"') state = State.QUOTE_IN_QUOTED;
+              continue;
+            case QUOTE_IN_QUOTED:
+              if (b == '"') {
+                state = State.QUOTED;
+                continue;
+              }
+              // Fall through: the quoted value has ended.
+            case CELL_START:
+            case UNQUOTED:
+              if (b == '\n') {
+                recordEnd = true;
+                state = State.CELL_START;
+              } else if (b == delim) {
+                state = State.CELL_START;
+              } else if (state == State.CELL_START && b == '"') {
+                state = State.QUOTED;
+              } else if (state == State.CELL_START && (b == ' ' || b == '\t' || b == '\r')) {
+                // Surrounding spaces are ignored, so a quote may still follow.
+              } else {
+                state = State.UNQUOTED;
+              }
+              break;
+          }
+          if (!recordEnd) continue;
+
+          long next = pos + 1;
+          if (rangeStart < 0) {
+            // End of header.
+            rangeStart = next;
+            rangeLineOffset = lines;
+          } else if (next - rangeStart >= targetBytes) {
+            ranges.add(new Range(rangeStart, next, rangeLineOffset));
+            rangeStart = next;
+            rangeLineOffset = lines;
+          }
+        }
+      }
+      if (rangeStart >= 0 && pos > rangeStart) {
+        ranges.add(new Range(rangeStart, pos, rangeLineOffset));
+      }
+    }
+    return ranges;
+  }
+}
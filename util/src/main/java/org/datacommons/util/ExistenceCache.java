@@ -0,0 +1,216 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A persistent cache of existence check results (see ExistenceChecker), so that repeated runs do
+// not query DC for the same nodes and triples again.
+//
+// Keys are 64-bit fingerprints of nodes or triples (see ExistenceChecker.fingerprint). The file
+// is a header followed by fixed-width entries sorted by key, which is memory-mapped and binary
+// searched, so opening a large cache is cheap. Each entry records whether the node/triple exists
+// and when that was checked; entries older than the TTL are ignored, and dropped on save().
+//
+// Results added during the run are kept in memory, and written out together with the unexpired
+// entries of the existing file by save(), which replaces the file atomically. The file can be at
+// most 2 GB, since it is mapped as a single buffer; save() fails rather than exceed that.
+//
+// This class is thread-safe.
+public class ExistenceCache {
+  private static final int MAGIC = 0x44434543; // "DCEC"
+  // Version 2 changed the fingerprint function.
+  private static final int VERSION = 2;
+  private static final int HEADER_BYTES = 16;
+  private static final int ENTRY_BYTES = 16;
+  private static final long MAX_FILE_BYTES = Integer.MAX_VALUE;
+
+  public enum Result {
+    EXISTS,
+    MISSING,
+    // Not in the cache.
+    UNKNOWN,
+    // In the cache, but older than the TTL.
+    EXPIRED,
+  }
+
+  private final Path path;
+  private final long ttlSeconds;
+  private final long nowSeconds;
+  // Entries of the existing file, or null if there was none.
+  private final ByteBuffer entries;
+  private final int numEntries;
+  // Fingerprint -> entry value, for results added in this run.
+  private final Map<Long, Long> added = new ConcurrentHashMap<>();
+
+  private ExistenceCache(Path path, Duration ttl, ByteBuffer entries, int numEntries) {
+    this.path = path;
+    this.ttlSeconds = ttl.getSeconds();
+    this.nowSeconds = Instant.now().getEpochSecond();
+    this.entries = entries;
+    this.numEntries = numEntries;
+  }
+
+  // Opens the cache at "path", which need not exist yet. Throws IOException if the file exists but
+  // is not a valid cache file.
+  public static ExistenceCache open(Path path, Duration ttl) throws IOException {
+    if (!Files.exists(path)) {
+      return new ExistenceCache(path, ttl, null, 0);
+    }
+    try (FileChannel channel = FileChannel.open(path)) {
+      long size = channel.size();
+      if (size > MAX_FILE_BYTES) {
+        throw new IOException("Existence cache file is too large: " + path);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (size >= HEADER_BYTES && buffer.getInt(0) == MAGIC && buffer.getInt(4) < VERSION) {
+        // The keys of an older version are not comparable, so start over. save() replaces the file.
+        return new ExistenceCache(path, ttl, null, 0);
+      }
+      if (size < HEADER_BYTES
+          || buffer.getInt(0) != MAGIC
+          || buffer.getInt(4) != VERSION
+          || buffer.getLong(8) != (size - HEADER_BYTES) / ENTRY_BYTES
+          || (size - HEADER_BYTES) % ENTRY_BYTES != 0) {
+        throw new IOException("Invalid existence cache file: " + path);
+      }
+      return new ExistenceCache(path, ttl, buffer, (int) buffer.getLong(8));
+    }
+  }
+
+  public Result get(long fingerprint) {
+    Long value = added.get(fingerprint);
+    if (value == null) {
+      int i = find(fingerprint);
+      if (i < 0) return Result.UNKNOWN;
+      value = entryValue(i);
+    }
+    if (isExpired(value)) return Result.EXPIRED;
+    return exists(value) ? Result.EXISTS : Result.MISSING;
+  }
+
+  public void put(long fingerprint, boolean exists) {
+    added.put(fingerprint, (nowSeconds << 1) | (exists ? 1 : 0));
+  }
+
+  // Number of results added in this run.
+  public int numAdded() {
+    return added.size();
+  }
+
+  // Writes the unexpired entries and the results added in this run to the cache file. Throws
+  // IOException, and keeps the existing file, if the new one would be too large for open().
+  public synchronized void save() throws IOException {
+    long[] addedKeys = new long[added.size()];
+    int n = 0;
+    for (long key : added.keySet()) {
+      if (n == addedKeys.length) break;
+      addedKeys[n++] = key;
+    }
+    Arrays.sort(addedKeys, 0, n);
+
+    Path parent = path.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path tmp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+    try {
+      long count = 0;
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        // Patched below, once the number of unexpired entries is known.
+        out.writeLong(0);
+        int i = 0, j = 0;
+        while (i < numEntries || j < n) {
+          long key, value;
+          if (j == n || (i < numEntries && entryKey(i) < addedKeys[j])) {
+            key = entryKey(i);
+            value = entryValue(i++);
+          } else {
+            key = addedKeys[j++];
+            value = added.get(key);
+            // An added result replaces the existing entry.
+            if (i < numEntries && entryKey(i) == key) i++;
+          }
+          if (isExpired(value)) continue;
+          if (HEADER_BYTES + (count + 1) * ENTRY_BYTES > MAX_FILE_BYTES) {
+            throw new IOException(
+                "Existence cache would be too large (the limit is "
+                    + MAX_FILE_BYTES
+                    + " bytes); not saving "
+                    + path
+                    + ". Use a shorter TTL or a new cache file.");
+          }
+          out.writeLong(key);
+          out.writeLong(value);
+          count++;
+        }
+      }
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+        channel.write(ByteBuffer.allocate(8).putLong(0, count), 8);
+      }
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  // Returns the index of the entry with the given key in the file, or -1.
+  private int find(long key) {
+    int lo = 0, hi = numEntries - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      long midKey = entryKey(mid);
+      if (midKey < key) {
+        lo = mid + 1;
+      } else if (midKey > key) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private long entryKey(int i) {
+    return entries.getLong(HEADER_BYTES + i * ENTRY_BYTES);
+  }
+
+  private long entryValue(int i) {
+    return entries.getLong(HEADER_BYTES + i * ENTRY_BYTES + 8);
+  }
+
+  private boolean isExpired(long value) {
+    return nowSeconds - (value >>> 1) > ttlSeconds;
+  }
+
+  private static boolean exists(long value) {
+    return (value & 1) != 0;
+  }
+}
@@ -4,6 +4,8 @@ import com.google.gson.JsonObject;
 import java.io.IOException;
 import java.net.http.HttpClient;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.util.Strings;
@@ -16,6 +18,13 @@ import org.datacommons.proto.Mcf;
 // along with a logging callback (LogCb).  The implementation batches calls to DC, and on
 // completion invokes the callback to notify on existence failures.  At the very end, users
 // need to issue a final drain call (drainRemoteCalls).
+//
+// By default, the thread whose check fills up a batch makes the DC call and waits for it. If
+// maxInFlightCalls is > 0, batches are instead sent asynchronously with up to that many calls in
+// flight, and the callbacks are invoked when the responses arrive. A check for a node or triple
+// that is part of an in-flight call waits for that call instead of issuing another one.
+//
+// DC calls are made without holding the lock, so other threads can keep submitting checks.
 // This class is thread-safe.
 public class ExistenceChecker {
   private static final Logger logger = LogManager.getLogger(ExistenceChecker.class);
@@ -28,6 +37,13 @@ public class ExistenceChecker {
   public static int DC_CALL_BATCH_LIMIT = 1000;
   public static int MAX_PENDING_CALLS = 100000;
 
+  // For fingerprint().
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  // For checkFingerprint().
+  private static final long CHECK_SEED = 0x2545f4914f6cdd1dL;
+  private static final long CHECK_MULTIPLIER = 0x9e3779b97f4a7c15L;
+
   // Useful for mocking.
   private final HttpClient httpClient;
 
@@ -35,10 +51,19 @@ public class ExistenceChecker {
   private final boolean verbose;
   private final LogWrapper logCtx;
 
-  // This is a combination of local KG data and prior cached checks.
-  // Node is just the DCID. Triple is "s,p,o" and the property just includes SCHEMA_PROPERTIES.
-  private final Set<String> existingNodesOrTriples; // Existence cache
-  private final Set<String> missingNodesOrTriples; // Absence cache
+  // This is a combination of local KG data and prior cached checks, i.e., the existence and
+  // absence caches. Node is just the DCID. Triple is "s,p,o" and the property just includes
+  // SCHEMA_PROPERTIES.
+  //
+  // The map is keyed by fingerprints of those keys (see fingerprint()), so checks do not build key
+  // strings. The value is a second, independent fingerprint of the key (see checkFingerprint()),
+  // which a hit must match, with whether the node or triple exists (see knownValue()). A key whose
+  // fingerprint is taken by another key is kept in collidedNodesOrTriples instead.
+  private final LongLongHashMap knownNodesOrTriples;
+  // Key (see makeKey()) -> whether it exists, for the keys whose fingerprint collides with that of
+  // another key in knownNodesOrTriples. This is almost always empty, and keys are only built for
+  // lookups when it is not.
+  private final Map<String, Boolean> collidedNodesOrTriples;
 
   // To amortize DC call latency we batch calls up to DC_CALL_BATCH_LIMIT. The batching happens
   // per (triple) predicate.
@@ -50,26 +75,81 @@ public class ExistenceChecker {
   private final Map<String, Map<String, Map<String, List<LogCb>>>> remoteBatchMap;
   private int totalPendingCallCount = 0;
 
+  // Node or triple key (see makeKey()) -> call-contexts, for checks whose batch has been taken out
+  // of remoteBatchMap to be sent, but whose results are not in yet. The lists are shared with the
+  // batch, so checks can be attached to an in-flight call. Keys are only built for lookups when
+  // this is not empty.
+  private final Map<String, List<LogCb>> inFlightChecks;
+
+  // Limits the number of asynchronous DC calls in flight. The semaphore is null in synchronous
+  // mode.
+  private final int maxInFlightCalls;
+  private final Semaphore inFlightCalls;
+  // The first failure of an asynchronous DC call, rethrown to the caller.
+  private IOException asyncFailure = null;
+
+  // Persistent cache of DC call results across runs, or null.
+  private final ExistenceCache cache;
+  // Schema snapshot that replaces DC calls in offline mode, or null.
+  private final SchemaSnapshot snapshot;
+
+  // A batch of checks for a predicate, taken out of remoteBatchMap to be sent to DC.
+  private static final class Batch {
+    final String pred;
+    final Map<String, Map<String, List<LogCb>>> subMap;
+
+    Batch(String pred, Map<String, Map<String, List<LogCb>>> subMap) {
+      this.pred = pred;
+      this.subMap = subMap;
+    }
+  }
+
   public ExistenceChecker(HttpClient httpClient, boolean verbose, LogWrapper logCtx) {
+    this(httpClient, verbose, logCtx, 0, null, null);
+  }
+
+  // If maxInFlightCalls is > 0, DC calls are made asynchronously (see class comment). If cache is
+  // not null, it is consulted before making DC calls, and updated with their results. If snapshot
+  // is not null, no DC calls are made, and checks that the local graph cannot answer are answered
+  // by the snapshot instead.
+  public ExistenceChecker(
+      HttpClient httpClient,
+      boolean verbose,
+      LogWrapper logCtx,
+      int maxInFlightCalls,
+      ExistenceCache cache,
+      SchemaSnapshot snapshot) {
     this.httpClient = httpClient;
     this.logCtx = logCtx;
     this.verbose = verbose;
-    existingNodesOrTriples = new HashSet<>();
-    missingNodesOrTriples = new HashSet<>();
+    this.maxInFlightCalls = maxInFlightCalls;
+    this.cache = cache;
+    this.snapshot = snapshot;
+    knownNodesOrTriples = new LongLongHashMap();
+    collidedNodesOrTriples = new HashMap<>();
     remoteBatchMap = new HashMap<>();
+    inFlightChecks = new HashMap<>();
+    inFlightCalls = maxInFlightCalls > 0 ? new Semaphore(maxInFlightCalls) : null;
   }
 
-  public synchronized void submitNodeCheck(String node, LogCb logCb)
-      throws IOException, InterruptedException {
-    logCtx.incrementInfoCounterBy("Existence_NumChecks", 1);
-    if (checkLocal(node, Vocabulary.TYPE_OF, "", logCb)) {
-      return;
+  public void submitNodeCheck(String node, LogCb logCb) throws IOException, InterruptedException {
+    List<Batch> batches;
+    synchronized (this) {
+      logCtx.incrementInfoCounterBy("Existence_NumChecks", 1);
+      if (checkLocal(node, Vocabulary.TYPE_OF, "", logCb)) {
+        return;
+      }
+      if (snapshot != null) {
+        checkSnapshot(node, Vocabulary.TYPE_OF, "", logCb);
+        return;
+      }
+      assert !node.isEmpty();
+      batches = batchRemoteCall(node, Vocabulary.TYPE_OF, "", logCb);
     }
-    assert !node.isEmpty();
-    batchRemoteCall(node, Vocabulary.TYPE_OF, "", logCb);
+    sendBatches(batches);
   }
 
-  public synchronized void submitTripleCheck(String sub, String pred, String obj, LogCb logCb)
+  public void submitTripleCheck(String sub, String pred, String obj, LogCb logCb)
       throws IOException, InterruptedException {
     if (pred.equals(Vocabulary.DOMAIN_INCLUDES) && (sub.contains("/") || sub.equals("count"))) {
       // Don't bother with domain checks for schema-less properties.
@@ -77,15 +157,35 @@ public class ExistenceChecker {
       // of a set.
       return;
     }
-    logCtx.incrementInfoCounterBy("Existence_NumChecks", 1);
-    if (checkLocal(sub, pred, obj, logCb)) {
-      return;
+    List<Batch> batches;
+    synchronized (this) {
+      logCtx.incrementInfoCounterBy("Existence_NumChecks", 1);
+      if (checkLocal(sub, pred, obj, logCb)) {
+        return;
+      }
+      if (snapshot != null) {
+        checkSnapshot(sub, pred, obj, logCb);
+        return;
+      }
+      assert !sub.isEmpty();
+      batches = batchRemoteCall(sub, pred, obj, logCb);
     }
-    assert !sub.isEmpty();
-    batchRemoteCall(sub, pred, obj, logCb);
+    sendBatches(batches);
   }
 
   public synchronized void addLocalGraph(Mcf.McfGraph graph) {
+    forEachKey(
+        graph, (sub, pred, obj) -> putKnown(fingerprint(sub, pred, obj), sub, pred, obj, true));
+  }
+
+  // Receives a node (with empty "obj") or triple.
+  interface KeyConsumer {
+    void accept(String sub, String pred, String obj);
+  }
+
+  // Calls "consumer" with the nodes and schema triples that a local graph defines, and that checks
+  // can thus be answered for.
+  static void forEachKey(Mcf.McfGraph graph, KeyConsumer consumer) {
     for (Map.Entry<String, Mcf.McfGraph.PropertyValues> node : graph.getNodesMap().entrySet()) {
       // Skip doing anything with StatVarObs.
       String typeOf = McfUtil.getPropVal(node.getValue(), Vocabulary.TYPE_OF);
@@ -99,10 +199,7 @@ public class ExistenceChecker {
         continue;
       }
 
-      existingNodesOrTriples.add(dcid);
-      if (missingNodesOrTriples.contains(dcid)) {
-        missingNodesOrTriples.remove(dcid);
-      }
+      consumer.accept(dcid, Vocabulary.TYPE_OF, "");
 
       if (!typeOf.equals(Vocabulary.CLASS_TYPE) && !typeOf.equals(Vocabulary.PROPERTY_TYPE)) {
         continue;
@@ -110,31 +207,37 @@ public class ExistenceChecker {
       for (Map.Entry<String, Mcf.McfGraph.Values> pv : node.getValue().getPvsMap().entrySet()) {
         if (SCHEMA_PROPERTIES.contains(pv.getKey())) {
           for (Mcf.McfGraph.TypedValue tv : pv.getValue().getTypedValuesList()) {
-            var key = makeKey(dcid, pv.getKey(), tv.getValue());
-            existingNodesOrTriples.add(key);
-            if (missingNodesOrTriples.contains(key)) {
-              missingNodesOrTriples.remove(key);
-            }
+            consumer.accept(dcid, pv.getKey(), tv.getValue());
           }
         }
       }
     }
   }
 
-  public synchronized void drainRemoteCalls() throws IOException, InterruptedException {
-    // To avoid mutating map while iterating, get the keys first.
-    List<String> preds = new ArrayList<>(remoteBatchMap.keySet());
-    for (var pred : preds) {
-      if (verbose) {
-        logger.info("Draining " + remoteBatchMap.get(pred).size() + " dcids for predicate " + pred);
-      }
-      drainRemoteCallsForPredicate(pred, remoteBatchMap.get(pred));
-      remoteBatchMap.remove(pred);
+  // Sends all the pending checks to DC, and waits for all the calls to complete.
+  public void drainRemoteCalls() throws IOException, InterruptedException {
+    List<Batch> batches;
+    synchronized (this) {
+      batches = takeAllBatches();
+    }
+    sendBatches(batches);
+    if (inFlightCalls != null) {
+      // Wait for the in-flight calls by taking all the permits.
+      inFlightCalls.acquire(maxInFlightCalls);
+      inFlightCalls.release(maxInFlightCalls);
+      throwIfAsyncFailure();
     }
   }
 
-  private void batchRemoteCall(String sub, String pred, String obj, LogCb logCb)
-      throws IOException, InterruptedException {
+  // Writes the persistent cache, if any, with the results of the DC calls made so far.
+  public void saveCache() throws IOException {
+    if (cache == null) return;
+    logger.info("Saving {} new existence check results to the cache", cache.numAdded());
+    cache.save();
+  }
+
+  // Adds a check to the batch map, and returns the batches that are ready to be sent (if any).
+  private List<Batch> batchRemoteCall(String sub, String pred, String obj, LogCb logCb) {
     Map<String, Map<String, List<LogCb>>> subMap = null;
     if (remoteBatchMap.containsKey(pred)) {
       subMap = remoteBatchMap.get(pred);
@@ -166,7 +269,7 @@ public class ExistenceChecker {
     // Maybe drain the batch.
     if (totalPendingCallCount >= MAX_PENDING_CALLS) {
       if (verbose) logger.info("Draining remote calls due to MAX_PENDING_CALLS");
-      drainRemoteCalls();
+      return takeAllBatches();
     } else if (subMap.size() >= DC_CALL_BATCH_LIMIT) {
       if (verbose) {
         logger.info(
@@ -176,15 +279,48 @@ public class ExistenceChecker {
                 + "predicate "
                 + pred);
       }
-      drainRemoteCallsForPredicate(pred, subMap);
-      remoteBatchMap.remove(pred);
+      return List.of(takeBatch(pred));
     }
+    return List.of();
   }
 
-  private void drainRemoteCallsForPredicate(
-      String pred, Map<String, Map<String, List<LogCb>>> subMap)
-      throws IOException, InterruptedException {
-    performDcCall(pred, new ArrayList<>(subMap.keySet()), subMap);
+  private List<Batch> takeAllBatches() {
+    // To avoid mutating map while iterating, get the keys first.
+    List<String> preds = new ArrayList<>(remoteBatchMap.keySet());
+    List<Batch> batches = new ArrayList<>(preds.size());
+    for (var pred : preds) {
+      if (verbose) {
+        logger.info("Draining " + remoteBatchMap.get(pred).size() + " dcids for predicate " + pred);
+      }
+      batches.add(takeBatch(pred));
+    }
+    return batches;
+  }
+
+  private Batch takeBatch(String pred) {
+    var subMap = remoteBatchMap.remove(pred);
+    for (var subEntry : subMap.entrySet()) {
+      for (var objEntry : subEntry.getValue().entrySet()) {
+        inFlightChecks.put(
+            makeKey(subEntry.getKey(), pred, objEntry.getKey()), objEntry.getValue());
+      }
+    }
+    return new Batch(pred, subMap);
+  }
+
+  // Must be called without holding the lock.
+  private void sendBatches(List<Batch> batches) throws IOException, InterruptedException {
+    for (var batch : batches) {
+      List<String> subs;
+      synchronized (this) {
+        subs = new ArrayList<>(batch.subMap.keySet());
+      }
+      if (inFlightCalls == null) {
+        performDcCall(batch.pred, subs, batch.subMap);
+      } else {
+        performAsyncDcCall(batch.pred, subs, batch.subMap);
+      }
+    }
   }
 
   private void performDcCall(
@@ -194,6 +330,56 @@ public class ExistenceChecker {
 
     var dataJson = ApiHelper.fetchPropertyValues(httpClient, subs, pred);
 
+    if (!processDcCallResult(pred, subs, subMap, dataJson)) {
+      for (String sub : subs) {
+        performDcCall(pred, List.of(sub), subMap);
+      }
+    }
+  }
+
+  private void performAsyncDcCall(
+      String pred, List<String> subs, Map<String, Map<String, List<LogCb>>> subMap)
+      throws IOException, InterruptedException {
+    throwIfAsyncFailure();
+    inFlightCalls.acquire();
+    logCtx.incrementInfoCounterBy("Existence_NumDcCalls", 1);
+    CompletableFuture<JsonObject> call;
+    try {
+      call = ApiHelper.fetchPropertyValuesAsync(httpClient, subs, pred);
+    } catch (RuntimeException e) {
+      inFlightCalls.release();
+      throw e;
+    }
+    call.whenComplete(
+        (dataJson, error) -> {
+          try {
+            if (error != null) {
+              throw new IOException("DC call failed for predicate " + pred, error);
+            }
+            if (!processDcCallResult(pred, subs, subMap, dataJson)) {
+              // Retry the subjects one at a time on this thread. This is rare, and blocking here
+              // keeps the number of calls in flight within the limit.
+              for (String sub : subs) {
+                performDcCall(pred, List.of(sub), subMap);
+              }
+            }
+          } catch (IOException | InterruptedException e) {
+            setAsyncFailure(e);
+          } finally {
+            inFlightCalls.release();
+          }
+        });
+  }
+
+  // Processes the result of a DC call for "subs", invoking the callbacks of missing nodes/triples.
+  // Returns false if the call failed for more than one subject, in which case the caller should
+  // retry with one subject at a time.
+  private synchronized boolean processDcCallResult(
+      String pred,
+      List<String> subs,
+      Map<String, Map<String, List<LogCb>>> subMap,
+      JsonObject dataJson)
+      throws IOException {
     if (dataJson == null) {
       if (verbose) {
         logger.info("DC call failed for - " + Strings.join(subs, ',') + ", " + pred);
@@ -203,23 +389,22 @@ public class ExistenceChecker {
         var sub = subs.get(0);
         assert subMap.containsKey(sub);
         var objMap = subMap.get(sub);
-        for (var cbs : objMap.values()) {
+        for (var kv : objMap.entrySet()) {
+          var cbs = kv.getValue();
           for (var cb : cbs) {
             cb.logError("Existence_FailedDcCall", "Failed DC Call");
           }
           totalPendingCallCount -= cbs.size();
+          inFlightChecks.remove(makeKey(sub, pred, kv.getKey()));
         }
         subMap.remove(subs.get(0));
-        return;
+        return true;
       }
       // Important: If the dcid is malformed, Mixer can return failure. Also, if the URI is too
       // long, then too this happens. So issue independent RPCs now. If this happens often enough,
       // we can revisit.
       logger.warn("DC Call failed (bad DCID or URI length). Issuing individual calls now.");
-      for (String sub : subs) {
-        performDcCall(pred, List.of(sub), subMap);
-      }
-      return;
+      return false;
     }
 
     if (dataJson.entrySet().size() != subs.size()) {
@@ -241,23 +426,45 @@ public class ExistenceChecker {
       for (var kv : objMap.entrySet()) {
         var obj = kv.getKey();
         var cbs = kv.getValue();
-        var key = makeKey(sub, pred, obj);
-        if (checkOneResult(obj, nodeJson)) {
-          existingNodesOrTriples.add(key);
-        } else {
+        long key = fingerprint(sub, pred, obj);
+        boolean exists = checkOneResult(obj, nodeJson);
+        if (cache != null) {
+          cache.put(key, exists);
+          logCtx.incrementInfoCounterBy("Existence_CacheMisses", 1);
+        }
+        putKnown(key, sub, pred, obj, exists);
+        if (!exists) {
           if (verbose) {
-            logger.info("Missing " + (obj.isEmpty() ? "node" : "triple") + " in DC " + key);
+            logger.info(
+                "Missing "
+                    + (obj.isEmpty() ? "node" : "triple")
+                    + " in DC "
+                    + makeKey(sub, pred, obj));
           }
-          missingNodesOrTriples.add(key);
           // Log the missing details.
           for (var cb : cbs) {
             logEntry(cb, obj);
           }
         }
         totalPendingCallCount -= cbs.size();
+        inFlightChecks.remove(makeKey(sub, pred, obj));
       }
       subMap.remove(sub);
     }
+    return true;
+  }
+
+  private synchronized void setAsyncFailure(Exception e) {
+    logger.error("Asynchronous DC call failed", e);
+    if (asyncFailure == null) {
+      asyncFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+    }
+  }
+
+  private synchronized void throwIfAsyncFailure() throws IOException {
+    if (asyncFailure != null) {
+      throw asyncFailure;
+    }
   }
 
   private boolean checkOneResult(String obj, JsonObject nodeJson) {
@@ -279,19 +486,96 @@ public class ExistenceChecker {
     return false;
   }
 
-  // Returns true if we were able to complete the check locally.
+  // Returns true if we were able to complete the check locally, or attach it to an in-flight call.
   private boolean checkLocal(String sub, String pred, String obj, LogCb logCb) {
-    String key = makeKey(sub, pred, obj);
-    if (existingNodesOrTriples.contains(key)) {
+    long key = fingerprint(sub, pred, obj);
+    Boolean exists = getKnown(key, sub, pred, obj);
+    if (exists != null) {
+      if (!exists) logEntry(logCb, obj);
       return true;
     }
-    if (missingNodesOrTriples.contains(key)) {
-      logEntry(logCb, obj);
+    if (cache != null) {
+      switch (cache.get(key)) {
+        case EXISTS:
+          logCtx.incrementInfoCounterBy("Existence_CacheHits", 1);
+          putKnown(key, sub, pred, obj, true);
+          return true;
+        case MISSING:
+          logCtx.incrementInfoCounterBy("Existence_CacheHits", 1);
+          putKnown(key, sub, pred, obj, false);
+          logEntry(logCb, obj);
+          return true;
+        case EXPIRED:
+          logCtx.incrementInfoCounterBy("Existence_CacheExpired", 1);
+          break;
+        default:
+          break;
+      }
+    }
+    List<LogCb> inFlight =
+        inFlightChecks.isEmpty() ? null : inFlightChecks.get(makeKey(sub, pred, obj));
+    if (inFlight != null) {
+      inFlight.add(logCb);
+      totalPendingCallCount++;
       return true;
     }
     return false;
   }
 
+  // Completes a check that checkLocal() could not, with the schema snapshot.
+  private void checkSnapshot(String sub, String pred, String obj, LogCb logCb) {
+    long key = fingerprint(sub, pred, obj);
+    boolean exists = snapshot.contains(key);
+    putKnown(key, sub, pred, obj, exists);
+    if (!exists) {
+      if (verbose) {
+        logger.info(
+            "Missing "
+                + (obj.isEmpty() ? "node" : "triple")
+                + " in snapshot "
+                + makeKey(sub, pred, obj));
+      }
+      logEntry(logCb, obj);
+    }
+  }
+
+  // Returns whether the node or triple with the fingerprint "key" exists, or null if that is not
+  // known yet.
+  private Boolean getKnown(long key, String sub, String pred, String obj) {
+    if (!collidedNodesOrTriples.isEmpty()) {
+      Boolean exists = collidedNodesOrTriples.get(makeKey(sub, pred, obj));
+      if (exists != null) return exists;
+    }
+    long value = knownNodesOrTriples.get(key, 0);
+    if (value == 0 || !isSameKey(value, knownValue(sub, pred, obj, false))) {
+      // Unknown, or the fingerprint of another key.
+      return null;
+    }
+    return (value & 1) != 0;
+  }
+
+  // Records whether the node or triple with the fingerprint "key" exists.
+  private void putKnown(long key, String sub, String pred, String obj, boolean exists) {
+    long value = knownValue(sub, pred, obj, exists);
+    long current = knownNodesOrTriples.get(key, 0);
+    if (current == 0 || isSameKey(current, value)) {
+      knownNodesOrTriples.put(key, value);
+    } else {
+      logger.info("Fingerprint collision for " + makeKey(sub, pred, obj));
+      collidedNodesOrTriples.put(makeKey(sub, pred, obj), exists);
+    }
+  }
+
+  // Returns the value of a node or triple in knownNodesOrTriples: its check fingerprint, without
+  // the low 2 bits, which are set to 1 (so that the value is never 0) and whether it exists.
+  static long knownValue(String s, String p, String o, boolean exists) {
+    return (checkFingerprint(s, p, o) & ~3L) | 2 | (exists ? 1 : 0);
+  }
+
+  private static boolean isSameKey(long value1, long value2) {
+    return (value1 & ~3L) == (value2 & ~3L);
+  }
+
   private static void logEntry(LogCb logCb, String obj) {
     String message, counter;
     if (obj.isEmpty()) {
@@ -304,6 +588,53 @@ public class ExistenceChecker {
     logCb.logError(counter, message);
   }
 
+  // Returns a 64-bit fingerprint of a node (if "o" is empty) or triple, i.e., of makeKey(s, p, o),
+  // but without building the key string or allocating. This is FNV-1a over the UTF-16 chars of the
+  // key, with a final mix so that the low bits are usable as a hash table index. Used as the key in
+  // the caches above (see checkFingerprint() for collisions), the persistent cache and schema
+  // snapshot.
+  static long fingerprint(String s, String p, String o) {
+    long h = hashChars(FNV_OFFSET_BASIS, s);
+    if (!o.isEmpty()) {
+      h = hashChars((h ^ ',') * FNV_PRIME, p);
+      h = hashChars((h ^ ',') * FNV_PRIME, o);
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  // Returns a second 64-bit fingerprint of a node or triple, computed differently from
+  // fingerprint(), to tell apart keys whose fingerprints collide. This is a multiplicative hash of
+  // the chars of the key, with the splitmix64 finalizer.
+  static long checkFingerprint(String s, String p, String o) {
+    long h = checkHashChars(CHECK_SEED, s);
+    if (!o.isEmpty()) {
+      h = checkHashChars((h + ',') * CHECK_MULTIPLIER, p);
+      h = checkHashChars((h + ',') * CHECK_MULTIPLIER, o);
+    }
+    h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+    h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+    return h ^ (h >>> 31);
+  }
+
+  private static long checkHashChars(long h, String str) {
+    for (int i = 0; i < str.length(); i++) {
+      h = (h + str.charAt(i)) * CHECK_MULTIPLIER;
+    }
+    return h;
+  }
+
+  private static long hashChars(long h, String str) {
+    for (int i = 0; i < str.length(); i++) {
+      h = (h ^ str.charAt(i)) * FNV_PRIME;
+    }
+    return h;
+  }
+
   private static String makeKey(String s, String p, String o) {
     if (o.isEmpty()) {
       return s;
@@ -11,9 +11,14 @@ import java.rmi.UnexpectedException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.datacommons.proto.Debug;
@@ -28,6 +33,12 @@ import org.datacommons.proto.Recon;
 // 3. Do M resolveNode calls (to resolve a dcid)
 //
 // If this order is not followed, errors will be thrown.
+//
+// Submission does not take locks: IDs are added to concurrent maps and a queue, and the thread
+// whose submission fills up a batch takes it off the queue and sends it. By default that thread
+// makes the DC call and waits for it, while other threads keep submitting. If maxInFlightCalls is
+// > 0, batches are instead sent asynchronously with up to that many calls in flight.
+//
 // This class is thread-safe.
 public class ExternalIdResolver {
   private static final Logger logger = LogManager.getLogger(ExternalIdResolver.class);
@@ -36,80 +47,111 @@ public class ExternalIdResolver {
   // Let tests modify it.
   static int MAX_RESOLUTION_BATCH_IDS = 500;
 
-  private boolean drained = false;
+  private volatile boolean drained = false;
   private final boolean verbose;
   private final LogWrapper logCtx;
   private final HttpClient httpClient;
 
-  // IDs waiting to be mapped.
+  // IDs submitted for resolution, whether batched, in flight or done, so that each is sent once.
   // Key: ID property, Value: set of external IDs
-  private Map<String, Set<String>> batchedIds = new HashMap<>();
-  private int numBatchedIds = 0;
+  private final Map<String, Set<String>> submittedIds = new ConcurrentHashMap<>();
+
+  // IDs waiting to be mapped, as {ID property, external ID}. An ID is added to the queue before
+  // it is counted in numBatchedIds, so whoever resets the count can poll that many IDs.
+  private final Queue<String[]> batchedIds = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger numBatchedIds = new AtomicInteger();
 
   // IDs mapped already.
   // Key: ID property, Value: Map(Key: external ID, Value: DCID)
-  private Map<String, Map<String, String>> mappedIds = new HashMap<>();
+  private final Map<String, Map<String, String>> mappedIds = new ConcurrentHashMap<>();
+
+  // Limits the number of asynchronous DC calls in flight. The semaphore is null in synchronous
+  // mode.
+  private final int maxInFlightCalls;
+  private final Semaphore inFlightCalls;
+  // The first failure of an asynchronous DC call, rethrown to the caller.
+  private IOException asyncFailure = null;
 
-  // First all the id maps are populated ("write" phase), and then used for resolution ("read"
-  // phase), so we use RW locks.
-  private final ReadWriteLock rwlock = new ReentrantReadWriteLock();
+  // Persistent cache of resolution results across runs, or null.
+  private final ResolutionCache cache;
 
   public ExternalIdResolver(HttpClient httpClient, boolean verbose, LogWrapper logCtx) {
+    this(httpClient, verbose, logCtx, 0, null);
+  }
+
+  // If cache is not null, it is consulted before batching IDs, and updated with the results of the
+  // DC calls by drainRemoteCalls().
+  public ExternalIdResolver(
+      HttpClient httpClient,
+      boolean verbose,
+      LogWrapper logCtx,
+      int maxInFlightCalls,
+      ResolutionCache cache) {
     this.httpClient = httpClient;
     this.verbose = verbose;
     this.logCtx = logCtx;
+    this.maxInFlightCalls = maxInFlightCalls;
+    this.inFlightCalls = maxInFlightCalls > 0 ? new Semaphore(maxInFlightCalls) : null;
+    this.cache = cache;
   }
 
   public void submitNode(Mcf.McfGraph.PropertyValues node)
       throws IOException, InterruptedException {
-    rwlock.writeLock().lock();
-    try {
-      if (drained) {
-        throw new UnexpectedException("Cannot call submitMcf after drainRemoteCalls!");
-      }
-      // Nothing to do if this is not a resolvable type.
-      if (!isResolvableType(node)) return;
-
-      for (var propIds : getExternalIds(node).entrySet()) {
-        var prop = propIds.getKey();
-        Set<String> batched = batchedIds.getOrDefault(prop, null);
-        Map<String, String> mapped = mappedIds.getOrDefault(prop, null);
-        int numOrig = batched != null ? batched.size() : 0;
-        for (var id : propIds.getValue()) {
-          if (mapped != null && mapped.containsKey(id)) {
-            // This ID is already mapped.
-            continue;
-          }
-          if (batched == null) batched = new HashSet<>();
-          batched.add(id);
+    if (drained) {
+      throw new UnexpectedException("Cannot call submitMcf after drainRemoteCalls!");
+    }
+    // Nothing to do if this is not a resolvable type.
+    if (!isResolvableType(node)) return;
+
+    for (var propIds : getExternalIds(node).entrySet()) {
+      var prop = propIds.getKey();
+      Map<String, String> mapped = mappedIds.get(prop);
+      Set<String> submitted = null;
+      for (var id : propIds.getValue()) {
+        if (mapped != null && mapped.containsKey(id)) {
+          // This ID is already mapped.
+          continue;
         }
-        if (batched != null) {
-          numBatchedIds += (batched.size() - numOrig);
-          batchedIds.put(prop, batched);
+        if (submitted == null) {
+          submitted = submittedIds.computeIfAbsent(prop, k -> ConcurrentHashMap.newKeySet());
+        }
+        if (submitted.add(id) && !checkCache(prop, id)) {
+          batchedIds.add(new String[] {prop, id});
+          numBatchedIds.incrementAndGet();
         }
       }
+    }
 
-      if (numBatchedIds >= MAX_RESOLUTION_BATCH_IDS) {
+    int numBatched = numBatchedIds.get();
+    while (numBatched >= MAX_RESOLUTION_BATCH_IDS) {
+      if (numBatchedIds.compareAndSet(numBatched, 0)) {
         if (verbose) {
           logger.info("Processing batched external-IDs due to MAX_RESOLUTION_BATCH_IDS threshold");
         }
-        drainRemoteCallsInternal();
+        sendBatch(takeBatch(numBatched));
+        break;
       }
-    } finally {
-      rwlock.writeLock().unlock();
+      numBatched = numBatchedIds.get();
     }
   }
 
   public void drainRemoteCalls() throws IOException, InterruptedException {
-    rwlock.writeLock().lock();
-    try {
+    synchronized (this) {
       if (drained) {
         throw new UnexpectedException("drainRemoteCalls() can only be called once!");
       }
-      drainRemoteCallsInternal();
       drained = true;
-    } finally {
-      rwlock.writeLock().unlock();
+    }
+    sendBatch(takeBatch(numBatchedIds.getAndSet(0)));
+    if (inFlightCalls != null) {
+      // Wait for the in-flight calls by taking all the permits.
+      inFlightCalls.acquire(maxInFlightCalls);
+      inFlightCalls.release(maxInFlightCalls);
+      throwIfAsyncFailure();
+    }
+    if (cache != null) {
+      logger.info("Saving {} new resolution results to the cache", cache.numAdded());
+      cache.save();
     }
   }
 
@@ -119,78 +161,73 @@ public class ExternalIdResolver {
   // REQUIRES: drainRemoteCalls() is called.
   public String resolveNode(String nodeId, Mcf.McfGraph.PropertyValues node)
       throws UnexpectedException {
-    rwlock.readLock().lock();
-    try {
-      if (!drained) {
-        throw new UnexpectedException("Cannot call resolveNode before drainRemoteCalls!");
-      }
-      String foundDcid = new String();
-
-      // Nothing to do if not resolvable.
-      if (!isResolvableType(node)) return foundDcid;
-
-      // If there are multiple external IDs, then they all must map to the same DCID!
-      String foundExternalProp = null;
-      String foundExternalId = null;
-      for (var propIds : getExternalIds(node).entrySet()) {
-        var prop = propIds.getKey();
-        for (var id : propIds.getValue()) {
-          if (mappedIds == null
-              || !mappedIds.containsKey(prop)
-              || !mappedIds.get(prop).containsKey(id)) {
-            logCtx.addEntry(
-                Debug.Log.Level.LEVEL_ERROR,
-                "Resolution_UnresolvedExternalId_" + prop,
-                "Unresolved external ID :: id: '"
-                    + id
-                    + "', property: '"
-                    + prop
-                    + "', node: '"
-                    + nodeId,
-                node.getLocationsList());
-            return "";
-          }
-          var newDcid = mappedIds.get(prop).get(id);
-          if (!foundDcid.isEmpty() && !foundDcid.equals(newDcid)) {
-            boolean foundFirst = foundExternalProp.compareTo(prop) < 0; // for deterministic order
-            logCtx.addEntry(
-                Debug.Log.Level.LEVEL_ERROR,
-                "Resolution_DivergingDcidsForExternalIds_"
-                    + (foundFirst ? foundExternalProp : prop)
-                    + "_"
-                    + (foundFirst ? prop : foundExternalProp),
-                "Found diverging DCIDs for external IDs :: extId1: '"
-                    + (foundFirst ? foundExternalId : id)
-                    + ", "
-                    + "dcid1: '"
-                    + (foundFirst ? foundDcid : newDcid)
-                    + "', property1: '"
-                    + (foundFirst ? foundExternalProp : prop)
-                    + ", "
-                    + "extId2: '"
-                    + (foundFirst ? id : foundExternalId)
-                    + "', dcid2:"
-                    + (foundFirst ? newDcid : foundDcid)
-                    + ", property2: '"
-                    + (foundFirst ? prop : foundExternalProp)
-                    + "', node: '"
-                    + nodeId
-                    + "'",
-                node.getLocationsList());
-            return "";
-          }
-          foundDcid = newDcid;
-          foundExternalProp = prop;
-          foundExternalId = id;
+    if (!drained) {
+      throw new UnexpectedException("Cannot call resolveNode before drainRemoteCalls!");
+    }
+    String foundDcid = new String();
+
+    // Nothing to do if not resolvable.
+    if (!isResolvableType(node)) return foundDcid;
+
+    // If there are multiple external IDs, then they all must map to the same DCID!
+    String foundExternalProp = null;
+    String foundExternalId = null;
+    for (var propIds : getExternalIds(node).entrySet()) {
+      var prop = propIds.getKey();
+      for (var id : propIds.getValue()) {
+        if (mappedIds == null
+            || !mappedIds.containsKey(prop)
+            || !mappedIds.get(prop).containsKey(id)) {
+          logCtx.addEntry(
+              Debug.Log.Level.LEVEL_ERROR,
+              "Resolution_UnresolvedExternalId_" + prop,
+              "Unresolved external ID :: id: '"
+                  + id
+                  + "', property: '"
+                  + prop
+                  + "', node: '"
+                  + nodeId,
+              node.getLocationsList());
+          return "";
         }
+        var newDcid = mappedIds.get(prop).get(id);
+        if (!foundDcid.isEmpty() && !foundDcid.equals(newDcid)) {
+          boolean foundFirst = foundExternalProp.compareTo(prop) < 0; // for deterministic order
+          logCtx.addEntry(
+              Debug.Log.Level.LEVEL_ERROR,
+              "Resolution_DivergingDcidsForExternalIds_"
+                  + (foundFirst ? foundExternalProp : prop)
+                  + "_"
+                  + (foundFirst ? prop : foundExternalProp),
+              "Found diverging DCIDs for external IDs :: extId1: '"
+                  + (foundFirst ? foundExternalId : id)
+                  + ", "
+                  + "dcid1: '"
+                  + (foundFirst ? foundDcid : newDcid)
+                  + "', property1: '"
+                  + (foundFirst ? foundExternalProp : prop)
+                  + ", "
+                  + "extId2: '"
+                  + (foundFirst ? id : foundExternalId)
+                  + "', dcid2:"
+                  + (foundFirst ? newDcid : foundDcid)
+                  + ", property2: '"
+                  + (foundFirst ? prop : foundExternalProp)
+                  + "', node: '"
+                  + nodeId
+                  + "'",
+              node.getLocationsList());
+          return "";
+        }
+        foundDcid = newDcid;
+        foundExternalProp = prop;
+        foundExternalId = id;
       }
-      return foundDcid;
-    } finally {
-      rwlock.readLock().unlock();
     }
+    return foundDcid;
   }
 
-  public synchronized void addLocalGraph(Mcf.McfGraph.PropertyValues node) {
+  public void addLocalGraph(Mcf.McfGraph.PropertyValues node) {
     // Skip doing anything with unresolvable types.
     if (!isResolvableType(node)) {
       return;
@@ -211,7 +248,7 @@ public class ExternalIdResolver {
     }
   }
 
-  public synchronized void addLocalGraph(Mcf.McfGraph graph) {
+  public void addLocalGraph(Mcf.McfGraph graph) {
     for (Map.Entry<String, Mcf.McfGraph.PropertyValues> nodeEntry :
         graph.getNodesMap().entrySet()) {
       addLocalGraph(nodeEntry.getValue());
@@ -226,39 +263,88 @@ public class ExternalIdResolver {
     return false;
   }
 
-  private void drainRemoteCallsInternal() throws IOException, InterruptedException {
-    // Package a request with all the batched IDs.
+  // Returns true if the cache has the result for the ID, in which case it is added to mappedIds (if
+  // it resolved).
+  private boolean checkCache(String prop, String id) {
+    if (cache == null) return false;
+    String dcid = cache.get(prop, id);
+    if (dcid == null) {
+      logCtx.incrementInfoCounterBy("Resolution_CacheMisses", 1);
+      return false;
+    }
+    logCtx.incrementInfoCounterBy("Resolution_CacheHits", 1);
+    if (!dcid.isEmpty()) {
+      addToMappedIds(prop, id, dcid);
+    }
+    return true;
+  }
+
+  // Takes "count" IDs off the queue, and packages them in a request. Returns null if there are
+  // none.
+  private Recon.ResolveEntitiesRequest takeBatch(int count) {
+    if (count == 0) return null;
     Recon.ResolveEntitiesRequest.Builder request = Recon.ResolveEntitiesRequest.newBuilder();
     request.addWantedIdProperties(Vocabulary.DCID);
-    for (var propIds : batchedIds.entrySet()) {
-      var prop = propIds.getKey();
-      for (var id : propIds.getValue()) {
-        var reqEntity = request.addEntitiesBuilder();
-        var reqIds = reqEntity.getEntityIdsBuilder();
-        var reqId = reqIds.addIdsBuilder();
-        reqId.setProp(prop);
-        reqId.setVal(id);
-        reqEntity.setSourceId(prop + ":" + id);
-      }
+    for (int i = 0; i < count; i++) {
+      String[] propId = batchedIds.poll();
+      var reqEntity = request.addEntitiesBuilder();
+      var reqIds = reqEntity.getEntityIdsBuilder();
+      var reqId = reqIds.addIdsBuilder();
+      reqId.setProp(propId[0]);
+      reqId.setVal(propId[1]);
+      reqEntity.setSourceId(propId[0] + ":" + propId[1]);
     }
-    if (request.getEntitiesCount() == 0) {
+    return request.build();
+  }
+
+  private void sendBatch(Recon.ResolveEntitiesRequest request)
+      throws IOException, InterruptedException {
+    if (request == null) {
       return;
     }
-
     // Issue the RPC.
     if (verbose) {
       logger.info("Issuing ResolveEntities call with " + request.getEntitiesCount() + " IDs");
     }
-    var response = callDc(request.build());
+    if (inFlightCalls == null) {
+      processResponse(callDc(request));
+      return;
+    }
+
+    throwIfAsyncFailure();
+    inFlightCalls.acquire();
+    CompletableFuture<Recon.ResolveEntitiesResponse> call;
+    try {
+      call = callDcAsync(request);
+    } catch (IOException | RuntimeException e) {
+      inFlightCalls.release();
+      throw e;
+    }
+    call.whenComplete(
+        (response, error) -> {
+          try {
+            if (error != null) {
+              throw new IOException("ResolveEntities call failed", error);
+            }
+            processResponse(response);
+          } catch (IOException e) {
+            setAsyncFailure(e);
+          } finally {
+            inFlightCalls.release();
+          }
+        });
+  }
 
-    // Process response.
+  private void processResponse(Recon.ResolveEntitiesResponse response)
+      throws InvalidProtocolBufferException {
     for (var entity : response.getResolvedEntitiesList()) {
+      var parts = entity.getSourceId().split(":", 2);
       if (entity.getResolvedIdsCount() == 0) {
         // Unable to resolve ID.
         if (verbose) logger.info("Unable to resolve " + entity.getSourceId());
+        if (cache != null && parts.length == 2) cache.put(parts[0], parts[1], "");
         continue;
       }
-      var parts = entity.getSourceId().split(":", 2);
       // TODO: Add back the (entity.getResolvedIdsCount() == 1) assertion after
       // https://github.com/datacommonsorg/reconciliation/issues/15 is fixed.
       if (parts.length != 2) {
@@ -276,6 +362,7 @@ public class ExternalIdResolver {
           break;
         }
       }
+      if (cache != null) cache.put(extProp, extId, dcid);
       if (!dcid.isEmpty()) {
         addToMappedIds(extProp, extId, dcid);
         if (verbose) logger.info("Resolved " + entity.getSourceId() + " -> " + dcid);
@@ -283,28 +370,62 @@ public class ExternalIdResolver {
         if (verbose) logger.info("Resolved to empty dcid for " + entity.getSourceId());
       }
     }
+  }
+
+  private synchronized void setAsyncFailure(IOException e) {
+    logger.error("Asynchronous ResolveEntities call failed", e);
+    if (asyncFailure == null) {
+      asyncFailure = e;
+    }
+  }
 
-    // Clear the batch.
-    batchedIds.clear();
+  private synchronized void throwIfAsyncFailure() throws IOException {
+    if (asyncFailure != null) {
+      throw asyncFailure;
+    }
   }
 
   private void addToMappedIds(String extProp, String extId, String dcid) {
-    mappedIds.computeIfAbsent(extProp, k -> new HashMap<>()).put(extId, dcid);
+    mappedIds.computeIfAbsent(extProp, k -> new ConcurrentHashMap<>()).put(extId, dcid);
   }
 
   private Recon.ResolveEntitiesResponse callDc(Recon.ResolveEntitiesRequest reconReq)
       throws IOException, InterruptedException {
     logCtx.incrementInfoCounterBy("Resolution_NumDcCalls", 1);
-    var request =
-        HttpRequest.newBuilder(URI.create(API_ROOT))
-            .version(HttpClient.Version.HTTP_1_1)
-            .header("accept", "application/json")
-            .POST(HttpRequest.BodyPublishers.ofString(StringUtil.msgToJson(reconReq)))
-            .build();
-    var response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    var response = httpClient.send(newHttpRequest(reconReq), HttpResponse.BodyHandlers.ofString());
+    return parseResponse(response.body());
+  }
+
+  // Like callDc(), but does not block on the call. The returned future completes on a thread of
+  // the httpClient's executor.
+  private CompletableFuture<Recon.ResolveEntitiesResponse> callDcAsync(
+      Recon.ResolveEntitiesRequest reconReq) throws IOException {
+    logCtx.incrementInfoCounterBy("Resolution_NumDcCalls", 1);
+    return httpClient
+        .sendAsync(newHttpRequest(reconReq), HttpResponse.BodyHandlers.ofString())
+        .thenApply(
+            response -> {
+              try {
+                return parseResponse(response.body());
+              } catch (InvalidProtocolBufferException e) {
+                throw new CompletionException(e);
+              }
+            });
+  }
+
+  private static HttpRequest newHttpRequest(Recon.ResolveEntitiesRequest reconReq)
+      throws IOException {
+    return HttpRequest.newBuilder(URI.create(API_ROOT))
+        .version(HttpClient.Version.HTTP_1_1)
+        .header("accept", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(StringUtil.msgToJson(reconReq)))
+        .build();
+  }
+
+  private static Recon.ResolveEntitiesResponse parseResponse(String body)
+      throws InvalidProtocolBufferException {
     var reconResp = Recon.ResolveEntitiesResponse.newBuilder();
-    var jsonBody = response.body().trim();
-    JsonFormat.parser().merge(jsonBody, reconResp);
+    JsonFormat.parser().merge(body.trim(), reconResp);
     return reconResp.build();
   }
 
@@ -65,8 +65,9 @@ public class FileGroup {
     List<File> mcfFiles = new ArrayList<>();
     int nTsv = 0;
     for (File file : files) {
-      String lowerPath = file.getPath().toLowerCase();
-      if (lowerPath.endsWith(".mcf")) {
+      // Compressed files (e.g., "data.csv.gz") are read as the type of the uncompressed file.
+      String lowerPath = CompressedFiles.stripSuffix(file.getPath()).toLowerCase();
+      if (lowerPath.endsWith(".mcf") || lowerPath.endsWith(McfFileWriter.PROTO_EXTENSION)) {
         mcfFiles.add(file);
       } else if (lowerPath.endsWith(".tmcf")) {
         tmcfFiles.add(file);
@@ -0,0 +1,138 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+// A map from primitive longs to primitive longs, which unlike HashMap<Long, Long> does not
+// allocate per entry.
+//
+// It is an open-addressing hash table with linear probing, with the keys and values in parallel
+// arrays. 0 marks an empty key slot, so the key 0 is tracked separately.
+// Entries cannot be removed.
+//
+// This class is not thread-safe.
+public final class LongLongHashMap {
+  private static final int MIN_CAPACITY = 16;
+  // Grow when more than 3/4 of the slots are used.
+  private static final int LOAD_FACTOR_SHIFT = 2;
+
+  private long[] keys;
+  private long[] values;
+  private int mask;
+  // Number of non-zero keys in keys.
+  private int used = 0;
+  private boolean hasZero = false;
+  private long zeroValue = 0;
+
+  public LongLongHashMap() {
+    this(MIN_CAPACITY);
+  }
+
+  public LongLongHashMap(int expectedSize) {
+    int capacity = MIN_CAPACITY;
+    while (capacity - (capacity >>> LOAD_FACTOR_SHIFT) < expectedSize) {
+      capacity <<= 1;
+    }
+    keys = new long[capacity];
+    values = new long[capacity];
+    mask = capacity - 1;
+  }
+
+  public boolean containsKey(long key) {
+    if (key == 0) return hasZero;
+    return keys[find(key)] == key;
+  }
+
+  // Returns the value of "key", or "defaultValue" if it has none.
+  public long get(long key, long defaultValue) {
+    if (key == 0) return hasZero ? zeroValue : defaultValue;
+    int i = find(key);
+    return keys[i] == key ? values[i] : defaultValue;
+  }
+
+  public void put(long key, long value) {
+    if (key == 0) {
+      hasZero = true;
+      zeroValue = value;
+      return;
+    }
+    int i = find(key);
+    if (keys[i] == key) {
+      values[i] = value;
+      return;
+    }
+    insert(i, key, value);
+  }
+
+  // Associates "key" with "value" if it has no value yet. Returns the value of "key" after the
+  // call, i.e., the existing value, or "value".
+  public long putIfAbsent(long key, long value) {
+    if (key == 0) {
+      if (!hasZero) {
+        hasZero = true;
+        zeroValue = value;
+      }
+      return zeroValue;
+    }
+    int i = find(key);
+    if (keys[i] == key) return values[i];
+    insert(i, key, value);
+    return value;
+  }
+
+  public int size() {
+    return used + (hasZero ? 1 : 0);
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  // Returns the slot of the non-zero "key", or the empty slot where it would be inserted.
+  private int find(long key) {
+    int i = slot(key);
+    while (keys[i] != 0 && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  private void insert(int i, long key, long value) {
+    keys[i] = key;
+    values[i] = value;
+    if (++used > keys.length - (keys.length >>> LOAD_FACTOR_SHIFT)) {
+      resize(keys.length << 1);
+    }
+  }
+
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    keys = new long[capacity];
+    values = new long[capacity];
+    mask = capacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] == 0) continue;
+      int i = find(oldKeys[j]);
+      keys[i] = oldKeys[j];
+      values[i] = oldValues[j];
+    }
+  }
+
+  private int slot(long key) {
+    // The keys are usually hashes already, but mix them anyway so that patterned keys spread out.
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+}
@@ -0,0 +1,430 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Reads CSV records from a memory-mapped file, as an alternative to commons-csv's CSVParser for
+// TmcfCsvParser.
+//
+// Records are tokenized directly on the UTF-8 bytes, and only the byte offsets of the cells are
+// kept. A cell is decoded into a String only when Record.get() is called on it, so cells that the
+// template does not refer to cost no more than scanning over them.
+//
+// The tokenizer follows the CSVFormat used by TmcfCsvParser (see TmcfCsvParser.csvFormat()) as
+// implemented by commons-csv's Lexer, including its quirks, so that both produce the same values
+// and line numbers:
+//  - Records end at "\n", "\r" or "\r\n", and empty lines are skipped.
+//  - Whitespace around unquoted values is removed.
+//  - A '"' opens a quoted value only at the start of a cell (after whitespace), a doubled '"'
+//    inside it is a literal quote, and only whitespace may follow the closing quote.
+//  - '\' escapes the next character, both in unquoted and quoted values. "\r", "\n", "\t", "\b"
+//    and "\f" are control characters, and an escaped delimiter, quote or '\' is the character
+//    itself. Before any other character, the '\' is kept.
+// Malformed input throws IllegalStateException, like iterating a CSVParser does.
+//
+// The file is mapped in segments of up to 2GB, and a record must fit in one segment.
+//
+// Like CSVParser, reading is not thread-safe. Records are immutable though, and can be read from
+// any thread.
+public class MappedCsvReader implements Closeable {
+  private static final int EOF = -1;
+  private static final int CR = '\r';
+  private static final int LF = '\n';
+  private static final int QUOTE = '"';
+  private static final int ESCAPE = '\\';
+  // Cell flags.
+  private static final int QUOTED = 1;
+  private static final int HAS_ESCAPES = 2;
+
+  // Thrown when the tokenizer reaches the end of the mapped segment before the end of the input, to
+  // map a new segment that starts at the current record and parse it again.
+  private static final class SegmentEnd extends RuntimeException {
+    SegmentEnd() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final SegmentEnd SEGMENT_END = new SegmentEnd();
+
+  // The messages of malformed input errors are those of CSVParser's iterator.
+  private static final String IO_EXCEPTION =
+      "IOException reading next record: java.io.IOException: ";
+  private static final String EOF_IN_ESCAPE =
+      IO_EXCEPTION + "EOF whilst processing escape sequence";
+
+  private final FileChannel channel;
+  private final long end;
+  private final int delimiter;
+  private final int maxSegmentBytes;
+  // The mapped segment, which starts at file offset segmentStart.
+  private ByteBuffer segment;
+  private long segmentStart;
+  private boolean segmentAtEnd;
+  // Position in the segment.
+  private int pos;
+  // The last character consumed, or -2 at the start, like commons-csv's ExtendedBufferedReader.
+  private int lastChar = -2;
+  private long lineNumber = 0;
+  // Start offset, end offset and flags of the cells of the record being read.
+  private int[] cells = new int[3 * 64];
+  private int numCells;
+
+  // A CSV record. Values are decoded when they are first requested.
+  public static final class Record {
+    private final ByteBuffer segment;
+    private final int[] cells;
+    private final int delimiter;
+
+    private Record(ByteBuffer segment, int[] cells, int delimiter) {
+      this.segment = segment;
+      this.cells = cells;
+      this.delimiter = delimiter;
+    }
+
+    public int size() {
+      return cells.length / 3;
+    }
+
+    public String get(int i) {
+      int start = cells[3 * i];
+      int end = cells[3 * i + 1];
+      int flags = cells[3 * i + 2];
+      byte[] bytes = new byte[end - start];
+      for (int j = 0; j < bytes.length; j++) {
+        bytes[j] = segment.get(start + j);
+      }
+      String raw = new String(bytes, StandardCharsets.UTF_8);
+      String value = (flags & HAS_ESCAPES) != 0 ? unescape(raw, (flags & QUOTED) != 0) : raw;
+      return (flags & QUOTED) != 0 ? value : trimTrailing(value);
+    }
+
+    public String[] values() {
+      String[] values = new String[size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = get(i);
+      }
+      return values;
+    }
+
+    @Override
+    public String toString() {
+      return Arrays.toString(values());
+    }
+
+    // Resolves the escapes and, in quoted values, doubled quotes.
+    private String unescape(String raw, boolean quoted) {
+      StringBuilder sb = new StringBuilder(raw.length());
+      for (int i = 0; i < raw.length(); i++) {
+        char c = raw.charAt(i);
+        if (c == ESCAPE) {
+          char next = raw.charAt(++i);
+          switch (next) {
+            case 'r':
+              sb.append('\r');
+              break;
+            case 'n':
+              sb.append('\n');
+              break;
+            case 't':
+              sb.append('\t');
+              break;
+            case 'b':
+              sb.append('\b');
+              break;
+            case 'f':
+              sb.append('\f');
+              break;
+            case '\r':
+            case '\n':
+            case '\t':
+            case '\b':
+            case '\f':
+            case ESCAPE:
+            case QUOTE:
+              sb.append(next);
+              break;
+            default:
+              if (next != delimiter) sb.append(c);
+              sb.append(next);
+          }
+        } else if (quoted && c == QUOTE) {
+          // The first of a doubled quote.
+          sb.append(raw.charAt(++i));
+        } else {
+          sb.append(c);
+        }
+      }
+      return sb.toString();
+    }
+
+    private static String trimTrailing(String value) {
+      int len = value.length();
+      while (len > 0 && Character.isWhitespace(value.charAt(len - 1))) {
+        len--;
+      }
+      return len == value.length() ? value : value.substring(0, len);
+    }
+  }
+
+  private MappedCsvReader(FileChannel channel, long end, char delimiter, int maxSegmentBytes) {
+    this.channel = channel;
+    this.end = end;
+    this.delimiter = delimiter;
+    this.maxSegmentBytes = maxSegmentBytes;
+  }
+
+  // Returns whether the reader supports "delimiter". Only single-byte delimiters that are not
+  // otherwise special are supported.
+  public static boolean supports(char delimiter) {
+    return delimiter < 0x80
+        && delimiter != QUOTE
+        && delimiter != ESCAPE
+        && delimiter != CR
+        && delimiter != LF;
+  }
+
+  // Opens a reader for the bytes [start, end) of "file". If "end" is negative, reads until the end
+  // of the file.
+  public static MappedCsvReader open(Path file, long start, long end, char delimiter)
+      throws IOException {
+    return open(file, start, end, delimiter, Integer.MAX_VALUE);
+  }
+
+  static MappedCsvReader open(Path file, long start, long end, char delimiter, int maxSegmentBytes)
+      throws IOException {
+    if (!supports(delimiter)) {
+      throw new IllegalArgumentException("Unsupported CSV delimiter: '" + delimiter + "'");
+    }
+    FileChannel channel = FileChannel.open(file);
+    try {
+      long size = channel.size();
+      MappedCsvReader reader =
+          new MappedCsvReader(
+              channel, end < 0 ? size : Math.min(end, size), delimiter, maxSegmentBytes);
+      reader.map(start);
+      return reader;
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  // Number of line breaks read so far, including those inside quoted values. After next(), this is
+  // the line number of the last line of the record, like CSVParser.getCurrentLineNumber().
+  public long getLineNumber() {
+    return lineNumber;
+  }
+
+  // Returns the next record, or null at the end of the input.
+  public Record next() throws IOException {
+    while (true) {
+      int startPos = pos;
+      int startLastChar = lastChar;
+      long startLineNumber = lineNumber;
+      try {
+        return readRecord();
+      } catch (SegmentEnd e) {
+        long recordStart = segmentStart + startPos;
+        if (startPos == 0) {
+          throw new IllegalStateException(
+              "CSV record at line " + startLineNumber + " is larger than " + maxSegmentBytes);
+        }
+        map(recordStart);
+        lastChar = startLastChar;
+        lineNumber = startLineNumber;
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private void map(long start) throws IOException {
+    long length = Math.min(end - start, maxSegmentBytes);
+    segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.max(length, 0));
+    segmentStart = start;
+    segmentAtEnd = start + length >= end;
+    pos = 0;
+  }
+
+  // Reads the next character, or EOF, and counts line breaks.
+  private int read() {
+    int c;
+    if (pos < segment.limit()) {
+      c = segment.get(pos++) & 0xFF;
+    } else if (segmentAtEnd) {
+      c = EOF;
+    } else {
+      throw SEGMENT_END;
+    }
+    if (c == CR || (c == LF && lastChar != CR)) lineNumber++;
+    lastChar = c;
+    return c;
+  }
+
+  private int lookAhead() {
+    if (pos < segment.limit()) return segment.get(pos) & 0xFF;
+    if (segmentAtEnd) return EOF;
+    throw SEGMENT_END;
+  }
+
+  // Cell end types, like commons-csv's Token.Type.
+  private static final int TOKEN = 0;
+  private static final int END_OF_RECORD = 1;
+  // The end of the input, without a cell.
+  private static final int END_OF_INPUT = 2;
+
+  // Like CSVParser.nextRecord().
+  private Record readRecord() {
+    numCells = 0;
+    while (readCell() == TOKEN) {}
+    if (numCells == 0) return null;
+    return new Record(segment, Arrays.copyOf(cells, 3 * numCells), delimiter);
+  }
+
+  // Reads a cell and adds it to "cells", like commons-csv's Lexer.nextToken().
+  private int readCell() {
+    int prev = lastChar;
+    int c = read();
+    boolean eol = readEndOfLine(c);
+    // Skip empty lines.
+    while (eol && isStartOfLine(prev)) {
+      prev = c;
+      c = read();
+      eol = readEndOfLine(c);
+      if (c == EOF) return END_OF_INPUT;
+    }
+    if (prev == EOF || (prev != delimiter && c == EOF)) return END_OF_INPUT;
+    // Skip leading whitespace.
+    while (!eol) {
+      int ws = whitespaceLength(c);
+      if (ws == 0) break;
+      pos += ws - 1;
+      c = read();
+      eol = readEndOfLine(c);
+    }
+    if (c == delimiter) return addCell(pos, pos, 0, TOKEN);
+    if (eol || c == EOF) return addCell(pos, pos, 0, END_OF_RECORD);
+    if (c == QUOTE) return readQuoted();
+    return readUnquoted(c);
+  }
+
+  // Like Lexer.parseSimpleToken(). The first character "c" has been read.
+  private int readUnquoted(int c) {
+    int start = pos - 1;
+    int flags = 0;
+    while (true) {
+      if (c == ESCAPE) {
+        if (read() == EOF) throw new IllegalStateException(EOF_IN_ESCAPE);
+        flags |= HAS_ESCAPES;
+      }
+      int cellEnd = pos;
+      c = read();
+      if (c == delimiter) return addCell(start, cellEnd, flags, TOKEN);
+      if (c == EOF || readEndOfLine(c)) return addCell(start, cellEnd, flags, END_OF_RECORD);
+    }
+  }
+
+  // Like Lexer.parseEncapsulatedToken(). The opening quote has been read.
+  private int readQuoted() {
+    long startLine = lineNumber;
+    int start = pos;
+    int flags = QUOTED;
+    while (true) {
+      int c = read();
+      if (c == ESCAPE) {
+        if (read() == EOF) throw new IllegalStateException(EOF_IN_ESCAPE);
+        flags |= HAS_ESCAPES;
+      } else if (c == QUOTE) {
+        if (lookAhead() == QUOTE) {
+          read();
+          flags |= HAS_ESCAPES;
+          continue;
+        }
+        int cellEnd = pos - 1;
+        while (true) {
+          c = read();
+          if (c == delimiter) return addCell(start, cellEnd, flags, TOKEN);
+          if (c == EOF || readEndOfLine(c)) return addCell(start, cellEnd, flags, END_OF_RECORD);
+          int ws = whitespaceLength(c);
+          if (ws == 0) {
+            throw new IllegalStateException(
+                IO_EXCEPTION
+                    + "(line "
+                    + lineNumber
+                    + ") invalid char between encapsulated token and delimiter");
+          }
+          pos += ws - 1;
+        }
+      } else if (c == EOF) {
+        throw new IllegalStateException(
+            IO_EXCEPTION
+                + "(startline "
+                + startLine
+                + ") EOF reached before encapsulated token finished");
+      }
+    }
+  }
+
+  private int addCell(int start, int end, int flags, int type) {
+    if (3 * numCells + 3 > cells.length) {
+      cells = Arrays.copyOf(cells, 2 * cells.length);
+    }
+    cells[3 * numCells] = start;
+    cells[3 * numCells + 1] = end;
+    cells[3 * numCells + 2] = flags;
+    numCells++;
+    return type;
+  }
+
+  // Consumes the "\n" of a "\r\n".
+  private boolean readEndOfLine(int c) {
+    if (c == CR && lookAhead() == LF) {
+      c = read();
+    }
+    return c == LF || c == CR;
+  }
+
+  private static boolean isStartOfLine(int c) {
+    return c == LF || c == CR || c == -2;
+  }
+
+  // Returns the length in bytes of the whitespace character (other than the delimiter) that starts
+  // with the byte "c", which has just been read, or 0 if it is not whitespace. Multi-byte UTF-8
+  // whitespace (e.g. U+3000) is decoded, since commons-csv decodes the input before trimming it.
+  private int whitespaceLength(int c) {
+    if (c < 0x80) {
+      return c != delimiter && Character.isWhitespace(c) ? 1 : 0;
+    }
+    int len = (c & 0xE0) == 0xC0 ? 2 : (c & 0xF0) == 0xE0 ? 3 : 0;
+    if (len == 0 || pos + len - 1 > segment.limit()) return 0;
+    int cp = c & (len == 2 ? 0x1F : 0x0F);
+    for (int i = 0; i < len - 1; i++) {
+      int b = segment.get(pos + i) & 0xFF;
+      if ((b & 0xC0) != 0x80) return 0;
+      cp = (cp << 6) | (b & 0x3F);
+    }
+    return Character.isWhitespace(cp) ? len : 0;
+  }
+}
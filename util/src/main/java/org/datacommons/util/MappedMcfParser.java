@@ -0,0 +1,318 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.datacommons.proto.Mcf;
+
+// Parses a large text MCF file in chunks on an executor, returning the same nodes as McfParser in
+// the same order (see McfParser.init() with "chunkBytes").
+//
+// The file is memory-mapped and cut into chunks of about "chunkBytes" each. A chunk always starts
+// at a valid "Node:" line, found by scanning forward from the approximate cut, so every chunk can
+// be parsed on its own. The lines of each chunk are counted in parallel first, so that the parser
+// of a chunk knows the line number it starts at, and node locations and logs refer to lines of the
+// whole file. Only a few chunks are parsed ahead of the caller, which bounds memory use.
+//
+// This class is not thread-safe.
+public class MappedMcfParser implements Closeable {
+  private static final int SCAN_BYTES = 1 << 16;
+
+  private final Mcf.McfType type;
+  private final String fileName;
+  private final boolean isResolved;
+  private final LogWrapper logCtx;
+  private final ExecutorService executor;
+  private final int maxChunksInFlight;
+  private final FileChannel channel;
+  // Start offsets of the chunks, followed by the file size.
+  private final long[] chunkStarts;
+  private final List<Future<Long>> lineCounts = new ArrayList<>();
+  private final Deque<Future<List<Mcf.McfGraph>>> pending = new ArrayDeque<>();
+  private int nextChunk = 0;
+  // Number of lines before nextChunk.
+  private long nextChunkLineOffset = 0;
+  private Iterator<Mcf.McfGraph> current = Collections.emptyIterator();
+
+  private MappedMcfParser(
+      Mcf.McfType type,
+      Path file,
+      boolean isResolved,
+      long chunkBytes,
+      ExecutorService executor,
+      int maxChunksInFlight,
+      LogWrapper logCtx)
+      throws IOException {
+    this.type = type;
+    this.fileName = file.getFileName().toString();
+    this.isResolved = isResolved;
+    this.logCtx = logCtx;
+    this.executor = executor;
+    this.maxChunksInFlight = maxChunksInFlight;
+    this.channel = FileChannel.open(file);
+    try {
+      this.chunkStarts = findChunkStarts(channel, chunkBytes);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    for (int i = 0; i + 1 < chunkStarts.length; i++) {
+      final int chunk = i;
+      lineCounts.add(executor.submit(() -> countLines(chunk)));
+    }
+  }
+
+  // Opens "file", which must be uncompressed text MCF, to be parsed in chunks of about "chunkBytes"
+  // on "executor", with at most "maxChunksInFlight" chunks parsed ahead of the caller.
+  public static MappedMcfParser open(
+      Mcf.McfType type,
+      Path file,
+      boolean isResolved,
+      long chunkBytes,
+      ExecutorService executor,
+      int maxChunksInFlight,
+      LogWrapper logCtx)
+      throws IOException {
+    if (chunkBytes <= 0 || chunkBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("chunkBytes out of range: " + chunkBytes);
+    }
+    return new MappedMcfParser(
+        type, file, isResolved, chunkBytes, executor, Math.max(1, maxChunksInFlight), logCtx);
+  }
+
+  // Whether "fileName" can be parsed in chunks, i.e., it is neither compressed nor a proto file.
+  public static boolean supports(String fileName) {
+    return !CompressedFiles.isCompressed(fileName) && !McfParser.isProtoFile(fileName);
+  }
+
+  // Returns the next node, or null at the end of the file.
+  public Mcf.McfGraph parseNextNode() throws IOException {
+    while (!current.hasNext()) {
+      while (pending.size() < maxChunksInFlight && nextChunk + 1 < chunkStarts.length) {
+        final int chunk = nextChunk;
+        final long lineOffset = nextChunkLineOffset;
+        nextChunkLineOffset += await(lineCounts.get(chunk));
+        nextChunk++;
+        pending.add(executor.submit(() -> parseChunk(chunk, lineOffset)));
+      }
+      if (pending.isEmpty()) {
+        close();
+        return null;
+      }
+      current = await(pending.poll()).iterator();
+    }
+    return current.next();
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Future<?> f : pending) f.cancel(false);
+    pending.clear();
+    channel.close();
+  }
+
+  private List<Mcf.McfGraph> parseChunk(int chunk, long lineOffset) throws IOException {
+    long start = chunkStarts[chunk];
+    long end = chunkStarts[chunk + 1];
+    if (end - start > Integer.MAX_VALUE) {
+      throw new IOException("MCF node too large at byte " + start + " of " + fileName);
+    }
+    ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    // Like Files.lines(), fail on invalid UTF-8 rather than replacing it.
+    String text = StandardCharsets.UTF_8.newDecoder().decode(bytes).toString();
+    Iterator<String> lines = new BufferedReader(new StringReader(text)).lines().iterator();
+    McfParser parser = McfParser.init(type, fileName, lines, lineOffset, isResolved, logCtx);
+    List<Mcf.McfGraph> nodes = new ArrayList<>();
+    Mcf.McfGraph g;
+    while ((g = parser.parseNextNode()) != null) {
+      nodes.add(g);
+    }
+    return nodes;
+  }
+
+  // Counts lines like Files.lines() does: "\r", "\n" and "\r\n" each end a line.
+  private long countLines(int chunk) throws IOException {
+    long start = chunkStarts[chunk];
+    long end = chunkStarts[chunk + 1];
+    long lines = 0;
+    boolean prevCr = false;
+    ByteBuffer buf = ByteBuffer.allocate(SCAN_BYTES);
+    for (long pos = start; pos < end; ) {
+      buf.clear();
+      buf.limit((int) Math.min(SCAN_BYTES, end - pos));
+      int n = channel.read(buf, pos);
+      if (n <= 0) break;
+      for (int i = 0; i < n; i++) {
+        byte b = buf.get(i);
+        if (b == '\r' || (b == '\n' && !prevCr)) lines++;
+        prevCr = b == '\r';
+      }
+      pos += n;
+    }
+    // The last line of a chunk other than the last one always ends in "\r" or "\n", and the
+    // following chunk starts with "Node:", so a "\r\n" is never split between chunks.
+    return lines;
+  }
+
+  private static long[] findChunkStarts(FileChannel channel, long chunkBytes) throws IOException {
+    long size = channel.size();
+    List<Long> starts = new ArrayList<>();
+    starts.add(0L);
+    long pos = chunkBytes;
+    while (pos < size) {
+      long start = nextNodeStart(channel, pos, size);
+      if (start >= size) break;
+      starts.add(start);
+      pos = start + chunkBytes;
+    }
+    long[] result = new long[starts.size() + 1];
+    for (int i = 0; i < starts.size(); i++) {
+      result[i] = starts.get(i);
+    }
+    result[starts.size()] = size;
+    return result;
+  }
+
+  // Returns the offset of the first line after "pos" that starts a node, or "size" if there is
+  // none. A line starts a node if McfParser would take it as a valid "Node:" line, i.e., the text
+  // before the first ':' is "Node" and the value is non-empty, unquoted and has no comma.
+  private static long nextNodeStart(FileChannel channel, long pos, long size) throws IOException {
+    ByteScanner in = new ByteScanner(channel, pos, size);
+    // Skip the rest of the line "pos" is in.
+    in.skipLine();
+    while (!in.atEnd()) {
+      long lineStart = in.pos();
+      if (isNodeLine(in)) return lineStart;
+      in.skipLine();
+    }
+    return size;
+  }
+
+  // Reads a line from "in", and returns whether it starts a node. Stops anywhere in the line.
+  private static boolean isNodeLine(ByteScanner in) throws IOException {
+    in.skipSpaces();
+    for (char c : Vocabulary.NODE.toCharArray()) {
+      if (in.atEnd() || in.peek() != c) return false;
+      in.next();
+    }
+    in.skipSpaces();
+    if (in.atEnd() || in.peek() != ':') return false;
+    in.next();
+    in.skipSpaces();
+    if (in.atEnd() || in.isLineEnd() || in.peek() == '"') return false;
+    while (!in.atEnd() && !in.isLineEnd()) {
+      if (in.next() == ',') return false;
+    }
+    return true;
+  }
+
+  // Reads bytes of a file from an offset, in blocks.
+  private static final class ByteScanner {
+    private final FileChannel channel;
+    private final long size;
+    private final ByteBuffer buf = ByteBuffer.allocate(SCAN_BYTES);
+    private long bufStart;
+    private long pos;
+
+    ByteScanner(FileChannel channel, long pos, long size) throws IOException {
+      this.channel = channel;
+      this.size = size;
+      this.pos = pos;
+      this.bufStart = pos;
+      buf.limit(0);
+    }
+
+    long pos() {
+      return pos;
+    }
+
+    boolean atEnd() {
+      return pos >= size;
+    }
+
+    // Moves to the start of the next line. A '\r' followed by '\n' ends a line after the '\n'.
+    void skipLine() throws IOException {
+      while (!atEnd()) {
+        int b = next();
+        if (b == '\n' || (b == '\r' && (atEnd() || peek() != '\n'))) return;
+      }
+    }
+
+    boolean isLineEnd() throws IOException {
+      int b = peek();
+      return b == '\n' || b == '\r';
+    }
+
+    int peek() throws IOException {
+      return peekAt(pos);
+    }
+
+    int next() throws IOException {
+      int b = peek();
+      pos++;
+      return b;
+    }
+
+    // Skips the characters that String.trim() removes, within the line.
+    void skipSpaces() throws IOException {
+      while (!atEnd() && !isLineEnd() && (peek() & 0xFF) <= ' ') next();
+    }
+
+    private int peekAt(long at) throws IOException {
+      if (at < bufStart || at >= bufStart + buf.limit()) {
+        bufStart = at;
+        buf.clear();
+        buf.limit((int) Math.min(SCAN_BYTES, size - at));
+        while (buf.hasRemaining() && channel.read(buf, bufStart + buf.position()) > 0) {}
+        buf.flip();
+        if (!buf.hasRemaining()) throw new IOException("Unexpected end of file at byte " + at);
+      }
+      return buf.get((int) (at - bufStart));
+    }
+  }
+
+  private static <T> T await(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while parsing MCF");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new IOException(cause);
+    }
+  }
+}
@@ -0,0 +1,249 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import org.datacommons.proto.Mcf;
+
+// Writes serialized MCF (as returned by McfUtil.serializeMcfGraph()) to a file, optionally
+// gzip-compressed and split into shards. With Format.PROTO, McfGraph protos are written
+// length-delimited instead (see McfGraph.writeDelimitedTo()), and are read back by McfParser.
+//
+// With sharding, a new shard is started once the current one has "shardNodes" nodes or
+// "shardChars" characters of (uncompressed) MCF, whichever comes first. Shards only ever end
+// between nodes. They are written as "<name>-00000.mcf", "<name>-00001.mcf", etc., and renamed
+// by close() to "<name>-00000-of-00002.mcf", etc., once the number of shards is known. Compressed
+// files get a ".gz" suffix.
+//
+// Nodes end with an empty line, which is how this class finds node boundaries in the text it is
+// given. Proto files are sharded between graphs, counting the nodes of the graphs and their
+// serialized bytes.
+//
+// This class is not thread-safe.
+public class McfFileWriter implements Closeable {
+  public enum Compression {
+    NONE,
+    GZIP,
+  }
+
+  public enum Format {
+    MCF,
+    PROTO,
+  }
+
+  // File extension of Format.PROTO files, used in place of ".mcf".
+  public static final String PROTO_EXTENSION = ".mcfpb";
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final String path;
+  private final Compression compression;
+  private final Format format;
+  private final long shardNodes;
+  private final long shardChars;
+  private OutputStream out = null;
+  // Writes to "out", for Format.MCF.
+  private Writer writer = null;
+  private long nodesInShard = 0;
+  private long charsInShard = 0;
+  // Paths of the shards written so far, when sharding.
+  private final List<Path> shardPaths = new ArrayList<>();
+  // Reused to serialize a node at a time, when sharding.
+  private final StringBuilder nodeBuffer = new StringBuilder();
+
+  // Writes to "path" (e.g., "out/table_mcf_nodes.mcf"), which is created on the first write. If
+  // "shardNodes" and "shardChars" are both 0, the output is not sharded.
+  public McfFileWriter(String path, Compression compression, long shardNodes, long shardChars) {
+    this(path, compression, Format.MCF, shardNodes, shardChars);
+  }
+
+  // Like above, but in the given format. For Format.PROTO, "shardChars" limits the serialized
+  // bytes of a shard.
+  public McfFileWriter(
+      String path, Compression compression, Format format, long shardNodes, long shardChars) {
+    this.path = path;
+    this.compression = compression;
+    this.format = format;
+    this.shardNodes = shardNodes;
+    this.shardChars = shardChars;
+  }
+
+  // Writes the nodes of "graph" (unsorted), serializing them straight to the file, or one node at a
+  // time when sharding.
+  public void write(Mcf.McfGraph graph) throws IOException {
+    if (format == Format.PROTO) {
+      if (isSharded()) {
+        startShardIfFull();
+        nodesInShard += graph.getNodesCount();
+        charsInShard += graph.getSerializedSize();
+      } else if (out == null) {
+        open(Path.of(withCompressionSuffix(path)));
+      }
+      graph.writeDelimitedTo(out);
+      return;
+    }
+    if (!isSharded()) {
+      if (out == null) open(Path.of(withCompressionSuffix(path)));
+      McfUtil.writeMcfGraph(graph, false, writer);
+      return;
+    }
+    for (Map.Entry<String, Mcf.McfGraph.PropertyValues> node : graph.getNodesMap().entrySet()) {
+      nodeBuffer.setLength(0);
+      McfUtil.writeMcfNode(graph.getType(), node.getKey(), node.getValue(), false, nodeBuffer);
+      writeNode(nodeBuffer, 0, nodeBuffer.length());
+    }
+  }
+
+  // Writes the nodes read from "reader", e.g., of a file written by another McfFileWriter without
+  // compression or sharding. Only for Format.MCF.
+  public void append(Reader reader) throws IOException {
+    checkFormat(Format.MCF);
+    if (!isSharded()) {
+      if (out == null) open(Path.of(withCompressionSuffix(path)));
+      reader.transferTo(writer);
+      return;
+    }
+    BufferedReader lines = new BufferedReader(reader, BUFFER_SIZE);
+    StringBuilder node = new StringBuilder();
+    String line;
+    while ((line = lines.readLine()) != null) {
+      node.append(line).append('\n');
+      if (line.isEmpty()) {
+        writeNode(node, 0, node.length());
+        node.setLength(0);
+      }
+    }
+    if (node.length() > 0) writeNode(node, 0, node.length());
+  }
+
+  // Writes the graphs read from "in", e.g., of a file written by another McfFileWriter without
+  // compression or sharding. Only for Format.PROTO.
+  public void append(InputStream in) throws IOException {
+    checkFormat(Format.PROTO);
+    if (!isSharded()) {
+      if (out == null) open(Path.of(withCompressionSuffix(path)));
+      in.transferTo(out);
+      return;
+    }
+    Mcf.McfGraph graph;
+    while ((graph = Mcf.McfGraph.parseDelimitedFrom(in)) != null) {
+      write(graph);
+    }
+  }
+
+  // Whether anything was written.
+  public boolean isEmpty() {
+    return out == null && shardPaths.isEmpty();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closeFile();
+    if (!isSharded()) return;
+    int numShards = shardPaths.size();
+    for (int i = 0; i < numShards; i++) {
+      Path shard = shardPaths.get(i);
+      Files.move(shard, shard.resolveSibling(shardName(i, numShards)));
+    }
+    shardPaths.clear();
+  }
+
+  private boolean isSharded() {
+    return shardNodes > 0 || shardChars > 0;
+  }
+
+  private void writeNode(CharSequence mcf, int start, int end) throws IOException {
+    startShardIfFull();
+    writer.append(mcf, start, end);
+    nodesInShard++;
+    charsInShard += end - start;
+  }
+
+  // Starts the first shard, or a new one if the current one is full.
+  private void startShardIfFull() throws IOException {
+    if (out == null
+        || (shardNodes > 0 && nodesInShard >= shardNodes)
+        || (shardChars > 0 && charsInShard >= shardChars)) {
+      closeFile();
+      Path shard = Path.of(path).resolveSibling(shardName(shardPaths.size(), -1));
+      open(shard);
+      shardPaths.add(shard);
+      nodesInShard = 0;
+      charsInShard = 0;
+    }
+  }
+
+  private void checkFormat(Format expected) {
+    if (format != expected) {
+      throw new IllegalStateException("Writing " + expected + " to a " + format + " file: " + path);
+    }
+  }
+
+  // Returns the file name of the "index"-th shard. "numShards" is -1 while it is not known yet.
+  private String shardName(int index, int numShards) {
+    String name = Path.of(path).getFileName().toString();
+    String ext = "";
+    int dot = name.lastIndexOf('.');
+    if (dot > 0) {
+      ext = name.substring(dot);
+      name = name.substring(0, dot);
+    }
+    name += String.format("-%05d", index);
+    if (numShards >= 0) name += String.format("-of-%05d", numShards);
+    return withCompressionSuffix(name + ext);
+  }
+
+  private String withCompressionSuffix(String path) {
+    return compression == Compression.GZIP ? path + CompressedFiles.GZIP_SUFFIX : path;
+  }
+
+  private void open(Path path) throws IOException {
+    out = Files.newOutputStream(path);
+    if (compression == Compression.GZIP) {
+      out = new GZIPOutputStream(out, BUFFER_SIZE);
+    }
+    if (format == Format.MCF) {
+      writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    } else {
+      out = new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+  }
+
+  private void closeFile() throws IOException {
+    if (writer != null) {
+      writer.close();
+    } else if (out != null) {
+      out.close();
+    }
+    writer = null;
+    out = null;
+  }
+}
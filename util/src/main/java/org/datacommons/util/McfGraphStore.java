@@ -0,0 +1,159 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.datacommons.proto.Mcf;
+
+// Holds a sequence of MCF graphs (e.g., all the nodes from instance MCF files) for passes that
+// iterate over all of them.
+//
+// Graphs are kept in memory until their serialized size exceeds a limit, at which point they are
+// appended as a segment of length-delimited protos to a temporary spill file. Iteration streams
+// the spilled graphs back from disk, so heap use stays bounded by the limit.
+//
+// This class is not thread-safe.
+public class McfGraphStore implements Iterable<Mcf.McfGraph>, Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // Graphs are spilled when the in-memory ones exceed this. Never spill if <= 0.
+  private final long heapLimitBytes;
+  private final Path spillDir;
+
+  private final List<Mcf.McfGraph> buffered = new ArrayList<>();
+  private long bufferedBytes = 0;
+
+  private Path spillFile = null;
+  private OutputStream spillOut = null;
+  // The first numSpilled graphs are in spillFile.
+  private int numSpilled = 0;
+
+  // Graphs are spilled to a temporary file in "spillDir" (or the default temporary-file directory
+  // if null) once they exceed "heapLimitBytes". If "heapLimitBytes" is <= 0 nothing is spilled.
+  public McfGraphStore(long heapLimitBytes, Path spillDir) {
+    this.heapLimitBytes = heapLimitBytes;
+    this.spillDir = spillDir;
+  }
+
+  public void add(Mcf.McfGraph graph) throws IOException {
+    buffered.add(graph);
+    bufferedBytes += graph.getSerializedSize();
+    if (heapLimitBytes > 0 && bufferedBytes > heapLimitBytes) {
+      spill();
+    }
+  }
+
+  // Number of graphs in the store.
+  public int size() {
+    return numSpilled + buffered.size();
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  public boolean hasSpilled() {
+    return numSpilled > 0;
+  }
+
+  // Iterates over the graphs in the order they were added, reading spilled graphs from disk.
+  // Throws UncheckedIOException if a spilled graph cannot be read.
+  @Override
+  public Iterator<Mcf.McfGraph> iterator() {
+    final InputStream in;
+    try {
+      if (spillOut != null) spillOut.flush();
+      in =
+          numSpilled > 0
+              ? new BufferedInputStream(Files.newInputStream(spillFile), BUFFER_SIZE)
+              : null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    final int spilledAtStart = numSpilled;
+    return new Iterator<>() {
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        boolean hasNext = next < spilledAtStart + buffered.size();
+        if (!hasNext) closeInput();
+        return hasNext;
+      }
+
+      @Override
+      public Mcf.McfGraph next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        int ordinal = next++;
+        if (ordinal >= spilledAtStart) {
+          return buffered.get(ordinal - spilledAtStart);
+        }
+        try {
+          Mcf.McfGraph graph = Mcf.McfGraph.parseDelimitedFrom(in);
+          if (ordinal == spilledAtStart - 1) closeInput();
+          return graph;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+
+      private void closeInput() {
+        if (in == null) return;
+        try {
+          in.close();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
+  }
+
+  // Deletes the spill file, if any. The store must not be used afterwards.
+  @Override
+  public void close() throws IOException {
+    buffered.clear();
+    if (spillOut != null) spillOut.close();
+    if (spillFile != null) Files.deleteIfExists(spillFile);
+  }
+
+  private void spill() throws IOException {
+    if (spillOut == null) {
+      spillFile =
+          spillDir == null
+              ? Files.createTempFile("mcf_graphs", ".pb")
+              : Files.createTempFile(spillDir, "mcf_graphs", ".pb");
+      spillFile.toFile().deleteOnExit();
+      spillOut = new BufferedOutputStream(Files.newOutputStream(spillFile), BUFFER_SIZE);
+    }
+    for (Mcf.McfGraph graph : buffered) {
+      graph.writeDelimitedTo(spillOut);
+      numSpilled++;
+    }
+    buffered.clear();
+    bufferedBytes = 0;
+  }
+}
@@ -16,18 +16,24 @@ package org.datacommons.util;
 
 import static org.datacommons.proto.Mcf.ValueType.RESOLVED_REF;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import org.datacommons.proto.Debug;
 import org.datacommons.proto.Mcf;
 import org.datacommons.proto.Mcf.McfGraph;
 
 // A parser for converting text in Instance or Template MCF format into the McfGraph proto.
 //
+// Files with the McfFileWriter.PROTO_EXTENSION extension instead hold length-delimited McfGraph
+// protos (as written by McfFileWriter with Format.PROTO), which are read as is.
+//
 // NOTE: Expects caller to set location file in LogWrapper.
 public class McfParser {
   static String IN_MEMORY_FILE_NAME = "InMemory";
@@ -42,6 +48,10 @@ public class McfParser {
   private boolean finished = false;
   private String fileName;
   private Iterator<String> lines;
+  // Set instead of "lines" for proto files.
+  private InputStream protoIn;
+  // Set instead of "lines" when parsing a file in chunks.
+  private MappedMcfParser chunks;
 
   // Create an McfParser instance based on type and a bool indicating whether the MCF is resolved
   // (DCIDs assigned).
@@ -49,12 +59,62 @@ public class McfParser {
       Mcf.McfType type, String fileName, boolean isResolved, LogWrapper logCtx) throws IOException {
     McfParser parser = init(type, isResolved);
     parser.logCtx = logCtx;
-    parser.lines =
-        Files.lines(FileSystems.getDefault().getPath(fileName), StandardCharsets.UTF_8).iterator();
+    Path path = FileSystems.getDefault().getPath(fileName);
+    if (isProtoFile(fileName)) {
+      parser.protoIn =
+          CompressedFiles.isCompressed(fileName)
+              ? CompressedFiles.newInputStream(path)
+              : new BufferedInputStream(Files.newInputStream(path), 1 << 16);
+    } else if (CompressedFiles.isCompressed(fileName)) {
+      parser.lines = CompressedFiles.newReader(path).lines().iterator();
+    } else {
+      parser.lines = Files.lines(path, StandardCharsets.UTF_8).iterator();
+    }
     parser.fileName = Path.of(fileName).getFileName().toString();
     return parser;
   }
 
+  // Like above, but with "chunkBytes" > 0, a text MCF file that is not compressed is memory-mapped
+  // and parsed in chunks of about that size on "executor", with up to "maxChunksInFlight" chunks
+  // parsed ahead (see MappedMcfParser). The nodes are returned in the same order.
+  public static McfParser init(
+      Mcf.McfType type,
+      String fileName,
+      boolean isResolved,
+      LogWrapper logCtx,
+      long chunkBytes,
+      ExecutorService executor,
+      int maxChunksInFlight)
+      throws IOException {
+    if (chunkBytes <= 0 || !MappedMcfParser.supports(fileName)) {
+      return init(type, fileName, isResolved, logCtx);
+    }
+    McfParser parser = init(type, isResolved);
+    parser.logCtx = logCtx;
+    parser.fileName = Path.of(fileName).getFileName().toString();
+    parser.chunks =
+        MappedMcfParser.open(
+            type, Path.of(fileName), isResolved, chunkBytes, executor, maxChunksInFlight, logCtx);
+    return parser;
+  }
+
+  // Creates a parser for "lines", which follow the first "lineOffset" lines of "fileName" (e.g.,
+  // a chunk of the file, see MappedMcfParser).
+  static McfParser init(
+      Mcf.McfType type,
+      String fileName,
+      Iterator<String> lines,
+      long lineOffset,
+      boolean isResolved,
+      LogWrapper logCtx) {
+    McfParser parser = init(type, isResolved);
+    parser.logCtx = logCtx;
+    parser.fileName = fileName;
+    parser.lines = lines;
+    parser.lineNum = lineOffset;
+    return parser;
+  }
+
   // Parse a string with instance nodes in MCF format into the McfGraph proto.
   public static McfGraph parseInstanceMcfString(
       String mcfString, boolean isResolved, LogWrapper logCtx) throws IOException {
@@ -79,8 +139,22 @@ public class McfParser {
     return parseMcfFile(fileName, Mcf.McfType.TEMPLATE_MCF, false, logCtx);
   }
 
+  // Whether "fileName" (which may be compressed) holds McfGraph protos rather than text MCF.
+  public static boolean isProtoFile(String fileName) {
+    return CompressedFiles.stripSuffix(fileName)
+        .toLowerCase()
+        .endsWith(McfFileWriter.PROTO_EXTENSION);
+  }
+
+  // Returns the next node, or the next graph for proto files, or null at the end of the file.
   public McfGraph parseNextNode() throws IOException {
     if (finished) return null;
+    if (protoIn != null) return readNextGraph();
+    if (chunks != null) {
+      McfGraph g = chunks.parseNextNode();
+      if (g == null) finished = true;
+      return g;
+    }
     while (lines.hasNext()) {
       String line = lines.next();
       lineNum++;
@@ -96,6 +170,20 @@ public class McfParser {
     return McfUtil.mergeGraphs(Collections.singletonList(g));
   }
 
+  private McfGraph readNextGraph() throws IOException {
+    McfGraph g = McfGraph.parseDelimitedFrom(protoIn);
+    if (g == null) {
+      finished = true;
+      protoIn.close();
+      return null;
+    }
+    if (g.getType() != graph.getType()) {
+      throw new IOException(
+          "Found " + g.getType() + " graph in " + fileName + ", expected " + graph.getType());
+    }
+    return g;
+  }
+
   // Parse a line of MCF file.
   private void parseLine(String line) throws AssertionError {
     if (finished) {
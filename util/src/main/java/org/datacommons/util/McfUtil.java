@@ -14,6 +14,7 @@
 
 package org.datacommons.util;
 
+import java.io.IOException;
 import java.util.*;
 import org.datacommons.proto.Debug;
 import org.datacommons.proto.Mcf;
@@ -23,37 +24,65 @@ public class McfUtil {
   // Serializes an MCFGraph proto into a string.  Sorts output if |sort| is true.
   public static String serializeMcfGraph(Mcf.McfGraph graph, boolean sort) {
     StringBuilder result = new StringBuilder();
-    String sentinel = graph.getType() == Mcf.McfType.TEMPLATE_MCF ? "Template" : "Node";
-    List<String> keys = new ArrayList<>(graph.getNodesMap().keySet());
-    if (sort) Collections.sort(keys);
+    try {
+      writeMcfGraph(graph, sort, result);
+    } catch (IOException e) {
+      // StringBuilder does not throw.
+      throw new AssertionError(e);
+    }
+    return result.toString();
+  }
+
+  // Writes an MCFGraph proto to |out|, as serializeMcfGraph() does, but without building strings
+  // for the graph or its lines. Sorts output if |sort| is true, which orders nodes by ID and
+  // properties (and the values of a property) the way the serialized lines sort.
+  public static void writeMcfGraph(Mcf.McfGraph graph, boolean sort, Appendable out)
+      throws IOException {
+    Map<String, Mcf.McfGraph.PropertyValues> nodes = graph.getNodesMap();
+    if (!sort) {
+      for (Map.Entry<String, Mcf.McfGraph.PropertyValues> node : nodes.entrySet()) {
+        writeMcfNode(graph.getType(), node.getKey(), node.getValue(), false, out);
+      }
+      return;
+    }
+    String[] keys = nodes.keySet().toArray(new String[0]);
+    Arrays.sort(keys);
     for (String key : keys) {
-      Mcf.McfGraph.PropertyValues node = graph.getNodesMap().get(key);
-      if (node.hasErrorMessage()) {
-        // Print location and user-message.
-        for (var loc : node.getLocationsList()) {
-          result.append("# From " + loc.getFile() + ":" + loc.getLineNumber() + "\n");
-        }
-        result.append("# Error: " + node.getErrorMessage() + "\n");
+      writeMcfNode(graph.getType(), key, nodes.get(key), true, out);
+    }
+  }
+
+  // Writes a node of a graph of type |type| to |out|, as writeMcfGraph() does.
+  public static void writeMcfNode(
+      Mcf.McfType type,
+      String nodeId,
+      Mcf.McfGraph.PropertyValues node,
+      boolean sort,
+      Appendable out)
+      throws IOException {
+    if (node.hasErrorMessage()) {
+      // Print location and user-message.
+      for (var loc : node.getLocationsList()) {
+        out.append("# From ").append(loc.getFile()).append(':');
+        out.append(Long.toString(loc.getLineNumber())).append('\n');
       }
-      result.append(sentinel + ": " + key + "\n");
-      List<String> lines = new ArrayList<>();
-      for (Map.Entry<String, Mcf.McfGraph.Values> pv : node.getPvsMap().entrySet()) {
-        if (pv.getValue().getTypedValuesCount() == 0) continue;
-        List<String> vals = new ArrayList<>();
-        for (Mcf.McfGraph.TypedValue tv : pv.getValue().getTypedValuesList()) {
-          String value = getValue(tv);
-          if (!value.isEmpty()) vals.add(value);
-        }
-        if (sort) Collections.sort(vals);
-        if (!vals.isEmpty()) {
-          lines.add(pv.getKey() + ": " + String.join(", ", vals) + "\n");
-        }
+      out.append("# Error: ").append(node.getErrorMessage()).append('\n');
+    }
+    out.append(type == Mcf.McfType.TEMPLATE_MCF ? "Template" : "Node");
+    out.append(": ").append(nodeId).append('\n');
+    Map<String, Mcf.McfGraph.Values> pvs = node.getPvsMap();
+    if (!sort) {
+      for (Map.Entry<String, Mcf.McfGraph.Values> pv : pvs.entrySet()) {
+        writePropLine(pv.getKey(), pv.getValue(), false, out);
+      }
+    } else {
+      String[] props = pvs.keySet().toArray(new String[0]);
+      Arrays.sort(props, McfUtil::comparePropLines);
+      for (String prop : props) {
+        writePropLine(prop, pvs.get(prop), true, out);
       }
-      if (sort) Collections.sort(lines);
-      result.append(String.join("", lines));
-      result.append("\n");
     }
-    return result.toString();
+    out.append('\n');
   }
 
   public static String serializeMcfNode(
@@ -102,18 +131,19 @@ public class McfUtil {
     return vals.build();
   }
 
-  // Given a list of MCF graphs, merges common nodes and de-duplicates PVs.
-  public static Mcf.McfGraph mergeGraphs(List<Mcf.McfGraph> graphs) throws AssertionError {
-    if (graphs.isEmpty()) {
-      return Mcf.McfGraph.newBuilder().build();
-    }
-
+  // Given a list of MCF graphs, merges common nodes and de-duplicates PVs. The graphs are iterated
+  // over once, so they may be streamed (e.g., from McfGraphStore).
+  public static Mcf.McfGraph mergeGraphs(Iterable<Mcf.McfGraph> graphs) throws AssertionError {
+    Mcf.McfType type = null;
     // node-id -> {prop -> vals}
     HashMap<String, HashMap<String, HashSet<Mcf.McfGraph.TypedValue>>> dedupMap = new HashMap<>();
     // node-id -> locations
     HashMap<String, List<Debug.Log.Location>> locationMap = new HashMap<>();
 
     for (Mcf.McfGraph graph : graphs) {
+      if (type == null) {
+        type = graph.getType();
+      }
       for (Map.Entry<String, Mcf.McfGraph.PropertyValues> node : graph.getNodesMap().entrySet()) {
         for (Map.Entry<String, Mcf.McfGraph.Values> pv : node.getValue().getPvsMap().entrySet()) {
           if (!dedupMap.containsKey(node.getKey())) {
@@ -136,7 +166,10 @@ public class McfUtil {
     }
 
     Mcf.McfGraph.Builder result = Mcf.McfGraph.newBuilder();
-    result.setType(graphs.get(0).getType());
+    if (type == null) {
+      return result.build();
+    }
+    result.setType(type);
     for (Map.Entry<String, HashMap<String, HashSet<Mcf.McfGraph.TypedValue>>> node :
         dedupMap.entrySet()) {
       Mcf.McfGraph.PropertyValues.Builder pvs =
@@ -168,6 +201,74 @@ public class McfUtil {
     return val;
   }
 
+  // Writes "<prop>: <value>, <value>...", skipping empty values, or nothing if all are empty.
+  private static void writePropLine(
+      String prop, Mcf.McfGraph.Values vals, boolean sort, Appendable out) throws IOException {
+    int count = vals.getTypedValuesCount();
+    if (count == 0) return;
+    if (sort && count > 1) {
+      String[] values = new String[count];
+      int numValues = 0;
+      for (Mcf.McfGraph.TypedValue tv : vals.getTypedValuesList()) {
+        String value = getValue(tv);
+        if (!value.isEmpty()) values[numValues++] = value;
+      }
+      if (numValues == 0) return;
+      Arrays.sort(values, 0, numValues);
+      out.append(prop).append(": ").append(values[0]);
+      for (int i = 1; i < numValues; i++) {
+        out.append(", ").append(values[i]);
+      }
+      out.append('\n');
+      return;
+    }
+    boolean first = true;
+    for (Mcf.McfGraph.TypedValue tv : vals.getTypedValuesList()) {
+      if (tv.getValue().isEmpty() && !hasValueDecoration(tv)) continue;
+      if (first) {
+        out.append(prop).append(": ");
+        first = false;
+      } else {
+        out.append(", ");
+      }
+      appendValue(tv, out);
+    }
+    if (!first) out.append('\n');
+  }
+
+  // Compares properties the way their lines ("<prop>: ...") sort, i.e., as if ": " were appended
+  // to them.
+  private static int comparePropLines(String a, String b) {
+    int n = Math.min(a.length(), b.length()) + 2;
+    for (int i = 0; i < n; i++) {
+      int c = Character.compare(propLineChar(a, i), propLineChar(b, i));
+      if (c != 0) return c;
+    }
+    return Integer.compare(a.length(), b.length());
+  }
+
+  private static char propLineChar(String prop, int i) {
+    if (i < prop.length()) return prop.charAt(i);
+    return i == prop.length() ? ':' : ' ';
+  }
+
+  // Whether the value is serialized with quotes or a prefix, and so is never empty.
+  private static boolean hasValueDecoration(Mcf.McfGraph.TypedValue typedValue) {
+    return typedValue.getType() == Mcf.ValueType.TEXT
+        || typedValue.getType() == Mcf.ValueType.RESOLVED_REF;
+  }
+
+  private static void appendValue(Mcf.McfGraph.TypedValue typedValue, Appendable out)
+      throws IOException {
+    if (typedValue.getType() == Mcf.ValueType.TEXT) {
+      out.append('"').append(typedValue.getValue()).append('"');
+    } else if (typedValue.getType() == Mcf.ValueType.RESOLVED_REF) {
+      out.append(Vocabulary.DCID_PREFIX).append(typedValue.getValue());
+    } else {
+      out.append(typedValue.getValue());
+    }
+  }
+
   private static String getValue(Mcf.McfGraph.TypedValue typedValue) {
     if (typedValue.getType() == Mcf.ValueType.TEXT) {
       return "\"" + typedValue.getValue() + "\"";
@@ -5,11 +5,12 @@ import com.google.common.hash.Hashing;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import org.datacommons.proto.Debug;
 import org.datacommons.proto.Debug.DataPoint;
 import org.datacommons.proto.Debug.DataPoint.DataValue;
 import org.datacommons.proto.Debug.StatValidationResult;
@@ -19,30 +20,120 @@ import org.jfree.data.time.Day;
 import org.jfree.data.time.TimeSeries;
 
 // An object to hold all the series information for all the statistical variables for a place.
+//
+// Series are stored in columns (date ordinals, values and location indexes, see SeriesSummary)
+// rather than as DataPoint protos, which are only built when a series is checked or reported.
+// Dates and locations are kept once per place and referred to by index.
 public class PlaceSeriesSummary {
 
   public static class SeriesSummary {
     StatValidationResult.Builder validationResult;
-    // Key is date of each datapoint. Use treemap here to keep the dates sorted.
-    TreeMap<String, DataPoint> timeSeries;
+    // The summary of the place that holds the dates and locations referred to below.
+    private final PlaceSeriesSummary place;
+    // Points of the series, sorted by date and then by the order they were added. The i-th point
+    // has the date place.dates[dateOrdinals[i]], the value values[i] and the locations
+    // place.locations[locationIndexes[i]].
+    private int size = 0;
+    private int[] dateOrdinals = new int[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+    private int[] locationIndexes = new int[INITIAL_CAPACITY];
+    // Whether the dates were added in order, so far. While they are, the following are kept up to
+    // date as points are added, for StatChecker to check the series without going through it.
+    private boolean inDateOrder = true;
+    // Statistics of the first value of each date, in date order.
+    private final RunningStats firstValueStats = new RunningStats();
+    // The largest change between the first values of consecutive dates, from the date with the
+    // ordinal maxDeltaBaseDate to maxDeltaDate (see StatChecker.checkPercentFluctuations()).
+    private double maxDelta = 0;
+    private int maxDeltaBaseDate = -1;
+    private int maxDeltaDate = -1;
+    // The first value of the latest date.
+    private double lastFirstValue = 0;
+    // Whether some date has more than one value.
+    private boolean hasMultipleValues = false;
+
+    private SeriesSummary(PlaceSeriesSummary place, StatValidationResult.Builder validationResult) {
+      this.place = place;
+      this.validationResult = validationResult;
+    }
 
     public StatValidationResult.Builder getValidationResult() {
       return this.validationResult;
     }
 
+    // Returns the points of the series, a DataPoint per date, in date order.
+    public List<DataPoint> getDataPoints() {
+      List<DataPoint> dataPoints = new ArrayList<>();
+      for (int i = 0; i < size; i = dateEnd(i)) {
+        dataPoints.add(getDataPoint(i));
+      }
+      return dataPoints;
+    }
+
+    boolean isInDateOrder() {
+      return inDateOrder;
+    }
+
+    // Only up to date while isInDateOrder().
+    RunningStats getFirstValueStats() {
+      return firstValueStats;
+    }
+
+    // Only up to date while isInDateOrder().
+    double getMaxDelta() {
+      return maxDelta;
+    }
+
+    // Returns the data point that getMaxDelta() is from, or null if there is none.
+    DataPoint getMaxDeltaBaseDataPoint() {
+      return getDataPointOfDate(maxDeltaBaseDate);
+    }
+
+    // Returns the data point that getMaxDelta() is to, or null if there is none.
+    DataPoint getMaxDeltaDataPoint() {
+      return getDataPointOfDate(maxDeltaDate);
+    }
+
+    boolean hasMultipleValues() {
+      return hasMultipleValues;
+    }
+
+    // Returns the points of the series keyed by date. Builds the DataPoints on every call, see
+    // getDataPoints().
     public TreeMap<String, DataPoint> getTimeSeries() {
-      return this.timeSeries;
+      TreeMap<String, DataPoint> timeSeries = new TreeMap<>();
+      for (DataPoint dp : getDataPoints()) {
+        timeSeries.put(dp.getDate(), dp);
+      }
+      return timeSeries;
+    }
+
+    // Returns the number of distinct dates in the series.
+    public int getNumDates() {
+      int numDates = 0;
+      for (int i = 0; i < size; i = dateEnd(i)) {
+        numDates++;
+      }
+      return numDates;
+    }
+
+    // Returns the dates of the series, one per data point, in date order.
+    List<String> getDates() {
+      List<String> dates = new ArrayList<>();
+      for (int i = 0; i < size; i = dateEnd(i)) {
+        dates.add(getDate(i));
+      }
+      return dates;
     }
 
     public String getDatesString() {
-      return String.join(" | ", this.timeSeries.keySet());
+      return String.join(" | ", getDates());
     }
 
     public String getValueString() {
       List<String> valueStrings = new ArrayList<String>();
-
-      for (DataPoint dv : this.timeSeries.values()) {
-        valueStrings.add(Double.toString(dv.getValues(0).getValue()));
+      for (int i = 0; i < size; i = dateEnd(i)) {
+        valueStrings.add(Double.toString(values[i]));
       }
       return String.join(" | ", valueStrings);
     }
@@ -51,77 +142,200 @@ public class PlaceSeriesSummary {
 
       TimeSeries timeSeries = new TimeSeries("ts");
 
-      // this.timeSeries is kept sorted with a TreeMap, so we simply add the
-      // datapoints in the order they are retrieved from .entrySet() and they
-      // are in the correct sorted order
-      for (Map.Entry<String, DataPoint> timeSeriesDataPoint : this.timeSeries.entrySet()) {
+      // The points are kept sorted by date, so we simply add the first value of each date in order
+      for (int i = 0; i < size; i = dateEnd(i)) {
 
-        LocalDateTime localDateTime = StringUtil.getValidISO8601Date(timeSeriesDataPoint.getKey());
+        LocalDateTime localDateTime = StringUtil.getValidISO8601Date(getDate(i));
         if (localDateTime == null) continue;
         timeSeries.addOrUpdate(
             new Day(
                 localDateTime.getDayOfMonth(),
                 localDateTime.getMonthValue(),
                 localDateTime.getYear()),
-            timeSeriesDataPoint.getValue().getValues(0).getValue());
+            values[i]);
       }
 
       return StatVarSummary.constructSVGChartFromTimeSeries(timeSeries);
     }
+
+    private String getDate(int i) {
+      return place.dates.get(dateOrdinals[i]);
+    }
+
+    // Returns the data point of the date of the i-th point, which is the first one of the date.
+    private DataPoint getDataPoint(int i) {
+      DataPoint.Builder dataPoint = DataPoint.newBuilder().setDate(getDate(i));
+      for (int end = dateEnd(i); i < end; i++) {
+        dataPoint.addValues(
+            DataValue.newBuilder()
+                .setValue(values[i])
+                .addAllLocations(place.locations.get(locationIndexes[i])));
+      }
+      return dataPoint.build();
+    }
+
+    private DataPoint getDataPointOfDate(int dateOrdinal) {
+      for (int i = 0; i < size; i = dateEnd(i)) {
+        if (dateOrdinals[i] == dateOrdinal) return getDataPoint(i);
+      }
+      return null;
+    }
+
+    // Returns the index after the last point with the same date as the i-th point.
+    private int dateEnd(int i) {
+      int end = i + 1;
+      while (end < size && dateOrdinals[end] == dateOrdinals[i]) end++;
+      return end;
+    }
+
+    // Adds a point after the existing points with the same or an earlier date.
+    private void add(int dateOrdinal, double value, int locationIndex) {
+      String date = place.dates.get(dateOrdinal);
+      // Points usually come in date order, so look for the position from the end.
+      int pos = size;
+      while (pos > 0 && getDate(pos - 1).compareTo(date) > 0) pos--;
+      if (size == values.length) {
+        int capacity = 2 * size;
+        dateOrdinals = Arrays.copyOf(dateOrdinals, capacity);
+        values = Arrays.copyOf(values, capacity);
+        locationIndexes = Arrays.copyOf(locationIndexes, capacity);
+      }
+      updateStats(pos, dateOrdinal, value);
+      System.arraycopy(dateOrdinals, pos, dateOrdinals, pos + 1, size - pos);
+      System.arraycopy(values, pos, values, pos + 1, size - pos);
+      System.arraycopy(locationIndexes, pos, locationIndexes, pos + 1, size - pos);
+      dateOrdinals[pos] = dateOrdinal;
+      values[pos] = value;
+      locationIndexes[pos] = locationIndex;
+      size++;
+    }
+
+    // Updates the statistics for a point about to be added at "pos".
+    private void updateStats(int pos, int dateOrdinal, double value) {
+      if (pos > 0 && dateOrdinals[pos - 1] == dateOrdinal) {
+        // Not the first value of its date.
+        hasMultipleValues = true;
+      } else if (pos < size) {
+        inDateOrder = false;
+      } else if (inDateOrder) {
+        if (size > 0) {
+          double delta = StatChecker.getDelta(lastFirstValue, value);
+          if (Math.abs(maxDelta) < Math.abs(delta)) {
+            maxDelta = delta;
+            maxDeltaBaseDate = dateOrdinals[size - 1];
+            maxDeltaDate = dateOrdinal;
+          }
+        }
+        firstValueStats.add(value);
+        lastFirstValue = value;
+      }
+    }
   }
 
+  private static final int INITIAL_CAPACITY = 4;
+
   public static boolean TEST_mode = false;
   // Key in svSeriesSummaryMap is stat var dcid & key in the Map<Long, SeriesSummary> is a hash
   // constructed using place dcid, stat var dcid, measurement method, observation period,
   // scaling factor, and unit of the stat var observations of the series summary
   private final Map<String, Map<Long, SeriesSummary>> svSeriesSummaryMap = new HashMap<>();
 
+  // Dates of the series of this place, indexed by their ordinals in dateOrdinalMap.
+  private final List<String> dates = new ArrayList<>();
+  private final Map<String, Integer> dateOrdinalMap = new HashMap<>();
+  // Locations of the nodes the points of the series of this place came from.
+  private final List<List<Debug.Log.Location>> locations = new ArrayList<>();
+
   // name of the place in English
   private String placeName;
 
   // Given a statVarObservation node, extract time series info and save it into svSeriesSummaryMap.
   public synchronized void extractSeriesFromNode(McfGraph.PropertyValues node) {
-    StatValidationResult.Builder vres = StatValidationResult.newBuilder();
-    // Add information about the node to StatValidationResult
-    vres.setPlaceDcid(McfUtil.getPropVal(node, Vocabulary.OBSERVATION_ABOUT));
-    vres.setStatVarDcid(McfUtil.getPropVal(node, Vocabulary.VARIABLE_MEASURED));
-    vres.setMeasurementMethod(McfUtil.getPropVal(node, Vocabulary.MEASUREMENT_METHOD));
-    vres.setObservationPeriod(McfUtil.getPropVal(node, Vocabulary.OBSERVATION_PERIOD));
-    vres.setScalingFactor(McfUtil.getPropVal(node, Vocabulary.SCALING_FACTOR));
-    vres.setUnit(McfUtil.getPropVal(node, Vocabulary.UNIT));
-
-    // Get the series summary for this node. If the series summary for this node is not already
-    // in the seriesSummaryMap, add it to the seriesSummaryMap.
-    Hasher hasher = Hashing.farmHashFingerprint64().newHasher();
-    hasher.putString(vres.toString(), StandardCharsets.UTF_8);
-    Long hash = hasher.hash().asLong();
-    Map<Long, SeriesSummary> seriesSummaryMap =
-        svSeriesSummaryMap.computeIfAbsent(vres.getStatVarDcid(), k -> new HashMap<>());
-    SeriesSummary summary;
-    if (seriesSummaryMap.containsKey(hash)) {
-      summary = seriesSummaryMap.get(hash);
-    } else {
-      summary = new SeriesSummary();
-      summary.validationResult = vres;
-      summary.timeSeries = new TreeMap<>();
-    }
+    String placeDcid = McfUtil.getPropVal(node, Vocabulary.OBSERVATION_ABOUT);
+    String svDcid = McfUtil.getPropVal(node, Vocabulary.VARIABLE_MEASURED);
+    String mMethod = McfUtil.getPropVal(node, Vocabulary.MEASUREMENT_METHOD);
+    String obsPeriod = McfUtil.getPropVal(node, Vocabulary.OBSERVATION_PERIOD);
+    String scalingFactor = McfUtil.getPropVal(node, Vocabulary.SCALING_FACTOR);
+    String unit = McfUtil.getPropVal(node, Vocabulary.UNIT);
 
     // Add the value of this StatVarObservation node to the timeseries of this node's SeriesSummary.
     String obsDate = McfUtil.getPropVal(node, Vocabulary.OBSERVATION_DATE);
     String value = McfUtil.getPropVal(node, Vocabulary.VALUE);
-    DataValue dataVal =
-        DataValue.newBuilder()
-            .setValue(Double.parseDouble(value))
-            .addAllLocations(node.getLocationsList())
-            .build();
-    DataPoint.Builder dataPoint = DataPoint.newBuilder().setDate(obsDate);
-    if (summary.timeSeries.containsKey(obsDate)) {
-      dataPoint = summary.timeSeries.get(obsDate).toBuilder();
-    }
-    dataPoint.addValues(dataVal);
-    summary.timeSeries.put(obsDate, dataPoint.build());
-    seriesSummaryMap.put(hash, summary);
-    svSeriesSummaryMap.put(vres.getStatVarDcid(), seriesSummaryMap);
+    addPoint(
+        placeDcid,
+        svDcid,
+        mMethod,
+        obsPeriod,
+        scalingFactor,
+        unit,
+        obsDate,
+        Double.parseDouble(value),
+        node.getLocationsList());
+  }
+
+  // Adds a point to the series identified by the given properties, which is created if needed,
+  // and returns the series.
+  synchronized SeriesSummary addPoint(
+      String placeDcid,
+      String svDcid,
+      String mMethod,
+      String obsPeriod,
+      String scalingFactor,
+      String unit,
+      String date,
+      double value,
+      List<Debug.Log.Location> nodeLocations) {
+    // Get the series summary for this point. If the series summary for this point is not already
+    // in the seriesSummaryMap, add it to the seriesSummaryMap.
+    long hash = seriesHash(placeDcid, svDcid, mMethod, obsPeriod, scalingFactor, unit);
+    Map<Long, SeriesSummary> seriesSummaryMap =
+        svSeriesSummaryMap.computeIfAbsent(svDcid, k -> new HashMap<>());
+    SeriesSummary summary = seriesSummaryMap.get(hash);
+    if (summary == null) {
+      // Add information about the series to StatValidationResult
+      StatValidationResult.Builder vres = StatValidationResult.newBuilder();
+      vres.setPlaceDcid(placeDcid);
+      vres.setStatVarDcid(svDcid);
+      vres.setMeasurementMethod(mMethod);
+      vres.setObservationPeriod(obsPeriod);
+      vres.setScalingFactor(scalingFactor);
+      vres.setUnit(unit);
+      summary = new SeriesSummary(this, vres);
+      seriesSummaryMap.put(hash, summary);
+    }
+    locations.add(nodeLocations);
+    summary.add(dateOrdinal(date), value, locations.size() - 1);
+    return summary;
+  }
+
+  // Adds the series of "other", a summary for the same place (e.g., from another thread, see
+  // StatChecker). Values for the same series and date are appended to those of this summary.
+  public synchronized void merge(PlaceSeriesSummary other) {
+    // The dates and locations of "other" are added to those of this summary, and the points of its
+    // series are re-added with their new indexes.
+    int[] dateOrdinals = new int[other.dates.size()];
+    for (int i = 0; i < dateOrdinals.length; i++) {
+      dateOrdinals[i] = dateOrdinal(other.dates.get(i));
+    }
+    int locationOffset = locations.size();
+    locations.addAll(other.locations);
+    for (Map.Entry<String, Map<Long, SeriesSummary>> sv : other.svSeriesSummaryMap.entrySet()) {
+      Map<Long, SeriesSummary> seriesSummaryMap =
+          svSeriesSummaryMap.computeIfAbsent(sv.getKey(), k -> new HashMap<>());
+      for (Map.Entry<Long, SeriesSummary> series : sv.getValue().entrySet()) {
+        SeriesSummary otherSummary = series.getValue();
+        SeriesSummary summary =
+            seriesSummaryMap.computeIfAbsent(
+                series.getKey(), k -> new SeriesSummary(this, otherSummary.validationResult));
+        for (int i = 0; i < otherSummary.size; i++) {
+          summary.add(
+              dateOrdinals[otherSummary.dateOrdinals[i]],
+              otherSummary.values[i],
+              locationOffset + otherSummary.locationIndexes[i]);
+        }
+      }
+    }
+    if (placeName == null) placeName = other.placeName;
   }
 
   public Map<String, Map<Long, SeriesSummary>> getSvSeriesSummaryMap() {
@@ -135,9 +349,10 @@ public class PlaceSeriesSummary {
     for (Map.Entry<String, Map<Long, SeriesSummary>> svSeriesSummary :
         svSeriesSummaryMap.entrySet()) {
       StatVarSummary summary = new StatVarSummary();
-      List<DataPoint> seriesDataPoints = new ArrayList<>();
+      // The first value of each date of each series.
+      List<Map.Entry<String, Double>> seriesPoints = new ArrayList<>();
       for (SeriesSummary seriesSummary : svSeriesSummary.getValue().values()) {
-        summary.numObservations += seriesSummary.timeSeries.size();
+        summary.numObservations += seriesSummary.getNumDates();
         if (!seriesSummary.validationResult.getMeasurementMethod().isEmpty()) {
           summary.mMethods.add(seriesSummary.validationResult.getMeasurementMethod());
         }
@@ -150,16 +365,15 @@ public class PlaceSeriesSummary {
         if (!seriesSummary.validationResult.getObservationPeriod().isEmpty()) {
           summary.observationPeriods.add(seriesSummary.validationResult.getObservationPeriod());
         }
-        seriesDataPoints.addAll(seriesSummary.timeSeries.values());
+        for (int i = 0; i < seriesSummary.size; i = seriesSummary.dateEnd(i)) {
+          seriesPoints.add(Map.entry(seriesSummary.getDate(i), seriesSummary.values[i]));
+        }
+      }
+      seriesPoints.sort(Map.Entry.comparingByKey());
+      for (Map.Entry<String, Double> point : seriesPoints) {
+        summary.seriesDates.add(point.getKey());
+        summary.seriesValues.add(point.getValue());
       }
-      seriesDataPoints.sort(Comparator.comparing(DataPoint::getDate));
-      seriesDataPoints.forEach(
-          dp -> {
-            if (!dp.getValuesList().isEmpty()) {
-              summary.seriesDates.add(dp.getDate());
-              summary.seriesValues.add(dp.getValues(0).getValue());
-            }
-          });
       statVarSummaryMap.put(svSeriesSummary.getKey(), summary);
     }
     // When testing, we want the order of sections in the html file to be deterministic
@@ -173,4 +387,24 @@ public class PlaceSeriesSummary {
   public String getPlaceName() {
     return placeName;
   }
+
+  private int dateOrdinal(String date) {
+    return dateOrdinalMap.computeIfAbsent(
+        date,
+        k -> {
+          dates.add(k);
+          return dates.size() - 1;
+        });
+  }
+
+  // Returns a hash of the properties that identify a series.
+  static long seriesHash(String... props) {
+    Hasher hasher = Hashing.farmHashFingerprint64().newHasher();
+    for (String prop : props) {
+      // The length keeps, e.g., ("ab", "c") and ("a", "bc") apart.
+      hasher.putInt(prop.length());
+      hasher.putString(prop, StandardCharsets.UTF_8);
+    }
+    return hasher.hash().asLong();
+  }
 }
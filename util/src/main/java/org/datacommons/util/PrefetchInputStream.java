@@ -0,0 +1,116 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// An InputStream that reads another stream ahead on a background thread, so that producing the
+// bytes (e.g., decompressing them) overlaps with consuming them.
+//
+// The background thread reads chunks of up to "chunkSize" bytes into a queue of at most
+// "maxChunks" chunks, and blocks when the queue is full. Errors of the underlying stream are
+// rethrown by read(). close() stops the thread and closes the underlying stream.
+//
+// Like most InputStreams, this class is not thread-safe.
+public class PrefetchInputStream extends InputStream {
+  // Marks the end of the underlying stream in the queue.
+  private static final byte[] END = new byte[0];
+
+  private final BlockingQueue<byte[]> chunks;
+  private final Thread thread;
+  // Set by the background thread before it queues END because of an error.
+  private volatile IOException error;
+  private byte[] chunk;
+  private int chunkPos = 0;
+  private boolean closed = false;
+
+  public PrefetchInputStream(InputStream in, String name, int chunkSize, int maxChunks) {
+    chunks = new ArrayBlockingQueue<>(maxChunks);
+    thread = new Thread(() -> prefetch(in, chunkSize), "prefetch-" + name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!fill()) return -1;
+    return chunk[chunkPos++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) return 0;
+    if (!fill()) return -1;
+    int n = Math.min(len, chunk.length - chunkPos);
+    System.arraycopy(chunk, chunkPos, b, off, n);
+    chunkPos += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return chunk == null || chunk == END ? 0 : chunk.length - chunkPos;
+  }
+
+  @Override
+  public void close() {
+    if (closed) return;
+    closed = true;
+    chunk = END;
+    thread.interrupt();
+  }
+
+  // Makes sure that "chunk" has unread bytes. Returns false at the end of the stream.
+  private boolean fill() throws IOException {
+    if (closed) throw new IOException("Stream closed");
+    while (chunk != END && (chunk == null || chunkPos == chunk.length)) {
+      try {
+        chunk = chunks.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reading ahead");
+      }
+      chunkPos = 0;
+    }
+    if (chunk == END && error != null) throw error;
+    return chunk != END;
+  }
+
+  private void prefetch(InputStream in, int chunkSize) {
+    try (in) {
+      while (true) {
+        byte[] buf = new byte[chunkSize];
+        int n = in.readNBytes(buf, 0, chunkSize);
+        if (n == 0) break;
+        chunks.put(n == chunkSize ? buf : Arrays.copyOf(buf, n));
+      }
+    } catch (IOException e) {
+      error = e;
+    } catch (InterruptedException e) {
+      // Closed by the reader, so nobody is waiting for the end.
+      return;
+    }
+    try {
+      chunks.put(END);
+    } catch (InterruptedException e) {
+      // Closed by the reader.
+    }
+  }
+}
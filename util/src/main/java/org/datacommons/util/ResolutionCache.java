@@ -0,0 +1,272 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import com.google.common.hash.Hashing;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// A persistent cache of external ID resolution results (see ExternalIdResolver), so that repeated
+// runs do not call the Recon API for the same IDs again.
+//
+// Keys are an ID property and value (e.g., isoCode and "IN"), and values are the resolved DCID, or
+// empty if the ID did not resolve. The file is a header, followed by fixed-width entries sorted by
+// a 64-bit fingerprint of the key, followed by the key and DCID bytes of the entries. The file is
+// memory-mapped and binary searched, so only the pages that lookups touch are read. Each entry
+// records when it was resolved; entries older than the TTL are ignored, and dropped on save().
+//
+// Results added during the run are kept in memory, and written out together with the unexpired
+// entries of the existing file by save(), which replaces the file atomically. The file is mapped
+// as one buffer, so it is limited to 2 GB; save() fails rather than write a larger one.
+//
+// This class is thread-safe.
+public class ResolutionCache {
+  private static final int MAGIC = 0x44435243; // "DCRC"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 16;
+  // Fingerprint, epoch seconds, data offset, key length and DCID length.
+  private static final int ENTRY_BYTES = 24;
+  private static final int MAX_FIELD_BYTES = 0xFFFF;
+  private static final long MAX_FILE_BYTES = Integer.MAX_VALUE;
+
+  private final Path path;
+  private final long ttlSeconds;
+  private final long nowSeconds;
+  // Contents of the existing file, or null if there was none.
+  private final ByteBuffer buffer;
+  private final int numEntries;
+  // Key -> DCID, for results added in this run.
+  private final Map<String, String> added = new ConcurrentHashMap<>();
+
+  private ResolutionCache(Path path, Duration ttl, ByteBuffer buffer, int numEntries) {
+    this.path = path;
+    this.ttlSeconds = ttl.getSeconds();
+    this.nowSeconds = Instant.now().getEpochSecond();
+    this.buffer = buffer;
+    this.numEntries = numEntries;
+  }
+
+  // Opens the cache at "path", which need not exist yet. Throws IOException if the file exists but
+  // is not a valid cache file.
+  public static ResolutionCache open(Path path, Duration ttl) throws IOException {
+    if (!Files.exists(path)) {
+      return new ResolutionCache(path, ttl, null, 0);
+    }
+    try (FileChannel channel = FileChannel.open(path)) {
+      long size = channel.size();
+      if (size > MAX_FILE_BYTES) {
+        throw new IOException("Resolution cache file is too large: " + path);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (size < HEADER_BYTES
+          || buffer.getInt(0) != MAGIC
+          || buffer.getInt(4) != VERSION
+          || buffer.getLong(8) < 0
+          || buffer.getLong(8) > (size - HEADER_BYTES) / ENTRY_BYTES) {
+        throw new IOException("Invalid resolution cache file: " + path);
+      }
+      return new ResolutionCache(path, ttl, buffer, (int) buffer.getLong(8));
+    }
+  }
+
+  // Returns the DCID that the ID resolved to, empty if it did not resolve, or null if the ID is not
+  // in the cache or its entry has expired.
+  public String get(String idProp, String id) {
+    String key = makeKey(idProp, id);
+    String dcid = added.get(key);
+    if (dcid != null) return dcid;
+
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    long fp = fingerprint(keyBytes);
+    // Find the first entry with the fingerprint, and compare the keys of all entries with it.
+    int lo = 0, hi = numEntries;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (entryFingerprint(mid) < fp) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    for (int i = lo; i < numEntries && entryFingerprint(i) == fp; i++) {
+      if (!keyEquals(i, keyBytes)) continue;
+      if (nowSeconds - entrySeconds(i) > ttlSeconds) return null;
+      return entryDcid(i);
+    }
+    return null;
+  }
+
+  // Records the DCID that the ID resolved to, or empty if it did not resolve.
+  public void put(String idProp, String id, String dcid) {
+    added.put(makeKey(idProp, id), dcid);
+  }
+
+  // Number of results added in this run.
+  public int numAdded() {
+    return added.size();
+  }
+
+  // Writes the unexpired entries and the results added in this run to the cache file.
+  public synchronized void save() throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    for (Map.Entry<String, String> kv : added.entrySet()) {
+      byte[] key = kv.getKey().getBytes(StandardCharsets.UTF_8);
+      byte[] dcid = kv.getValue().getBytes(StandardCharsets.UTF_8);
+      if (key.length > MAX_FIELD_BYTES || dcid.length > MAX_FIELD_BYTES) continue;
+      entries.add(new Entry(fingerprint(key), nowSeconds, key, dcid));
+    }
+    for (int i = 0; i < numEntries; i++) {
+      if (nowSeconds - entrySeconds(i) > ttlSeconds) continue;
+      byte[] key = entryKey(i);
+      // An added result replaces the existing entry.
+      if (added.containsKey(new String(key, StandardCharsets.UTF_8))) continue;
+      entries.add(
+          new Entry(
+              entryFingerprint(i),
+              entrySeconds(i),
+              key,
+              entryDcid(i).getBytes(StandardCharsets.UTF_8)));
+    }
+    entries.sort(Comparator.comparingLong((Entry e) -> e.fingerprint));
+    long size = HEADER_BYTES + (long) entries.size() * ENTRY_BYTES;
+    for (Entry e : entries) {
+      size += e.key.length + e.dcid.length;
+    }
+    if (size > MAX_FILE_BYTES) {
+      throw new IOException(
+          "Resolution cache would be too large ("
+              + size
+              + " bytes, the limit is "
+              + MAX_FILE_BYTES
+              + "); not saving "
+              + path
+              + ". Use a shorter TTL or a new cache file.");
+    }
+
+    Path parent = path.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path tmp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(entries.size());
+        int offset = 0;
+        for (Entry e : entries) {
+          out.writeLong(e.fingerprint);
+          out.writeLong(e.seconds);
+          out.writeInt(offset);
+          out.writeShort(e.key.length);
+          out.writeShort(e.dcid.length);
+          offset += e.key.length + e.dcid.length;
+        }
+        for (Entry e : entries) {
+          out.write(e.key);
+          out.write(e.dcid);
+        }
+      }
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static final class Entry {
+    final long fingerprint;
+    final long seconds;
+    final byte[] key;
+    final byte[] dcid;
+
+    Entry(long fingerprint, long seconds, byte[] key, byte[] dcid) {
+      this.fingerprint = fingerprint;
+      this.seconds = seconds;
+      this.key = key;
+      this.dcid = dcid;
+    }
+  }
+
+  private static String makeKey(String idProp, String id) {
+    return idProp + ":" + id;
+  }
+
+  private static long fingerprint(byte[] key) {
+    return Hashing.farmHashFingerprint64().hashBytes(key).asLong();
+  }
+
+  private int entryPos(int i) {
+    return HEADER_BYTES + i * ENTRY_BYTES;
+  }
+
+  private long entryFingerprint(int i) {
+    return buffer.getLong(entryPos(i));
+  }
+
+  private long entrySeconds(int i) {
+    return buffer.getLong(entryPos(i) + 8);
+  }
+
+  private int dataPos(int i) {
+    return HEADER_BYTES + numEntries * ENTRY_BYTES + buffer.getInt(entryPos(i) + 16);
+  }
+
+  private int keyLength(int i) {
+    return Short.toUnsignedInt(buffer.getShort(entryPos(i) + 20));
+  }
+
+  private int dcidLength(int i) {
+    return Short.toUnsignedInt(buffer.getShort(entryPos(i) + 22));
+  }
+
+  private boolean keyEquals(int i, byte[] key) {
+    if (keyLength(i) != key.length) return false;
+    int pos = dataPos(i);
+    for (int j = 0; j < key.length; j++) {
+      if (buffer.get(pos + j) != key[j]) return false;
+    }
+    return true;
+  }
+
+  private byte[] entryKey(int i) {
+    return readBytes(dataPos(i), keyLength(i));
+  }
+
+  private String entryDcid(int i) {
+    return new String(readBytes(dataPos(i) + keyLength(i), dcidLength(i)), StandardCharsets.UTF_8);
+  }
+
+  private byte[] readBytes(int pos, int length) {
+    byte[] bytes = new byte[length];
+    for (int j = 0; j < length; j++) {
+      bytes[j] = buffer.get(pos + j);
+    }
+    return bytes;
+  }
+}
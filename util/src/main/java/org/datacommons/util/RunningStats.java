@@ -0,0 +1,63 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+// The mean and (population) standard deviation of a sequence of values, updated one value at a
+// time, along with the smallest and largest value.
+//
+// The sum of squared deviations is updated incrementally (Welford/West style), so the values need
+// not be kept. The result depends slightly on the order of the values, so the same values must be
+// added in the same order to get exactly the same result.
+//
+// This class is not thread-safe.
+public final class RunningStats {
+  private double weights = 0;
+  private double sum = 0;
+  private double sumSqDev = 0;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+
+  public void add(double val) {
+    if (weights > 0) {
+      sumSqDev += 1 * weights / 1 / (weights + 1) * Math.pow((1 / weights * sum - val), 2);
+    }
+    weights++;
+    sum += val;
+    min = Math.min(min, val);
+    max = Math.max(max, val);
+  }
+
+  public long getCount() {
+    return (long) weights;
+  }
+
+  // Returns the mean, or 0 if there are fewer than 2 values.
+  public double getMean() {
+    return weights < 2 ? 0 : sum * (1.0 / weights);
+  }
+
+  // Returns the standard deviation, or 0 if there are fewer than 2 values.
+  public double getStdDev() {
+    return weights < 2 ? 0 : Math.sqrt(sumSqDev * (1.0 / weights));
+  }
+
+  // Whether any value is more than "numStdDevs" standard deviations away from the mean, going by
+  // the smallest and the largest value.
+  public boolean hasValuesBeyond(double numStdDevs) {
+    double mean = getMean();
+    double limit = numStdDevs * getStdDev();
+    return Math.abs(max - mean) > limit || Math.abs(min - mean) > limit;
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.datacommons.proto.Mcf;
+
+// A local snapshot of the schema in the KG, which lets ExistenceChecker answer node and triple
+// checks without calling DC.
+//
+// The snapshot is built from MCF files (e.g., the schema MCFs that DC is built from), and holds
+// the same nodes and triples that ExistenceChecker would learn from them as local graphs. They are
+// kept as a sorted array of 64-bit fingerprints (see ExistenceChecker.fingerprint), which can be
+// saved to and loaded from a compact binary index file.
+public class SchemaSnapshot {
+  private static final int MAGIC = 0x44435353; // "DCSS"
+  // Version 2 changed the fingerprint function.
+  private static final int VERSION = 2;
+
+  // Sorted and distinct.
+  private final long[] fingerprints;
+
+  private SchemaSnapshot(long[] fingerprints) {
+    this.fingerprints = fingerprints;
+  }
+
+  // Builds a snapshot from a list of files, each of which is either an index file written by
+  // save() or an instance MCF file. Problems in the MCF files are logged to logCtx.
+  public static SchemaSnapshot load(List<Path> files, LogWrapper logCtx) throws IOException {
+    KeyBuffer keys = new KeyBuffer();
+    for (Path file : files) {
+      if (isIndexFile(file)) {
+        readIndex(file, keys);
+      } else {
+        readMcf(file, logCtx, keys);
+      }
+    }
+    return new SchemaSnapshot(keys.sortedDistinct());
+  }
+
+  public static boolean isIndexFile(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      byte[] magic = in.readNBytes(4);
+      return magic.length == 4 && ByteBuffer.wrap(magic).getInt() == MAGIC;
+    }
+  }
+
+  // Writes the snapshot as an index file, which load() reads much faster than MCF files.
+  public void save(Path file) throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(fingerprints.length);
+      for (long fp : fingerprints) {
+        out.writeLong(fp);
+      }
+    }
+  }
+
+  // Returns true if the node (if "obj" is empty) or triple is in the snapshot.
+  public boolean contains(String sub, String pred, String obj) {
+    return contains(ExistenceChecker.fingerprint(sub, pred, obj));
+  }
+
+  // Like above, with the fingerprint of the node or triple.
+  public boolean contains(long fingerprint) {
+    return Arrays.binarySearch(fingerprints, fingerprint) >= 0;
+  }
+
+  // Number of nodes and triples in the snapshot.
+  public int size() {
+    return fingerprints.length;
+  }
+
+  private static void readIndex(Path file, KeyBuffer keys) throws IOException {
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+      in.readInt();
+      int version = in.readInt();
+      long count = in.readLong();
+      if (version != VERSION || count < 0 || count > Integer.MAX_VALUE) {
+        throw new IOException(
+            "Invalid or outdated schema snapshot index file (rebuild it from the MCF files): "
+                + file);
+      }
+      for (long i = 0; i < count; i++) {
+        keys.add(in.readLong());
+      }
+    }
+  }
+
+  private static void readMcf(Path file, LogWrapper logCtx, KeyBuffer keys) throws IOException {
+    McfParser parser = McfParser.init(Mcf.McfType.INSTANCE_MCF, file.toString(), false, logCtx);
+    Mcf.McfGraph g;
+    while ((g = parser.parseNextNode()) != null) {
+      g = McfMutator.mutate(g.toBuilder(), logCtx);
+      ExistenceChecker.forEachKey(
+          g, (sub, pred, obj) -> keys.add(ExistenceChecker.fingerprint(sub, pred, obj)));
+    }
+  }
+
+  // A growable array of fingerprints.
+  private static final class KeyBuffer {
+    private long[] keys = new long[1024];
+    private int size = 0;
+
+    void add(long key) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, keys.length * 2);
+      }
+      keys[size++] = key;
+    }
+
+    long[] sortedDistinct() {
+      Arrays.sort(keys, 0, size);
+      int n = 0;
+      for (int i = 0; i < size; i++) {
+        if (n == 0 || keys[n - 1] != keys[i]) {
+          keys[n++] = keys[i];
+        }
+      }
+      return Arrays.copyOf(keys, n);
+    }
+  }
+}
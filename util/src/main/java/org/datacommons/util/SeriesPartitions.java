@@ -0,0 +1,407 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.datacommons.proto.Debug;
+import org.datacommons.proto.Mcf.McfGraph;
+import org.datacommons.util.PlaceSeriesSummary.SeriesSummary;
+
+// Holds the points of all the stat var series of an import on disk, so that every series can be
+// checked (see StatChecker) without holding them all in memory.
+//
+// Each StatVarObservation is added to the partition of its series, by the hash of the properties
+// that identify the series. Observations are added through a Writer per thread, which buffers up
+// to MAX_BUFFERED_OBSERVATIONS of them, sorts them by series and date and appends them to the
+// temporary file of each partition as one sorted run. forEachSeries() then merges the runs of a
+// partition and builds one series at a time.
+//
+// Merging reads each run through its own buffer, so before that, the runs of a partition are
+// merged MAX_RUNS_PER_PARTITION at a time into longer runs appended to its file, until there are
+// at most MAX_RUNS_PER_PARTITION left. Memory use is thus bounded by the writer buffers, the run
+// buffers of a partition and the longest series, rather than by the import. The runs that were
+// merged stay in the file, unused, until close() deletes it.
+//
+// Writers must not be used while forEachSeries() runs, and all of them must be flushed before.
+// Partitions can be read concurrently.
+public final class SeriesPartitions implements Closeable {
+  // There are 2^PARTITION_BITS partitions, by the top bits of the series hash.
+  private static final int PARTITION_BITS = 4;
+  public static final int NUM_PARTITIONS = 1 << PARTITION_BITS;
+  private static final int MAX_BUFFERED_OBSERVATIONS = 1 << 15;
+  // The most runs that are merged at once, and thus read buffers in use per partition.
+  private static final int MAX_RUNS_PER_PARTITION = 64;
+  private static final int BUFFER_SIZE = 1 << 16;
+  // There is a read buffer per run while merging a partition, so keep these smaller.
+  private static final int RUN_BUFFER_SIZE = 1 << 13;
+  // The properties that identify a series, in the order they are hashed and compared.
+  private static final List<String> SERIES_KEY_PROPS =
+      List.of(
+          Vocabulary.OBSERVATION_ABOUT,
+          Vocabulary.VARIABLE_MEASURED,
+          Vocabulary.MEASUREMENT_METHOD,
+          Vocabulary.OBSERVATION_PERIOD,
+          Vocabulary.SCALING_FACTOR,
+          Vocabulary.UNIT);
+  // Hashes are compared as unsigned, so that observations are also sorted by partition.
+  // Observations of the same series are sorted by date, and then by the order they were added in.
+  private static final Comparator<Observation> ORDER =
+      ((Comparator<Observation>) (a, b) -> Long.compareUnsigned(a.hash, b.hash))
+          .thenComparing((a, b) -> Arrays.compare(a.key, b.key))
+          .thenComparing(o -> o.date)
+          .thenComparingLong(o -> o.seq);
+
+  private final Path spillDir;
+  private final int maxBufferedObservations;
+  private final int maxRunsPerPartition;
+  private final Partition[] partitions = new Partition[NUM_PARTITIONS];
+  private final AtomicInteger numWriters = new AtomicInteger();
+  private volatile boolean closed = false;
+
+  // Partitions are written to temporary files in "spillDir", or the default temporary-file
+  // directory if null.
+  public SeriesPartitions(Path spillDir) {
+    this(spillDir, MAX_BUFFERED_OBSERVATIONS, MAX_RUNS_PER_PARTITION);
+  }
+
+  // Like above, with the number of observations that a Writer buffers and the most runs that are
+  // merged at once. For tests.
+  SeriesPartitions(Path spillDir, int maxBufferedObservations, int maxRunsPerPartition) {
+    if (maxRunsPerPartition < 2) {
+      throw new IllegalArgumentException("maxRunsPerPartition must be at least 2");
+    }
+    this.spillDir = spillDir;
+    this.maxBufferedObservations = maxBufferedObservations;
+    this.maxRunsPerPartition = maxRunsPerPartition;
+    for (int i = 0; i < NUM_PARTITIONS; i++) {
+      partitions[i] = new Partition();
+    }
+  }
+
+  // A point of a series, as buffered and written to disk.
+  private static final class Observation {
+    long hash;
+    // Orders the observations of a writer, and the writers.
+    long seq;
+    // Values of SERIES_KEY_PROPS.
+    String[] key;
+    String date;
+    double value;
+    List<Debug.Log.Location> locations;
+
+    int partition() {
+      return (int) (hash >>> (Long.SIZE - PARTITION_BITS));
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      out.writeLong(hash);
+      out.writeLong(seq);
+      for (String prop : key) {
+        out.writeUTF(prop);
+      }
+      out.writeUTF(date);
+      out.writeDouble(value);
+      out.writeInt(locations.size());
+      for (Debug.Log.Location location : locations) {
+        out.writeUTF(location.getFile());
+        out.writeLong(location.getLineNumber());
+      }
+    }
+
+    static Observation readFrom(DataInputStream in) throws IOException {
+      Observation o = new Observation();
+      o.hash = in.readLong();
+      o.seq = in.readLong();
+      o.key = new String[SERIES_KEY_PROPS.size()];
+      for (int i = 0; i < o.key.length; i++) {
+        o.key[i] = in.readUTF();
+      }
+      o.date = in.readUTF();
+      o.value = in.readDouble();
+      int numLocations = in.readInt();
+      o.locations = new ArrayList<>(numLocations);
+      for (int i = 0; i < numLocations; i++) {
+        o.locations.add(
+            Debug.Log.Location.newBuilder()
+                .setFile(in.readUTF())
+                .setLineNumber(in.readLong())
+                .build());
+      }
+      return o;
+    }
+
+    boolean isSameSeries(Observation other) {
+      return hash == other.hash && Arrays.equals(key, other.key);
+    }
+  }
+
+  // A sorted run of observations in the file of a partition.
+  private static final class Run {
+    final long offset;
+    final long length;
+    final long count;
+
+    Run(long offset, long length, long count) {
+      this.offset = offset;
+      this.length = length;
+      this.count = count;
+    }
+  }
+
+  // The file of a partition. Runs are appended under the lock of the partition.
+  private final class Partition {
+    Path file = null;
+    OutputStream out = null;
+    long bytes = 0;
+    final List<Run> runs = new ArrayList<>();
+
+    synchronized void append(byte[] run, int count) throws IOException {
+      if (closed) throw new IllegalStateException("SeriesPartitions is closed");
+      if (out == null) {
+        file =
+            spillDir == null
+                ? Files.createTempFile("series_partition", ".bin")
+                : Files.createTempFile(spillDir, "series_partition", ".bin");
+        file.toFile().deleteOnExit();
+        out = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+      }
+      out.write(run);
+      runs.add(new Run(bytes, run.length, count));
+      bytes += run.length;
+    }
+
+    synchronized void flush() throws IOException {
+      if (out != null) out.flush();
+    }
+
+    // Merges the oldest runs into one, until there are at most maxRunsPerPartition runs.
+    synchronized void mergeRuns() throws IOException {
+      if (runs.size() <= maxRunsPerPartition) return;
+      out.flush();
+      try (FileChannel channel = FileChannel.open(file)) {
+        while (runs.size() > maxRunsPerPartition) {
+          List<Run> merged = runs.subList(0, maxRunsPerPartition);
+          RunMerger merger = new RunMerger(channel, merged);
+          CountingOutputStream counter = new CountingOutputStream(out);
+          DataOutputStream data = new DataOutputStream(counter);
+          long count = 0;
+          Observation o;
+          while ((o = merger.next()) != null) {
+            o.writeTo(data);
+            count++;
+          }
+          // Flushed to the file, as the run may be read by the next merge.
+          data.flush();
+          merged.clear();
+          runs.add(new Run(bytes, counter.getCount(), count));
+          bytes += counter.getCount();
+        }
+      }
+    }
+
+    synchronized void close() throws IOException {
+      runs.clear();
+      if (out != null) out.close();
+      if (file != null) Files.deleteIfExists(file);
+      out = null;
+      file = null;
+    }
+  }
+
+  // Adds observations to the partitions. This class is not thread-safe; use one per thread.
+  public final class Writer {
+    private final long seqBase = (long) numWriters.getAndIncrement() << 40;
+    private long numAdded = 0;
+    private final List<Observation> buffered = new ArrayList<>();
+
+    // Adds a StatVarObservation node with a number value.
+    public void add(McfGraph.PropertyValues node) throws IOException {
+      Observation o = new Observation();
+      o.key = new String[SERIES_KEY_PROPS.size()];
+      for (int i = 0; i < o.key.length; i++) {
+        o.key[i] = McfUtil.getPropVal(node, SERIES_KEY_PROPS.get(i));
+      }
+      o.hash = PlaceSeriesSummary.seriesHash(o.key);
+      o.seq = seqBase + numAdded++;
+      o.date = McfUtil.getPropVal(node, Vocabulary.OBSERVATION_DATE);
+      o.value = Double.parseDouble(McfUtil.getPropVal(node, Vocabulary.VALUE));
+      o.locations = node.getLocationsList();
+      buffered.add(o);
+      if (buffered.size() >= maxBufferedObservations) flush();
+    }
+
+    // Writes the buffered observations to the partitions, as a sorted run in each.
+    public void flush() throws IOException {
+      buffered.sort(ORDER);
+      int start = 0;
+      while (start < buffered.size()) {
+        int partition = buffered.get(start).partition();
+        int end = start;
+        ByteArrayOutputStream run = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(run);
+        while (end < buffered.size() && buffered.get(end).partition() == partition) {
+          buffered.get(end++).writeTo(out);
+        }
+        out.flush();
+        partitions[partition].append(run.toByteArray(), end - start);
+        start = end;
+      }
+      buffered.clear();
+    }
+  }
+
+  public Writer newWriter() {
+    return new Writer();
+  }
+
+  // Calls "consumer" with each series of "partition", in the order of their hashes, with the
+  // points of each series added in date order. Each series is built in its own PlaceSeriesSummary,
+  // which is not referenced once "consumer" returns.
+  public void forEachSeries(int partition, Consumer<SeriesSummary> consumer) throws IOException {
+    Partition p = partitions[partition];
+    if (p.file == null) return;
+    p.mergeRuns();
+    p.flush();
+    try (FileChannel channel = FileChannel.open(p.file)) {
+      RunMerger merger = new RunMerger(channel, p.runs);
+      PlaceSeriesSummary place = null;
+      SeriesSummary series = null;
+      Observation first = null;
+      Observation o;
+      while ((o = merger.next()) != null) {
+        if (first == null || !first.isSameSeries(o)) {
+          if (series != null) consumer.accept(series);
+          place = new PlaceSeriesSummary();
+          first = o;
+        }
+        series =
+            place.addPoint(
+                o.key[0],
+                o.key[1],
+                o.key[2],
+                o.key[3],
+                o.key[4],
+                o.key[5],
+                o.date,
+                o.value,
+                o.locations);
+      }
+      if (series != null) consumer.accept(series);
+    }
+  }
+
+  // Deletes the partition files. No observations can be added afterwards.
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    for (Partition partition : partitions) {
+      partition.close();
+    }
+  }
+
+  // Merges runs, returning their observations in ORDER.
+  private static final class RunMerger {
+    // The next observation of each run, ordered by ORDER.
+    private final PriorityQueue<RunReader> queue =
+        new PriorityQueue<>(Comparator.comparing((RunReader r) -> r.next, ORDER));
+
+    RunMerger(FileChannel channel, List<Run> runs) throws IOException {
+      for (Run run : runs) {
+        RunReader reader = new RunReader(channel, run);
+        if (reader.advance()) queue.add(reader);
+      }
+    }
+
+    // Returns the next observation, or null after the last one.
+    Observation next() throws IOException {
+      RunReader reader = queue.poll();
+      if (reader == null) return null;
+      Observation o = reader.next;
+      if (reader.advance()) queue.add(reader);
+      return o;
+    }
+  }
+
+  // Reads the observations of a run in order.
+  private static final class RunReader {
+    private final DataInputStream in;
+    private long remaining;
+    Observation next = null;
+
+    RunReader(FileChannel channel, Run run) {
+      in =
+          new DataInputStream(
+              new BufferedInputStream(
+                  new RangeInputStream(channel, run.offset, run.length), RUN_BUFFER_SIZE));
+      remaining = run.count;
+    }
+
+    // Reads the next observation into "next". Returns false at the end of the run.
+    boolean advance() throws IOException {
+      if (remaining == 0) return false;
+      remaining--;
+      next = Observation.readFrom(in);
+      return true;
+    }
+  }
+
+  // Reads a range of a file with positional reads, so that several of these can share a channel.
+  private static final class RangeInputStream extends InputStream {
+    private final FileChannel channel;
+    private long position;
+    private final long end;
+
+    RangeInputStream(FileChannel channel, long offset, long length) {
+      this.channel = channel;
+      this.position = offset;
+      this.end = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (position >= end) return -1;
+      int toRead = (int) Math.min(len, end - position);
+      int n = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+      if (n > 0) position += n;
+      return n;
+    }
+  }
+}
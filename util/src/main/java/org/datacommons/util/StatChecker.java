@@ -19,13 +19,20 @@ import com.google.common.hash.Hashing;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.http.HttpClient;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 import org.datacommons.proto.Debug.DataPoint;
 import org.datacommons.proto.Debug.DataPoint.DataValue;
 import org.datacommons.proto.Debug.Log.Level;
@@ -40,13 +47,19 @@ import org.datacommons.util.SummaryReportGenerator.StatVarSummary;
 // This class is thread-safe.
 // Concurrency of map objects are handled by:
 // a. using a ConcurrentMap when methods that use the map are on a hot path and it is ok for access
-//    to the map to be race-y (samplePlaces and svObsValues).
+//    to the map to be race-y (samplePlaces).
 // b. making methods that access the map synchronized because when methods are not on a hot path and
 //    it is not ok for access to the map to be race-y (seriesSummaryMap).
+// c. accumulating into per-thread maps on the hot path, and merging them into the shared ones
+//    before those are read (svSummaryMap and placeSeriesSummaryMap, see StatsAccumulator).
+// d. locking only the stripe of a primitive map that a key falls in, on a hot path where the map
+//    is too large for boxed keys and values (svObValues).
 public class StatChecker {
   private static final int MAX_PLACES_FOR_TYPE_INFERRED_NS = 5;
   private static final int MAX_PLACES_FOR_TYPELESS_NS = 25;
   private static final double SMALL_NUMBER = 0.000001;
+  // Fluctuations (see checkPercentFluctuations()) up to this are not reported.
+  private static final double MIN_PERCENT_FLUCTUATION = 1;
   private static final String RECEIVED_SAMPLE_PLACES_KEY = "Received_Sample_Places";
   private static final Character PLACE_NAMESPACE_DELIMITER = '/';
   private static final List<String> SVOBS_VALUE_KEY_PROPS =
@@ -69,28 +82,69 @@ public class StatChecker {
           "StatsCheck_Data_Holes");
   private static final Set<String> TYPE_INFERRED_PLACE_NAMESPACES = Set.of("geoId", "nuts");
   private static final int NUM_SUMMARY_ENTRIES_PER_COUNTER = 10;
+  // There are 2^SV_OB_VALUE_STRIPE_BITS stripes of svObValues.
+  private static final int SV_OB_VALUE_STRIPE_BITS = 6;
   private final LogWrapper logCtx;
   // key is place dcid
   private final Map<String, PlaceSeriesSummary> placeSeriesSummaryMap;
   private final Map<String, StatVarSummary> svSummaryMap;
+  // Accumulators of the threads that have called extractStatsFromGraph().
+  private final Queue<StatsAccumulator> accumulators = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<StatsAccumulator> localAccumulator =
+      ThreadLocal.withInitial(
+          () -> {
+            StatsAccumulator accumulator = new StatsAccumulator();
+            if (allSeries != null) accumulator.allSeriesWriter = allSeries.newWriter();
+            accumulators.add(accumulator);
+            return accumulator;
+          });
   // key is generated by getSamplePlacesKey, value is set of place dcids
   private final ConcurrentMap<String, Set<String>> samplePlaces;
   private final boolean shouldGenerateSamplePlaces;
   // Tracks global state on StatVarObservations to detect whether there are multiple of the
   // same StatVarObservation with inconsistent values. The key is a hash made up of a set of
   // properties that distinguish a StatVarObservation and the value is the first value seen of that
-  // StatVarObservation.
-  private final ConcurrentMap<Long, Float> svObValues;
+  // StatVarObservation. The hashes are partitioned into stripes by their top bits, and each stripe
+  // is locked separately (see firstSvObValue()).
+  private final LongLongHashMap[] svObValues;
   private final String EMPTY_PROP_STRING = "EMPTY_PROP";
+  // When > 0, the places and dates of each stat var are sketched beyond this many (see
+  // StatVarSummary.sketchLimit).
+  private final int summarySketchLimit;
+  // When not null, the points of every series are added to these partitions, and check() checks
+  // all the series rather than only those of the sample places.
+  private final SeriesPartitions allSeries;
 
   // Creates a StatChecker instance. If no samplePlaces are provided, for each pair of (place
   // namespace, place dcid length), we will use the first 5 places that stat var observations are
   // added for as the sample places.
   public StatChecker(LogWrapper logCtx, Set<String> samplePlaces) {
+    this(logCtx, samplePlaces, 0);
+  }
+
+  // Like above, but keeps only approximate counts of the places and dates of a stat var once it
+  // has more than "summarySketchLimit" of either, if it is > 0.
+  public StatChecker(LogWrapper logCtx, Set<String> samplePlaces, int summarySketchLimit) {
+    this(logCtx, samplePlaces, summarySketchLimit, null);
+  }
+
+  // Like above, but if "allSeries" is not null, the series of all the places are added to it and
+  // checked, while the series of the sample places are still kept for the summary report. The
+  // StatChecker closes "allSeries" once it has checked them.
+  public StatChecker(
+      LogWrapper logCtx,
+      Set<String> samplePlaces,
+      int summarySketchLimit,
+      SeriesPartitions allSeries) {
     this.logCtx = logCtx;
+    this.summarySketchLimit = summarySketchLimit;
+    this.allSeries = allSeries;
     this.placeSeriesSummaryMap = new HashMap<>();
     this.samplePlaces = new ConcurrentHashMap<>();
-    this.svObValues = new ConcurrentHashMap<>();
+    this.svObValues = new LongLongHashMap[1 << SV_OB_VALUE_STRIPE_BITS];
+    for (int i = 0; i < this.svObValues.length; i++) {
+      this.svObValues[i] = new LongLongHashMap();
+    }
     this.svSummaryMap = new HashMap<>();
     if (samplePlaces == null) {
       this.shouldGenerateSamplePlaces = true;
@@ -100,27 +154,78 @@ public class StatChecker {
     }
   }
 
+  // Summaries of the stats extracted by one thread, which are merged into svSummaryMap and
+  // placeSeriesSummaryMap by mergeAccumulators(). The lock of an accumulator is only contended
+  // while merging.
+  private static final class StatsAccumulator {
+    final Map<String, StatVarSummary> svSummaryMap = new HashMap<>();
+    final Map<String, PlaceSeriesSummary> placeSeriesSummaryMap = new HashMap<>();
+    // Adds to allSeries, if not null.
+    SeriesPartitions.Writer allSeriesWriter = null;
+  }
+
   // Given a graph, extract stat var info and time series info (about the chosen sample places) from
   // the statVarObservation nodes.
-  //
-  // TODO (chejennifer): Look into optimizing this so that there can be less contention
-  public synchronized void extractStatsFromGraph(McfGraph graph) {
-    for (Map.Entry<String, McfGraph.PropertyValues> nodeEntry : graph.getNodesMap().entrySet()) {
-      McfGraph.PropertyValues node = nodeEntry.getValue();
-      if (isSvObWithNumberValue(node)) {
-        // We will extract basic stat var information from every StatVarObservation nodes
-        extractStatVarInfoFromNode(node);
-        // We will only extract series information from StatVarObservation nodes about sample places
-        String placeDcid = McfUtil.getPropVal(node, Vocabulary.OBSERVATION_ABOUT);
-        if (shouldExtractSeriesInfo(placeDcid)) {
-          placeSeriesSummaryMap
-              .computeIfAbsent(placeDcid, k -> new PlaceSeriesSummary())
-              .extractSeriesFromNode(node);
+  public void extractStatsFromGraph(McfGraph graph) {
+    StatsAccumulator accumulator = localAccumulator.get();
+    synchronized (accumulator) {
+      for (Map.Entry<String, McfGraph.PropertyValues> nodeEntry : graph.getNodesMap().entrySet()) {
+        McfGraph.PropertyValues node = nodeEntry.getValue();
+        if (isSvObWithNumberValue(node)) {
+          // We will extract basic stat var information from every StatVarObservation nodes
+          extractStatVarInfoFromNode(node, accumulator.svSummaryMap);
+          if (accumulator.allSeriesWriter != null) {
+            try {
+              accumulator.allSeriesWriter.add(node);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          }
+          // We will only extract series information from StatVarObservation nodes about sample
+          // places
+          String placeDcid = McfUtil.getPropVal(node, Vocabulary.OBSERVATION_ABOUT);
+          if (shouldExtractSeriesInfo(placeDcid)) {
+            accumulator
+                .placeSeriesSummaryMap
+                .computeIfAbsent(placeDcid, k -> new PlaceSeriesSummary())
+                .extractSeriesFromNode(node);
+          }
         }
       }
     }
   }
 
+  // Moves the summaries of all the threads' accumulators into svSummaryMap and
+  // placeSeriesSummaryMap.
+  private synchronized void mergeAccumulators() {
+    for (StatsAccumulator accumulator : accumulators) {
+      synchronized (accumulator) {
+        for (Map.Entry<String, StatVarSummary> sv : accumulator.svSummaryMap.entrySet()) {
+          svSummaryMap.merge(
+              sv.getKey(),
+              sv.getValue(),
+              (a, b) -> {
+                a.merge(b);
+                return a;
+              });
+        }
+        for (Map.Entry<String, PlaceSeriesSummary> place :
+            accumulator.placeSeriesSummaryMap.entrySet()) {
+          placeSeriesSummaryMap.merge(
+              place.getKey(),
+              place.getValue(),
+              (a, b) -> {
+                a.merge(b);
+                return a;
+              });
+        }
+        // The summaries now belong to the shared maps.
+        accumulator.svSummaryMap.clear();
+        accumulator.placeSeriesSummaryMap.clear();
+      }
+    }
+  }
+
   // Given a graph, for each node that is a statVarObservation node with a number value, check for
   // any value inconsistencies. Return false if there are any svObsValueInconsistencies found.
   public boolean checkSvObsInGraph(McfGraph graph) {
@@ -137,49 +242,232 @@ public class StatChecker {
   // variance, percent fluctuations, holes in dates, invalid dates, etc) and add these results to
   // the logCtx.
   public synchronized void check() {
-    Map<String, Integer> countersRemaining = new HashMap<>();
-    for (String counterKey : COUNTER_KEYS) {
-      countersRemaining.put(counterKey, NUM_SUMMARY_ENTRIES_PER_COUNTER);
+    if (allSeries != null) {
+      List<List<StatValidationResult.Builder>> results = new ArrayList<>();
+      flushAllSeries();
+      for (int partition = 0; partition < SeriesPartitions.NUM_PARTITIONS; partition++) {
+        results.add(checkPartition(partition));
+      }
+      addAllSeriesSummaryEntries(results);
+      return;
+    }
+    List<SeriesSummary> seriesSummaries = getSeriesSummaries();
+    checkSeries(seriesSummaries, 0, seriesSummaries.size());
+    addStatsCheckSummaryEntries(seriesSummaries);
+  }
+
+  // Like check(), but checks the series in parallel on "executor", split into about "numTasks"
+  // tasks. The series are independent, and the summary entries are added to the logCtx after all
+  // of them are checked, in the same order as check() does. When checking all the series, there is
+  // a task per partition instead.
+  public synchronized void check(ExecutorService executor, int numTasks)
+      throws InterruptedException {
+    if (allSeries != null) {
+      flushAllSeries();
+      List<Callable<List<StatValidationResult.Builder>>> tasks = new ArrayList<>();
+      for (int partition = 0; partition < SeriesPartitions.NUM_PARTITIONS; partition++) {
+        int taskPartition = partition;
+        tasks.add(() -> checkPartition(taskPartition));
+      }
+      addAllSeriesSummaryEntries(runTasks(executor, tasks));
+      return;
+    }
+    List<SeriesSummary> seriesSummaries = getSeriesSummaries();
+    int seriesPerTask = Math.max(1, (seriesSummaries.size() + numTasks - 1) / numTasks);
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (int start = 0; start < seriesSummaries.size(); start += seriesPerTask) {
+      int taskStart = start;
+      int taskEnd = Math.min(start + seriesPerTask, seriesSummaries.size());
+      tasks.add(
+          () -> {
+            checkSeries(seriesSummaries, taskStart, taskEnd);
+            return null;
+          });
+    }
+    runTasks(executor, tasks);
+    addStatsCheckSummaryEntries(seriesSummaries);
+  }
+
+  // Runs "tasks" on "executor" and returns their results, in order. A task's exception is
+  // rethrown.
+  private static <T> List<T> runTasks(ExecutorService executor, List<Callable<T>> tasks)
+      throws InterruptedException {
+    List<T> results = new ArrayList<>();
+    for (Future<T> future : executor.invokeAll(tasks)) {
+      try {
+        results.add(future.get());
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new IllegalStateException(cause);
+      }
+    }
+    return results;
+  }
+
+  // Writes the observations buffered by all the threads to allSeries.
+  private void flushAllSeries() {
+    for (StatsAccumulator accumulator : accumulators) {
+      synchronized (accumulator) {
+        try {
+          accumulator.allSeriesWriter.flush();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+  }
+
+  // Checks the series of a partition of allSeries, one at a time. Returns the validation results
+  // that may be added as summary entries, i.e., those that would be if only this partition were
+  // checked. As the partitions are checked independently, this keeps all the results that are
+  // added when the partitions are reported in order (see addAllSeriesSummaryEntries()).
+  private List<StatValidationResult.Builder> checkPartition(int partition) {
+    List<StatValidationResult.Builder> results = new ArrayList<>();
+    SummaryEntrySelector selector = new SummaryEntrySelector();
+    try {
+      allSeries.forEachSeries(
+          partition,
+          seriesSummary -> {
+            checkSeries(seriesSummary);
+            if (selector.select(seriesSummary.validationResult)) {
+              results.add(seriesSummary.validationResult);
+            }
+          });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
+    return results;
+  }
+
+  // Adds the summary entries from the results of checkPartition() for each partition, in partition
+  // order, and deletes the partitions.
+  private void addAllSeriesSummaryEntries(List<List<StatValidationResult.Builder>> results) {
+    SummaryEntrySelector selector = new SummaryEntrySelector();
+    for (List<StatValidationResult.Builder> partitionResults : results) {
+      for (StatValidationResult.Builder resBuilder : partitionResults) {
+        if (selector.select(resBuilder)) logCtx.addStatsCheckSummaryEntry(resBuilder.build());
+      }
+    }
+    try {
+      allSeries.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Returns all the series, in the order they are checked and reported.
+  private List<SeriesSummary> getSeriesSummaries() {
+    mergeAccumulators();
+    List<SeriesSummary> seriesSummaries = new ArrayList<>();
     for (PlaceSeriesSummary placeSeriesSummary : placeSeriesSummaryMap.values()) {
       for (Map<Long, SeriesSummary> seriesSummaryMap :
           placeSeriesSummary.getSvSeriesSummaryMap().values()) {
-        for (SeriesSummary seriesSummary : seriesSummaryMap.values()) {
-          List<DataPoint> timeSeries = new ArrayList<>(seriesSummary.timeSeries.values());
-          StatValidationResult.Builder resBuilder = seriesSummary.validationResult;
-          // Check inconsistent values (sawtooth).
-          checkSeriesValueInconsistencies(timeSeries, resBuilder, logCtx);
-          // Check N-Sigma variance.
-          checkSigmaDivergence(timeSeries, resBuilder, logCtx);
-          // Check N-Percent fluctuations.
-          checkPercentFluctuations(timeSeries, resBuilder, logCtx);
-          // Check for holes in dates, invalid dates, etc.
-          checkDates(timeSeries, resBuilder, logCtx);
-          // add result to log.
-          if (!resBuilder.getValidationCountersList().isEmpty() && !countersRemaining.isEmpty()) {
-            // only add entry if resBuilder contains a validation counter that we still want to add
-            // entries for.
-            boolean shouldAddEntry = false;
-            for (StatValidationEntry entry : resBuilder.getValidationCountersList()) {
-              String counterKey = entry.getCounterKey();
-              if (countersRemaining.containsKey(counterKey)) {
-                shouldAddEntry = true;
-                countersRemaining.compute(counterKey, (k, v) -> v != null ? v - 1 : 0);
-                if (countersRemaining.get(counterKey) < 1) countersRemaining.remove(counterKey);
-              }
-            }
-            if (shouldAddEntry) logCtx.addStatsCheckSummaryEntry(resBuilder.build());
-          }
+        seriesSummaries.addAll(seriesSummaryMap.values());
+      }
+    }
+    return seriesSummaries;
+  }
+
+  // Runs the checks on the series in [start, end), adding the results to their validation results.
+  private void checkSeries(List<SeriesSummary> seriesSummaries, int start, int end) {
+    for (int i = start; i < end; i++) {
+      checkSeries(seriesSummaries.get(i));
+    }
+  }
+
+  // Runs the checks on a series, adding the results to its validation result.
+  private void checkSeries(SeriesSummary seriesSummary) {
+    RunningStats firstValueStats = seriesSummary.getFirstValueStats();
+    // The data points are only built for the checks that go through them. Most series need none:
+    // the series kept the statistics for the sigma and fluctuation checks as it was extracted, and
+    // the dates are checked on their own.
+    boolean needsDataPoints =
+        seriesSummary.hasMultipleValues()
+            || !seriesSummary.isInDateOrder()
+            || (firstValueStats.getStdDev() != 0 && firstValueStats.hasValuesBeyond(3));
+    List<DataPoint> timeSeries = needsDataPoints ? seriesSummary.getDataPoints() : null;
+    StatValidationResult.Builder resBuilder = seriesSummary.validationResult;
+    // Check inconsistent values (sawtooth).
+    if (seriesSummary.hasMultipleValues()) {
+      checkSeriesValueInconsistencies(timeSeries, resBuilder, logCtx);
+    }
+    if (seriesSummary.isInDateOrder()) {
+      if (timeSeries != null) {
+        checkSigmaDivergence(timeSeries, firstValueStats, resBuilder, logCtx);
+      }
+      if (!seriesSummary.hasMultipleValues()
+          && Math.abs(seriesSummary.getMaxDelta()) > MIN_PERCENT_FLUCTUATION) {
+        addPercentFluctuationCounter(
+            seriesSummary.getMaxDelta(),
+            seriesSummary.getMaxDeltaBaseDataPoint(),
+            seriesSummary.getMaxDeltaDataPoint(),
+            resBuilder,
+            logCtx);
+      }
+    } else {
+      // Check N-Sigma variance.
+      checkSigmaDivergence(timeSeries, resBuilder, logCtx);
+      // Check N-Percent fluctuations.
+      checkPercentFluctuations(timeSeries, resBuilder, logCtx);
+    }
+    // Check for holes in dates, invalid dates, etc.
+    checkDates(
+        seriesSummary.getDates(),
+        timeSeries != null ? () -> timeSeries : seriesSummary::getDataPoints,
+        resBuilder,
+        logCtx);
+  }
+
+  // Adds the validation results of the checked series to the log, up to
+  // NUM_SUMMARY_ENTRIES_PER_COUNTER entries per counter.
+  private void addStatsCheckSummaryEntries(List<SeriesSummary> seriesSummaries) {
+    SummaryEntrySelector selector = new SummaryEntrySelector();
+    for (SeriesSummary seriesSummary : seriesSummaries) {
+      StatValidationResult.Builder resBuilder = seriesSummary.validationResult;
+      // add result to log.
+      if (selector.select(resBuilder)) logCtx.addStatsCheckSummaryEntry(resBuilder.build());
+    }
+  }
+
+  // Picks the validation results that are added to the log as summary entries, out of those it is
+  // given in order: up to NUM_SUMMARY_ENTRIES_PER_COUNTER per counter.
+  private static final class SummaryEntrySelector {
+    private final Map<String, Integer> countersRemaining = new HashMap<>();
+
+    SummaryEntrySelector() {
+      for (String counterKey : COUNTER_KEYS) {
+        countersRemaining.put(counterKey, NUM_SUMMARY_ENTRIES_PER_COUNTER);
+      }
+    }
+
+    boolean select(StatValidationResult.Builder resBuilder) {
+      if (resBuilder.getValidationCountersList().isEmpty() || countersRemaining.isEmpty()) {
+        return false;
+      }
+      // only add entry if resBuilder contains a validation counter that we still want to add
+      // entries for.
+      boolean shouldAddEntry = false;
+      for (StatValidationEntry entry : resBuilder.getValidationCountersList()) {
+        String counterKey = entry.getCounterKey();
+        if (countersRemaining.containsKey(counterKey)) {
+          shouldAddEntry = true;
+          countersRemaining.compute(counterKey, (k, v) -> v != null ? v - 1 : 0);
+          if (countersRemaining.get(counterKey) < 1) countersRemaining.remove(counterKey);
         }
       }
+      return shouldAddEntry;
     }
   }
 
   public Map<String, PlaceSeriesSummary> getPlaceSeriesSummaryMap() {
+    mergeAccumulators();
     return this.placeSeriesSummaryMap;
   }
 
   public Map<String, StatVarSummary> getSVSummaryMap() {
+    mergeAccumulators();
     return this.svSummaryMap;
   }
 
@@ -203,11 +491,15 @@ public class StatChecker {
     // belongs has empty space, the sample place will be added to the
     // samplePlaces map
     if (shouldGenerateSamplePlaces) {
-      samplePlaces.computeIfAbsent(placekey, k -> new HashSet<>());
-
-      // If the the bucket has space, add the sample place
-      if (samplePlacesBucketHasSpace(placeDcid, placekey)) {
-        samplePlaces.get(placekey).add(placeDcid);
+      Set<String> bucket =
+          samplePlaces.computeIfAbsent(placekey, k -> ConcurrentHashMap.newKeySet());
+
+      // If the the bucket has space, add the sample place. Once the bucket is full, this only
+      // reads it.
+      if (!bucket.contains(placeDcid) && samplePlacesBucketHasSpace(placeDcid, bucket)) {
+        synchronized (bucket) {
+          if (samplePlacesBucketHasSpace(placeDcid, bucket)) bucket.add(placeDcid);
+        }
       }
     }
 
@@ -215,8 +507,8 @@ public class StatChecker {
   }
 
   // Returns true if the bucket for this places key is not full.
-  private boolean samplePlacesBucketHasSpace(String placeDcid, String placekey) {
-    boolean bucketNotFull = samplePlaces.get(placekey).size() < getSamplePlaceBucketSize(placeDcid);
+  private boolean samplePlacesBucketHasSpace(String placeDcid, Set<String> bucket) {
+    boolean bucketNotFull = bucket.size() < getSamplePlaceBucketSize(placeDcid);
     return bucketNotFull;
   }
 
@@ -291,10 +583,21 @@ public class StatChecker {
 
   protected static void checkSigmaDivergence(
       List<DataPoint> timeSeries, StatValidationResult.Builder resBuilder, LogWrapper logCtx) {
-    MeanAndStdDev meanAndStdDev = getStats(timeSeries);
-    if (meanAndStdDev.stdDev == 0) {
+    checkSigmaDivergence(timeSeries, getStats(timeSeries), resBuilder, logCtx);
+  }
+
+  // Like above, with the stats of the first value of each data point of "timeSeries", in order.
+  // The data points are only looked at if some are beyond 3 standard deviations.
+  static void checkSigmaDivergence(
+      List<DataPoint> timeSeries,
+      RunningStats stats,
+      StatValidationResult.Builder resBuilder,
+      LogWrapper logCtx) {
+    if (stats.getStdDev() == 0 || !stats.hasValuesBeyond(3)) {
       return;
     }
+    double mean = stats.getMean();
+    double stdDev = stats.getStdDev();
     String sigma3CounterKey = "StatsCheck_3_Sigma";
     StatValidationEntry.Builder sigma3Counter = StatValidationEntry.newBuilder();
     sigma3Counter.setCounterKey(sigma3CounterKey);
@@ -302,7 +605,7 @@ public class StatChecker {
     // ie. if the data point is beyond 3 std deviation, only add it to that counter.
     for (DataPoint dp : timeSeries) {
       double val = dp.getValues(0).getValue();
-      if (Math.abs(val - meanAndStdDev.mean) > 3 * meanAndStdDev.stdDev) {
+      if (Math.abs(val - mean) > 3 * stdDev) {
         sigma3Counter.addProblemPoints(dp);
         logCtx.incrementWarningCounterBy(sigma3CounterKey, 1);
       }
@@ -312,30 +615,12 @@ public class StatChecker {
     }
   }
 
-  private static class MeanAndStdDev {
-    double mean = 0;
-    double stdDev = 0;
-  }
-
-  private static MeanAndStdDev getStats(List<DataPoint> timeSeries) {
-    MeanAndStdDev result = new MeanAndStdDev();
-    if (timeSeries.size() < 2) return result;
-    double weights = 0;
-    double sum = 0;
-    double sumSqDev = 0;
+  private static RunningStats getStats(List<DataPoint> timeSeries) {
+    RunningStats stats = new RunningStats();
     for (DataPoint dp : timeSeries) {
-      double val = dp.getValues(0).getValue();
-      if (weights > 0) {
-        sumSqDev += 1 * weights / 1 / (weights + 1) * Math.pow((1 / weights * sum - val), 2);
-      }
-      weights++;
-      sum += val;
-    }
-    if (weights > 0) {
-      result.stdDev = Math.sqrt(sumSqDev * (1.0 / weights));
-      result.mean = sum * (1.0 / weights);
+      stats.add(dp.getValues(0).getValue());
     }
-    return result;
+    return stats;
   }
 
   // Goes through sorted (but possibly discontinuous) time series, saving the largest fluctuation
@@ -352,13 +637,7 @@ public class StatChecker {
       if (dp.getValuesCount() == 0) continue;
       double currVal = dp.getValues(0).getValue();
       if (baseDataPoint != null) {
-        double currDelta;
-        double baseVal = baseDataPoint.getValues(0).getValue();
-        if (baseVal == 0) {
-          currDelta = (currVal) / SMALL_NUMBER;
-        } else {
-          currDelta = (currVal - baseVal) / Math.abs(baseVal);
-        }
+        double currDelta = getDelta(baseDataPoint.getValues(0).getValue(), currVal);
         if (Math.abs(maxDelta) < Math.abs(currDelta)) {
           maxDelta = currDelta;
           maxDeltaDP = dp;
@@ -367,10 +646,30 @@ public class StatChecker {
       }
       baseDataPoint = dp;
     }
+    addPercentFluctuationCounter(maxDelta, maxDeltaBaseDP, maxDeltaDP, resBuilder, logCtx);
+  }
+
+  // Returns the relative change from "baseVal" to "currVal", as used by checkPercentFluctuations().
+  static double getDelta(double baseVal, double currVal) {
+    if (baseVal == 0) {
+      return (currVal) / SMALL_NUMBER;
+    } else {
+      return (currVal - baseVal) / Math.abs(baseVal);
+    }
+  }
+
+  // Adds a counter for the largest fluctuation of a series, "maxDelta" from the data point
+  // "maxDeltaBaseDP" to "maxDeltaDP", if it is large enough.
+  private static void addPercentFluctuationCounter(
+      double maxDelta,
+      DataPoint maxDeltaBaseDP,
+      DataPoint maxDeltaDP,
+      StatValidationResult.Builder resBuilder,
+      LogWrapper logCtx) {
     String counterKey = "";
     if (Math.abs(maxDelta) > 5) {
       counterKey = "StatsCheck_MaxPercentFluctuationGreaterThan500";
-    } else if (Math.abs(maxDelta) > 1) {
+    } else if (Math.abs(maxDelta) > MIN_PERCENT_FLUCTUATION) {
       counterKey = "StatsCheck_MaxPercentFluctuationGreaterThan100";
     }
     if (counterKey.isEmpty()) return;
@@ -391,46 +690,70 @@ public class StatChecker {
   // "series_invalid_date".
   protected static void checkDates(
       List<DataPoint> timeSeries, StatValidationResult.Builder resBuilder, LogWrapper logCtx) {
+    List<String> dates = new ArrayList<>(timeSeries.size());
+    for (DataPoint dp : timeSeries) {
+      dates.add(dp.getDate());
+    }
+    checkDates(dates, () -> timeSeries, resBuilder, logCtx);
+  }
+
+  // Like above, with the date of each data point of a series. The data points are only built, by
+  // "dataPoints", if some of them are problem points.
+  static void checkDates(
+      List<String> dates,
+      Supplier<List<DataPoint>> dataPoints,
+      StatValidationResult.Builder resBuilder,
+      LogWrapper logCtx) {
     Set<LocalDateTime> dateTimes = new TreeSet<>();
-    StatValidationEntry.Builder invalidDateCounter = StatValidationEntry.newBuilder();
     String invalidDateCounterKey = "StatsCheck_Invalid_Date";
-    invalidDateCounter.setCounterKey(invalidDateCounterKey);
-    // To keep track of the different lengths of the date strings.
-    Map<Integer, List<DataPoint>> dateLen = new HashMap<>();
+    // Indexes of the invalid dates, if any.
+    List<Integer> invalidDates = null;
+    // To keep track of the number of dates of each length.
+    Map<Integer, Integer> dateLen = new HashMap<>();
 
     // In the first pass, get sorted dates in LocalDateTime form and check for invalid dates and
     // inconsistent date granularities.
-    for (DataPoint dp : timeSeries) {
-      String date = dp.getDate();
+    for (int i = 0; i < dates.size(); i++) {
+      String date = dates.get(i);
       LocalDateTime dateTime = StringUtil.getValidISO8601Date(date);
       if (dateTime == null) {
-        invalidDateCounter.addProblemPoints(dp);
+        if (invalidDates == null) invalidDates = new ArrayList<>();
+        invalidDates.add(i);
         logCtx.incrementWarningCounterBy(invalidDateCounterKey, 1);
         continue;
       }
-      if (!dateLen.containsKey(date.length())) {
-        dateLen.put(date.length(), new ArrayList<>());
-      }
-      dateLen.get(date.length()).add(dp);
+      dateLen.merge(date.length(), 1, Integer::sum);
       dateTimes.add(dateTime);
     }
     List<Integer> dateLenList = new ArrayList<>(dateLen.keySet());
     if (dateLenList.size() > 1) {
+      List<DataPoint> points = dataPoints.get();
       StatValidationEntry.Builder inconsistentDateCounter = StatValidationEntry.newBuilder();
       String inconsistentDateCounterKey = "StatsCheck_Inconsistent_Date_Granularity";
       inconsistentDateCounter.setCounterKey(inconsistentDateCounterKey);
       // When there are multiple date granularity, the problem points will be those that are of a
       // different date granularity than the most common one.
-      dateLenList.sort((d1, d2) -> dateLen.get(d2).size() - dateLen.get(d1).size());
+      dateLenList.sort((d1, d2) -> dateLen.get(d2) - dateLen.get(d1));
       for (int i = 1; i < dateLenList.size(); i++) {
-        dateLen.get(dateLenList.get(i)).forEach(inconsistentDateCounter::addProblemPoints);
+        for (int j = 0; j < dates.size(); j++) {
+          if (dates.get(j).length() == dateLenList.get(i)
+              && (invalidDates == null || !invalidDates.contains(j))) {
+            inconsistentDateCounter.addProblemPoints(points.get(j));
+          }
+        }
       }
       // Increment counter for each series where there is an inconsistent date problem.
       logCtx.incrementWarningCounterBy(inconsistentDateCounterKey, 1);
       resBuilder.addValidationCounters(inconsistentDateCounter.build());
       return;
     }
-    if (!invalidDateCounter.getProblemPointsList().isEmpty()) {
+    if (invalidDates != null) {
+      List<DataPoint> points = dataPoints.get();
+      StatValidationEntry.Builder invalidDateCounter = StatValidationEntry.newBuilder();
+      invalidDateCounter.setCounterKey(invalidDateCounterKey);
+      for (int i : invalidDates) {
+        invalidDateCounter.addProblemPoints(points.get(i));
+      }
       resBuilder.addValidationCounters(invalidDateCounter.build());
       return;
     }
@@ -449,12 +772,8 @@ public class StatChecker {
           StatValidationEntry.Builder dataHoleCounter = StatValidationEntry.newBuilder();
           String dataHoleCounterKey = "StatsCheck_Data_Holes";
           dataHoleCounter.setCounterKey(dataHoleCounterKey);
-          List<String> dateList = new ArrayList<>();
-          for (DataPoint dp : timeSeries) {
-            dateList.add(dp.getDate());
-          }
           dataHoleCounter.setAdditionalDetails(
-              "Possible data hole found. Dates in this series: " + String.join(", ", dateList));
+              "Possible data hole found. Dates in this series: " + String.join(", ", dates));
           logCtx.incrementWarningCounterBy(dataHoleCounterKey, 1);
           resBuilder.addValidationCounters(dataHoleCounter.build());
           return;
@@ -477,14 +796,16 @@ public class StatChecker {
         hasher.putString(val, StandardCharsets.UTF_8).putInt(val.length());
       }
     }
-    Long fp = hasher.hash().asLong();
-    Float val = null;
+    long fp = hasher.hash().asLong();
+    float val = Float.NaN;
     try {
       val = Float.parseFloat(McfUtil.getPropVal(node, Vocabulary.VALUE));
     } catch (NumberFormatException e) {
-      // If value is not a float, val will stay as null and this will be handled later.
+      // If value is not a float, it is tracked as NaN, which is only consistent with itself.
     }
-    if (this.svObValues.containsKey(fp) && !this.svObValues.get(fp).equals(val)) {
+    float firstVal = firstSvObValue(fp, val);
+    // Compare like Float.equals() does, so that NaN equals NaN.
+    if (Float.floatToIntBits(firstVal) != Float.floatToIntBits(val)) {
       logCtx.addEntry(
           Level.LEVEL_ERROR,
           "Sanity_InconsistentSvObsValues",
@@ -495,14 +816,21 @@ public class StatChecker {
               + "', observationDate: '"
               + McfUtil.getPropVal(node, Vocabulary.OBSERVATION_DATE)
               + "', value1: "
-              + this.svObValues.get(fp)
+              + firstVal
               + ", value2: "
               + val,
           node.getLocationsList());
       return false;
-    } else {
-      this.svObValues.put(fp, val);
-      return true;
+    }
+    return true;
+  }
+
+  // Returns the first value seen of the StatVarObservation with the hash "fp", which is "val" if
+  // it has not been seen before. The values are kept as their raw float bits.
+  private float firstSvObValue(long fp, float val) {
+    LongLongHashMap stripe = svObValues[(int) (fp >>> (Long.SIZE - SV_OB_VALUE_STRIPE_BITS))];
+    synchronized (stripe) {
+      return Float.intBitsToFloat((int) stripe.putIfAbsent(fp, Float.floatToRawIntBits(val)));
     }
   }
 
@@ -517,20 +845,23 @@ public class StatChecker {
   }
 
   public void setNameForSamplePlace(String place_dcid, String name) {
+    mergeAccumulators();
     if (placeSeriesSummaryMap.containsKey(place_dcid)) {
       placeSeriesSummaryMap.get(place_dcid).setPlaceName(name);
     }
   }
 
-  private synchronized void extractStatVarInfoFromNode(McfGraph.PropertyValues node) {
+  private void extractStatVarInfoFromNode(
+      McfGraph.PropertyValues node, Map<String, StatVarSummary> svSummaryMap) {
     // TODO (chejennifer): extract prop value into a struct and pass around instead of looking it up
     // in multiple places
     String svDcid = McfUtil.getPropVal(node, Vocabulary.VARIABLE_MEASURED);
     if (svDcid.isEmpty()) return;
-    StatVarSummary svMap = svSummaryMap.computeIfAbsent(svDcid, k -> new StatVarSummary());
+    StatVarSummary svMap =
+        svSummaryMap.computeIfAbsent(svDcid, k -> new StatVarSummary(summarySketchLimit));
     svMap.numObservations++;
-    svMap.dates.add(McfUtil.getPropVal(node, Vocabulary.OBSERVATION_DATE));
-    svMap.places.add(McfUtil.getPropVal(node, Vocabulary.OBSERVATION_ABOUT));
+    svMap.addDate(McfUtil.getPropVal(node, Vocabulary.OBSERVATION_DATE));
+    svMap.addPlace(McfUtil.getPropVal(node, Vocabulary.OBSERVATION_ABOUT));
     svMap.mMethods.add(McfUtil.getPropVal(node, Vocabulary.MEASUREMENT_METHOD));
     svMap.units.add(McfUtil.getPropVal(node, Vocabulary.UNIT));
     svMap.scalingFactors.add(McfUtil.getPropVal(node, Vocabulary.SCALING_FACTOR));
@@ -0,0 +1,122 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// A summary of a set of strings in bounded memory, for sets too large to keep (e.g., the places
+// of a stat var, see StatVarSummary). It keeps:
+// - a HyperLogLog sketch of the strings, which estimates how many distinct strings were added to
+//   within about 2%,
+// - a sample of up to "sampleSize" of the distinct strings, to display. These are the strings
+//   with the smallest hashes, so the sample is uniform and does not depend on the order the
+//   strings are added in, nor on how often each is added.
+// - the smallest and the largest string.
+//
+// Adding the same strings to two sketches and merging them gives the same sketch as adding all the
+// strings to one.
+//
+// This class is not thread-safe.
+public final class StringSetSketch {
+  // The sketch has 2^PRECISION registers.
+  private static final int PRECISION = 12;
+  private static final int NUM_REGISTERS = 1 << PRECISION;
+  // Bias correction constant of HyperLogLog for NUM_REGISTERS >= 128.
+  private static final double ALPHA = 0.7213 / (1 + 1.079 / NUM_REGISTERS);
+  private static final HashFunction HASH = Hashing.farmHashFingerprint64();
+
+  private final int sampleSize;
+  // The maximum rank (position of the first 1 bit) of the hashes that fall into each register.
+  private final byte[] registers = new byte[NUM_REGISTERS];
+  // The strings with the sampleSize smallest hashes, keyed by hash.
+  private final TreeMap<Long, String> sample = new TreeMap<>();
+  private String min = null;
+  private String max = null;
+
+  public StringSetSketch(int sampleSize) {
+    this.sampleSize = sampleSize;
+  }
+
+  public void add(String value) {
+    long hash = HASH.hashString(value, StandardCharsets.UTF_8).asLong();
+    int register = (int) (hash >>> (Long.SIZE - PRECISION));
+    // The bits after the register index, with a 1 bit appended so that the rank is bounded.
+    long rest = (hash << PRECISION) | (1L << (PRECISION - 1));
+    byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+    if (rank > registers[register]) registers[register] = rank;
+    addToSample(hash, value);
+    if (min == null || value.compareTo(min) < 0) min = value;
+    if (max == null || value.compareTo(max) > 0) max = value;
+  }
+
+  public void addAll(StringSetSketch other) {
+    for (int i = 0; i < NUM_REGISTERS; i++) {
+      if (other.registers[i] > registers[i]) registers[i] = other.registers[i];
+    }
+    for (Map.Entry<Long, String> entry : other.sample.entrySet()) {
+      addToSample(entry.getKey(), entry.getValue());
+    }
+    if (other.min != null && (min == null || other.min.compareTo(min) < 0)) min = other.min;
+    if (other.max != null && (max == null || other.max.compareTo(max) > 0)) max = other.max;
+  }
+
+  // Returns the estimated number of distinct strings added.
+  public long estimateSize() {
+    // All the distinct strings are in the sample while it is not full.
+    if (sample.size() < sampleSize) return sample.size();
+    double sum = 0;
+    int zeros = 0;
+    for (byte rank : registers) {
+      sum += 1.0 / (1L << rank);
+      if (rank == 0) zeros++;
+    }
+    double estimate = ALPHA * NUM_REGISTERS * NUM_REGISTERS / sum;
+    if (estimate <= 2.5 * NUM_REGISTERS && zeros > 0) {
+      // Small range correction (linear counting).
+      estimate = NUM_REGISTERS * Math.log((double) NUM_REGISTERS / zeros);
+    }
+    return Math.max(Math.round(estimate), sample.size());
+  }
+
+  // Returns the sample of the distinct strings, sorted.
+  public SortedSet<String> getSample() {
+    return new TreeSet<>(sample.values());
+  }
+
+  // Returns the smallest string added, or null if there is none.
+  public String getMin() {
+    return min;
+  }
+
+  // Returns the largest string added, or null if there is none.
+  public String getMax() {
+    return max;
+  }
+
+  private void addToSample(long hash, String value) {
+    if (sample.size() < sampleSize) {
+      sample.putIfAbsent(hash, value);
+    } else if (sampleSize > 0 && hash < sample.lastKey() && !sample.containsKey(hash)) {
+      sample.pollLastEntry();
+      sample.put(hash, value);
+    }
+  }
+}
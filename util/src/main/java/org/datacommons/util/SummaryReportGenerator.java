@@ -38,6 +38,8 @@ public class SummaryReportGenerator {
   public static final class StatVarSummary {
     private static final int CHART_WIDTH = 500;
     private static final int CHART_HEIGHT = 250;
+    // Number of values kept as a sample by the sketches of places and dates.
+    private static final int SKETCH_SAMPLE_SIZE = 100;
 
     int numObservations = 0;
     Set<String> places = new HashSet<>();
@@ -54,14 +56,42 @@ public class SummaryReportGenerator {
     List<String> seriesDates = new ArrayList<>();
     List<Double> seriesValues = new ArrayList<>();
 
+    // When > 0, places and dates are kept exactly up to this many values each, and then in a
+    // sketch (see StringSetSketch) that estimates their number, so that stat vars with very many
+    // places or dates take bounded memory. Only for summaries of observations, see addPlace().
+    final int sketchLimit;
+    // When not null, "places" has been replaced by this sketch, and is empty.
+    StringSetSketch placesSketch = null;
+    // When not null, "dates" has been replaced by this sketch, and is empty.
+    StringSetSketch datesSketch = null;
+
+    public StatVarSummary() {
+      this(0);
+    }
+
+    public StatVarSummary(int sketchLimit) {
+      this.sketchLimit = sketchLimit;
+    }
+
     public int getNumObservations() {
       return this.numObservations;
     }
 
+    // Returns the places, or a sample of them if they are sketched.
     public Set<String> getPlaces() {
+      if (placesSketch != null) return placesSketch.getSample();
       return new TreeSet<>(this.places);
     }
 
+    // Returns the number of places, which is estimated if they are sketched.
+    public long getNumPlaces() {
+      return placesSketch != null ? placesSketch.estimateSize() : places.size();
+    }
+
+    public boolean isPlacesSketched() {
+      return placesSketch != null;
+    }
+
     public Set<String> getMMethods() {
       return new TreeSet<>(this.mMethods);
     }
@@ -78,10 +108,33 @@ public class SummaryReportGenerator {
       return new TreeSet<>(this.observationPeriods);
     }
 
+    // Returns the dates, or a sample of them if they are sketched.
     public Set<String> getUniqueDates() {
+      if (datesSketch != null) return datesSketch.getSample();
       return new TreeSet<>(this.dates);
     }
 
+    // Returns the number of dates, which is estimated if they are sketched.
+    public long getNumUniqueDates() {
+      return datesSketch != null ? datesSketch.estimateSize() : dates.size();
+    }
+
+    public boolean isDatesSketched() {
+      return datesSketch != null;
+    }
+
+    // Returns the earliest date, or "" if there is none.
+    public String getMinDate() {
+      if (datesSketch != null) return datesSketch.getMin();
+      return dates.isEmpty() ? "" : Collections.min(dates);
+    }
+
+    // Returns the latest date, or "" if there is none.
+    public String getMaxDate() {
+      if (datesSketch != null) return datesSketch.getMax();
+      return dates.isEmpty() ? "" : Collections.max(dates);
+    }
+
     public List<String> getSeriesDates() {
       return this.seriesDates;
     }
@@ -90,6 +143,59 @@ public class SummaryReportGenerator {
       return this.seriesValues;
     }
 
+    // Adds the observations summarized by "other" (e.g., from another thread, see StatChecker).
+    // Only for summaries of observations, not of series.
+    void merge(StatVarSummary other) {
+      numObservations += other.numObservations;
+      if (placesSketch == null && other.placesSketch == null) {
+        other.places.forEach(this::addPlace);
+      } else {
+        placesSketch = addToSketch(addToSketch(placesSketch, places), other.places);
+        if (other.placesSketch != null) placesSketch.addAll(other.placesSketch);
+        places = new HashSet<>();
+      }
+      mMethods.addAll(other.mMethods);
+      units.addAll(other.units);
+      scalingFactors.addAll(other.scalingFactors);
+      observationPeriods.addAll(other.observationPeriods);
+      if (datesSketch == null && other.datesSketch == null) {
+        other.dates.forEach(this::addDate);
+      } else {
+        datesSketch = addToSketch(addToSketch(datesSketch, dates), other.dates);
+        if (other.datesSketch != null) datesSketch.addAll(other.datesSketch);
+        dates = new HashSet<>();
+      }
+    }
+
+    // Adds the place of an observation, switching to a sketch once there are more than
+    // sketchLimit places.
+    void addPlace(String place) {
+      if (placesSketch != null) {
+        placesSketch.add(place);
+      } else if (places.add(place) && sketchLimit > 0 && places.size() > sketchLimit) {
+        placesSketch = addToSketch(null, places);
+        places = new HashSet<>();
+      }
+    }
+
+    // Adds the date of an observation, switching to a sketch once there are more than sketchLimit
+    // dates.
+    void addDate(String date) {
+      if (datesSketch != null) {
+        datesSketch.add(date);
+      } else if (dates.add(date) && sketchLimit > 0 && dates.size() > sketchLimit) {
+        datesSketch = addToSketch(null, dates);
+        dates = new HashSet<>();
+      }
+    }
+
+    // Returns "sketch", or a new one if it is null, after adding "values" to it.
+    private static StringSetSketch addToSketch(StringSetSketch sketch, Set<String> values) {
+      if (sketch == null) sketch = new StringSetSketch(SKETCH_SAMPLE_SIZE);
+      values.forEach(sketch::add);
+      return sketch;
+    }
+
     public static String constructSVGChartFromTimeSeries(TimeSeries timeSeries) {
       TimeSeriesCollection dataset = new TimeSeriesCollection();
       if (timeSeries.isEmpty()) return "";
@@ -14,10 +14,17 @@
 
 package org.datacommons.util;
 
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -25,6 +32,7 @@ import java.util.concurrent.ThreadLocalRandom;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.datacommons.proto.Debug;
 import org.datacommons.proto.Mcf;
 
@@ -40,32 +48,52 @@ public class TmcfCsvParser {
   private Mcf.McfGraph tmcf;
   private char delimiter;
   private String csvFileName;
+  // Exactly one of csvParser and mappedReader is set, depending on the mmapCsv argument of init().
   private CSVParser csvParser;
+  private MappedCsvReader mappedReader;
   private LogWrapper logCtx;
-  private HashMap<String, Integer> cleanedColumnMap;
+  // The template compiled against the CSV header, see compileTemplate().
+  private EntityPlan[] templatePlan;
+  private StringUtil.SplitAndStripArg splitArg;
+  // Header names in column order, used to parse byte ranges that do not include the header.
+  private String[] headerNames;
+  // Number of lines preceding the input of csvParser, when parsing a byte range of the CSV.
+  private long lineOffset = 0;
 
   // Build a parser given a TMCF file, CSV file, CSV delimiter and a log context.
   public static TmcfCsvParser init(
       String tmcfFile, String csvFile, char delimiter, LogWrapper logCtx)
       throws IOException, InterruptedException {
+    return init(tmcfFile, csvFile, delimiter, logCtx, false);
+  }
+
+  // Like above, but if "mmapCsv" is set, reads the CSV with a MappedCsvReader instead of
+  // commons-csv, unless the delimiter is not supported by MappedCsvReader or the CSV is compressed.
+  public static TmcfCsvParser init(
+      String tmcfFile, String csvFile, char delimiter, LogWrapper logCtx, boolean mmapCsv)
+      throws IOException, InterruptedException {
     TmcfCsvParser tmcfCsvParser = new TmcfCsvParser();
     tmcfCsvParser.tmcf = McfParser.parseTemplateMcfFile(tmcfFile, logCtx);
     tmcfCsvParser.logCtx = logCtx;
-    tmcfCsvParser.csvParser =
-        CSVParser.parse(
-            new FileReader(csvFile),
-            CSVFormat.DEFAULT
-                .withDelimiter(delimiter)
-                .withEscape('\\')
-                .withHeader()
-                .withSkipHeaderRecord()
-                .withIgnoreEmptyLines()
-                .withIgnoreSurroundingSpaces());
+    Map<String, Integer> headerMap;
+    boolean compressed = CompressedFiles.isCompressed(csvFile);
+    if (mmapCsv && MappedCsvReader.supports(delimiter) && !compressed) {
+      tmcfCsvParser.mappedReader = MappedCsvReader.open(Path.of(csvFile), 0, -1, delimiter);
+      headerMap = readHeaderMap(tmcfCsvParser.mappedReader);
+    } else {
+      tmcfCsvParser.csvParser =
+          CSVParser.parse(
+              compressed
+                  ? CompressedFiles.newReader(Path.of(csvFile))
+                  : new InputStreamReader(new FileInputStream(csvFile), StandardCharsets.UTF_8),
+              csvFormat(delimiter).withHeader().withSkipHeaderRecord());
+      headerMap = tmcfCsvParser.csvParser.getHeaderMap();
+    }
     tmcfCsvParser.delimiter = delimiter;
 
     tmcfCsvParser.csvFileName = Path.of(csvFile).getFileName().toString();
     // Clean and keep a copy of the header map.
-    if (tmcfCsvParser.csvParser.getHeaderMap() == null) {
+    if (headerMap == null) {
       tmcfCsvParser.logCtx.addEntry(
           Debug.Log.Level.LEVEL_FATAL,
           "CSV_HeaderFailure",
@@ -76,8 +104,7 @@ public class TmcfCsvParser {
     }
     // Check TMCF.
     boolean success =
-        McfChecker.checkTemplate(
-            tmcfCsvParser.tmcf, tmcfCsvParser.csvParser.getHeaderMap().keySet(), null, logCtx);
+        McfChecker.checkTemplate(tmcfCsvParser.tmcf, headerMap.keySet(), null, logCtx);
     if (!success) {
       var fileName = Path.of(tmcfFile).getFileName().toString();
       tmcfCsvParser.logCtx.addEntry(
@@ -90,44 +117,331 @@ public class TmcfCsvParser {
       return null;
     }
 
-    tmcfCsvParser.cleanedColumnMap = new HashMap<>();
-    for (Map.Entry<String, Integer> e : tmcfCsvParser.csvParser.getHeaderMap().entrySet()) {
-      tmcfCsvParser.cleanedColumnMap.put(e.getKey().strip(), e.getValue());
+    Map<String, Integer> cleanedColumnMap = new HashMap<>();
+    tmcfCsvParser.headerNames = new String[headerMap.size()];
+    for (Map.Entry<String, Integer> e : headerMap.entrySet()) {
+      cleanedColumnMap.put(e.getKey().strip(), e.getValue());
+      tmcfCsvParser.headerNames[e.getValue()] = e.getKey();
     }
+    tmcfCsvParser.compileTemplate(cleanedColumnMap);
     return tmcfCsvParser;
   }
 
+  // Build a parser for a byte range of the CSV file (as returned by CsvSplitter) that shares the
+  // already parsed and checked template and header of this parser. This parser must have been built
+  // with init() on the same CSV file, which must not be compressed.
+  public TmcfCsvParser forRange(String csvFile, CsvSplitter.Range range) throws IOException {
+    TmcfCsvParser rangeParser = new TmcfCsvParser();
+    rangeParser.tmcf = tmcf;
+    rangeParser.logCtx = logCtx;
+    rangeParser.delimiter = delimiter;
+    rangeParser.csvFileName = csvFileName;
+    rangeParser.templatePlan = templatePlan;
+    rangeParser.splitArg = splitArg;
+    rangeParser.headerNames = headerNames;
+    rangeParser.lineOffset = range.lineOffset;
+    if (mappedReader != null) {
+      rangeParser.mappedReader =
+          MappedCsvReader.open(Path.of(csvFile), range.start, range.end, delimiter);
+      return rangeParser;
+    }
+    FileChannel channel = FileChannel.open(Path.of(csvFile));
+    channel.position(range.start);
+    rangeParser.csvParser =
+        CSVParser.parse(
+            new InputStreamReader(
+                new BoundedInputStream(Channels.newInputStream(channel), range.end - range.start),
+                StandardCharsets.UTF_8),
+            csvFormat(delimiter).withHeader(headerNames));
+    return rangeParser;
+  }
+
+  public void close() throws IOException {
+    if (mappedReader != null) {
+      mappedReader.close();
+    } else {
+      csvParser.close();
+    }
+  }
+
+  // Reads the header record with "reader" and returns a map from column name to index, like
+  // CSVParser.getHeaderMap().
+  private static Map<String, Integer> readHeaderMap(MappedCsvReader reader) throws IOException {
+    Map<String, Integer> headerMap = new LinkedHashMap<>();
+    MappedCsvReader.Record header = reader.next();
+    if (header == null) return headerMap;
+    String[] names = header.values();
+    for (int i = 0; i < names.length; i++) {
+      if (headerMap.containsKey(names[i])) {
+        throw new IllegalArgumentException(
+            "The header contains a duplicate name: \""
+                + names[i]
+                + "\" in "
+                + Arrays.toString(names));
+      }
+      headerMap.put(names[i], i);
+    }
+    return headerMap;
+  }
+
+  private static CSVFormat csvFormat(char delimiter) {
+    return CSVFormat.DEFAULT
+        .withDelimiter(delimiter)
+        .withEscape('\\')
+        .withIgnoreEmptyLines()
+        .withIgnoreSurroundingSpaces();
+  }
+
   // Parse the next row from the CSV. Returns null on EOF.
   public Mcf.McfGraph parseNextRow() throws IOException, InterruptedException {
+    Row row = readNextRow();
+    if (row == null) {
+      return null;
+    }
+    return processRow(row);
+  }
+
+  // A CSV row read by readNextRow(), along with its line number in the CSV file. The row is
+  // either a CSVRecord or a MappedCsvReader.Record.
+  public static final class Row {
+    private final CSVRecord record;
+    private final MappedCsvReader.Record mappedRecord;
+    // Whether the row has as many columns as the header.
+    private final boolean consistent;
+    private final long lineNumber;
+
+    private Row(
+        CSVRecord record,
+        MappedCsvReader.Record mappedRecord,
+        boolean consistent,
+        long lineNumber) {
+      this.record = record;
+      this.mappedRecord = mappedRecord;
+      this.consistent = consistent;
+      this.lineNumber = lineNumber;
+    }
+
+    public long getLineNumber() {
+      return lineNumber;
+    }
+
+    private int size() {
+      return record != null ? record.size() : mappedRecord.size();
+    }
+
+    private String get(int i) {
+      return record != null ? record.get(i) : mappedRecord.get(i);
+    }
+
+    @Override
+    public String toString() {
+      return record != null ? record.toString() : mappedRecord.toString();
+    }
+  }
+
+  // Reads the next row of the CSV file without applying the template. Returns null at the end of
+  // the file. Like parseNextRow(), this must be called from one thread at a time.
+  public Row readNextRow() throws IOException {
+    if (mappedReader != null) {
+      MappedCsvReader.Record record = mappedReader.next();
+      if (record == null) {
+        return null;
+      }
+      return new Row(
+          null,
+          record,
+          record.size() == headerNames.length,
+          mappedReader.getLineNumber() + lineOffset);
+    }
     if (!csvParser.iterator().hasNext()) {
       return null;
     }
-    RowProcessor processor = new RowProcessor();
-    processor.process(csvParser.iterator().next());
+    CSVRecord record = csvParser.iterator().next();
+    return new Row(record, null, record.isConsistent(), currentLineNumber());
+  }
+
+  // Applies the template to a row returned by readNextRow(). Unlike parseNextRow() and
+  // readNextRow(), this is thread-safe, so rows can be processed concurrently.
+  public Mcf.McfGraph processRow(Row row) throws IOException, InterruptedException {
+    RowProcessor processor = new RowProcessor(row.lineNumber);
+    processor.process(row);
     return processor.instanceMcf();
   }
 
+  // A template entity, e.g. "E:Table->E1", compiled by compileTemplate().
+  private static final class EntityPlan {
+    final String entity;
+    // The node name of the entity without the row ID (see toNodeName()), or null if the entity
+    // term is malformed.
+    final String nodeNamePrefix;
+    // The dcid property of the entity, or null if it has none.
+    final PropPlan dcid;
+    // All the properties, except functionalDeps.
+    final PropPlan[] props;
+
+    EntityPlan(String entity, String nodeNamePrefix, PropPlan dcid, PropPlan[] props) {
+      this.entity = entity;
+      this.nodeNamePrefix = nodeNamePrefix;
+      this.dcid = dcid;
+      this.props = props;
+    }
+  }
+
+  private static final class PropPlan {
+    final String prop;
+    final ValuePlan[] values;
+    // The values, if all of them are constants, in which case they are the same for every row.
+    final Mcf.McfGraph.Values constantValues;
+
+    PropPlan(String prop, ValuePlan[] values, Mcf.McfGraph.Values constantValues) {
+      this.prop = prop;
+      this.values = values;
+      this.constantValues = constantValues;
+    }
+  }
+
+  private static final class ValuePlan {
+    enum Kind {
+      // Passed through as is.
+      CONSTANT,
+      // Replaced with the values of a column.
+      COLUMN,
+      // Replaced with a reference to a node of the row.
+      ENTITY_REF,
+      // An invalid template value, which is logged for every row (see logInvalidValue()).
+      INVALID,
+    }
+
+    final Kind kind;
+    final Mcf.McfGraph.TypedValue templateValue;
+    // For COLUMN, the (cleaned) column name and its index in the CSV.
+    final String column;
+    final int columnIndex;
+    // For ENTITY_REF, the node name prefix of the referred entity, or null if it is malformed.
+    final String refNodeNamePrefix;
+
+    ValuePlan(
+        Kind kind,
+        Mcf.McfGraph.TypedValue templateValue,
+        String column,
+        int columnIndex,
+        String refNodeNamePrefix) {
+      this.kind = kind;
+      this.templateValue = templateValue;
+      this.column = column;
+      this.columnIndex = columnIndex;
+      this.refNodeNamePrefix = refNodeNamePrefix;
+    }
+  }
+
+  // Compiles the template into a plan for applying it to rows, so that schema terms are parsed and
+  // columns are looked up once, instead of for every row. Problems with the template are not logged
+  // here; they are logged for every row as before, when the plan is applied.
+  private void compileTemplate(Map<String, Integer> cleanedColumnMap) {
+    // For parsing schema terms, whose errors are dropped. This is per call, as LogCb is mutable.
+    LogCb noLog =
+        new LogCb(new LogWrapper(Debug.Log.newBuilder()), Debug.Log.Level.LEVEL_ERROR, "", 0);
+    List<EntityPlan> entities = new ArrayList<>();
+    for (Map.Entry<String, Mcf.McfGraph.PropertyValues> tableEntity :
+        tmcf.getNodesMap().entrySet()) {
+      String entity = tableEntity.getKey();
+      PropPlan dcid = null;
+      List<PropPlan> props = new ArrayList<>();
+      for (Map.Entry<String, Mcf.McfGraph.Values> pv :
+          tableEntity.getValue().getPvsMap().entrySet()) {
+        String prop = pv.getKey();
+        if (prop.equals(Vocabulary.FUNCTIONAL_DEPS)) continue;
+        PropPlan propPlan = compileValues(prop, pv.getValue(), cleanedColumnMap, noLog);
+        if (prop.equals(Vocabulary.DCID)) dcid = propPlan;
+        props.add(propPlan);
+      }
+      entities.add(
+          new EntityPlan(
+              entity, compileNodeNamePrefix(entity, noLog), dcid, props.toArray(new PropPlan[0])));
+    }
+    templatePlan = entities.toArray(new EntityPlan[0]);
+
+    splitArg = new StringUtil.SplitAndStripArg();
+    splitArg.delimiter = delimiter;
+    splitArg.includeEmpty = false;
+    splitArg.stripEnclosingQuotes = false;
+    splitArg.stripEscapesBeforeQuotes = true;
+  }
+
+  private static PropPlan compileValues(
+      String prop,
+      Mcf.McfGraph.Values templateValues,
+      Map<String, Integer> cleanedColumnMap,
+      LogCb noLog) {
+    ValuePlan[] values = new ValuePlan[templateValues.getTypedValuesCount()];
+    boolean allConstant = true;
+    for (int i = 0; i < values.length; i++) {
+      Mcf.McfGraph.TypedValue typedValue = templateValues.getTypedValues(i);
+      ValuePlan.Kind kind = ValuePlan.Kind.CONSTANT;
+      String column = null;
+      int columnIndex = -1;
+      String refNodeNamePrefix = null;
+      if (typedValue.getType() == Mcf.ValueType.TABLE_ENTITY) {
+        if (prop.equals(Vocabulary.DCID)) {
+          kind = ValuePlan.Kind.INVALID;
+        } else {
+          kind = ValuePlan.Kind.ENTITY_REF;
+          refNodeNamePrefix = compileNodeNamePrefix(typedValue.getValue(), noLog);
+        }
+      } else if (typedValue.getType() == Mcf.ValueType.TABLE_COLUMN) {
+        McfParser.SchemaTerm term = McfParser.parseSchemaTerm(typedValue.getValue(), noLog);
+        if (term != null
+            && term.type == McfParser.SchemaTerm.Type.COLUMN
+            && cleanedColumnMap.containsKey(term.value)) {
+          kind = ValuePlan.Kind.COLUMN;
+          column = term.value;
+          columnIndex = cleanedColumnMap.get(column);
+        } else {
+          kind = ValuePlan.Kind.INVALID;
+        }
+      }
+      allConstant &= kind == ValuePlan.Kind.CONSTANT;
+      values[i] = new ValuePlan(kind, typedValue, column, columnIndex, refNodeNamePrefix);
+    }
+    return new PropPlan(prop, values, allConstant ? templateValues : null);
+  }
+
+  // Returns the node name of an entity without the row ID, or null if the entity term is
+  // malformed.
+  private static String compileNodeNamePrefix(String entityId, LogCb noLog) {
+    McfParser.SchemaTerm term = McfParser.parseSchemaTerm(entityId, noLog);
+    if (term == null || term.type != McfParser.SchemaTerm.Type.ENTITY) return null;
+    return term.table + "/" + term.value + "/";
+  }
+
   class RowProcessor {
     private Mcf.McfGraph.Builder instanceMcf;
     // If there is a dcid prop, then this is a map from the entity name (Table->E1) to the dcid.
     private HashMap<String, Mcf.McfGraph.TypedValue> entityToDcid;
     private String currentNodeId;
-    private String currentProp;
     private String rowId;
+    private final long lineNumber;
+    // Used for parseSchemaTerm(), parseTypedValue() and splitAndStripWithQuoteEscape(). The
+    // details are set before each use.
+    private final LogCb errCb;
+    private final LogCb warnCb;
 
-    public RowProcessor() {
+    public RowProcessor(long lineNumber) {
+      this.lineNumber = lineNumber;
       instanceMcf = Mcf.McfGraph.newBuilder();
       instanceMcf.setType(Mcf.McfType.INSTANCE_MCF);
       entityToDcid = new HashMap<>();
-      rowId = TEST_mode ? String.valueOf(csvParser.getCurrentLineNumber() - 1) : newUUID();
+      rowId = TEST_mode ? String.valueOf(lineNumber - 1) : newUUID();
+      errCb = new LogCb(logCtx, Debug.Log.Level.LEVEL_ERROR, csvFileName, lineNumber);
+      warnCb = new LogCb(logCtx, Debug.Log.Level.LEVEL_WARNING, csvFileName, lineNumber);
     }
 
     public Mcf.McfGraph instanceMcf() {
       return instanceMcf.build();
     }
 
-    public void process(CSVRecord dataRow) throws IOException, InterruptedException {
-      if (!dataRow.isConsistent()) {
+    public void process(Row dataRow) throws IOException, InterruptedException {
+      if (!dataRow.consistent) {
         addLog(
             Debug.Log.Level.LEVEL_ERROR,
             "CSV_InconsistentRows",
@@ -135,34 +449,28 @@ public class TmcfCsvParser {
         return;
       }
 
-      LogCb logCb =
-          new LogCb(
-              logCtx, Debug.Log.Level.LEVEL_ERROR, csvFileName, csvParser.getCurrentLineNumber());
+      LogCb logCb = new LogCb(logCtx, Debug.Log.Level.LEVEL_ERROR, csvFileName, lineNumber);
 
       // Process DCIDs from all the nodes first and add to entityToDcid map, which will be consulted
       // to resolve entity references in processValues() function.
-      for (Map.Entry<String, Mcf.McfGraph.PropertyValues> tableEntity :
-          tmcf.getNodesMap().entrySet()) {
-        Map<String, Mcf.McfGraph.Values> pvs = tableEntity.getValue().getPvsMap();
-        if (!pvs.containsKey(Vocabulary.DCID)) continue;
+      for (EntityPlan entityPlan : templatePlan) {
+        if (entityPlan.dcid == null) continue;
 
         // Register the fact that the user has mapped dcid, in case we continue below.
         // TODO: Maybe this should move to after currentNodeId setting below.
-        entityToDcid.put(tableEntity.getKey(), Mcf.McfGraph.TypedValue.newBuilder().build());
-        logCb.setDetail(LogCb.VALUE_KEY, tableEntity.getKey());
-        currentNodeId = toNodeName(tableEntity.getKey(), logCb);
+        entityToDcid.put(entityPlan.entity, Mcf.McfGraph.TypedValue.newBuilder().build());
+        logCb.setDetail(LogCb.VALUE_KEY, entityPlan.entity);
+        currentNodeId = toNodeName(entityPlan.entity, entityPlan.nodeNamePrefix, logCb);
         if (currentNodeId == null) continue;
 
-        currentProp = Vocabulary.DCID;
-        Mcf.McfGraph.Values dcidValues =
-            parseValues(tableEntity.getKey(), currentProp, pvs.get(currentProp), dataRow);
+        Mcf.McfGraph.Values dcidValues = parseValues(entityPlan.entity, entityPlan.dcid, dataRow);
         if (dcidValues.getTypedValuesList().size() == 0) {
           // In this case parseValues must have logged accurate msg.
           continue;
         }
         Mcf.McfGraph.TypedValue tv = dcidValues.getTypedValues(0);
         if (tv.getType() == Mcf.ValueType.TEXT || tv.getType() == Mcf.ValueType.RESOLVED_REF) {
-          entityToDcid.put(tableEntity.getKey(), tv);
+          entityToDcid.put(entityPlan.entity, tv);
         } else {
           addLog(
               Debug.Log.Level.LEVEL_WARNING,
@@ -170,42 +478,35 @@ public class TmcfCsvParser {
               "Malformed CSV value for dcid property; must be a text or reference :: value: '"
                   + tv.getValue()
                   + "', node: '"
-                  + tableEntity.getKey()
+                  + entityPlan.entity
                   + "'");
-          logCtx.incrementInfoCounterBy("CSV_MalformedDCIDPVFailures", pvs.size());
+          logCtx.incrementInfoCounterBy(
+              "CSV_MalformedDCIDPVFailures", tmcf.getNodesOrThrow(entityPlan.entity).getPvsCount());
         }
       }
 
-      for (Map.Entry<String, Mcf.McfGraph.PropertyValues> tableEntity :
-          tmcf.getNodesMap().entrySet()) {
-        logCb.setDetail(LogCb.VALUE_KEY, tableEntity.getKey());
-        currentNodeId = toNodeName(tableEntity.getKey(), logCb);
+      for (EntityPlan entityPlan : templatePlan) {
+        logCb.setDetail(LogCb.VALUE_KEY, entityPlan.entity);
+        currentNodeId = toNodeName(entityPlan.entity, entityPlan.nodeNamePrefix, logCb);
         if (currentNodeId == null) continue;
         // Case of malformed/empty DCID. SKip this node (counters were updated above).
         if (currentNodeId.equals(Vocabulary.DCID_PREFIX)) continue;
 
         // Go over each property within the template.
         Mcf.McfGraph.PropertyValues.Builder nodeBuilder = Mcf.McfGraph.PropertyValues.newBuilder();
-        for (Map.Entry<String, Mcf.McfGraph.Values> pv :
-            tableEntity.getValue().getPvsMap().entrySet()) {
-          currentProp = pv.getKey();
-
-          // Don't process functionalDeps
-          if (currentProp.equals(Vocabulary.FUNCTIONAL_DEPS)) continue;
-
+        for (PropPlan propPlan : entityPlan.props) {
           // Replace column names with values
-          Mcf.McfGraph.Values values =
-              parseValues(tableEntity.getKey(), currentProp, pv.getValue(), dataRow);
+          Mcf.McfGraph.Values values = parseValues(entityPlan.entity, propPlan, dataRow);
           if (values.getTypedValuesCount() == 0) {
             // In this case parseValues must have logged accurate msg.
             continue;
           }
-          nodeBuilder.putPvs(currentProp, values);
+          nodeBuilder.putPvs(propPlan.prop, values);
         }
-        nodeBuilder.setTemplateNode(tableEntity.getKey());
+        nodeBuilder.setTemplateNode(entityPlan.entity);
         Debug.Log.Location.Builder loc = nodeBuilder.addLocationsBuilder();
         loc.setFile(csvFileName);
-        loc.setLineNumber(csvParser.getCurrentLineNumber());
+        loc.setLineNumber(lineNumber);
 
         Mcf.McfGraph.PropertyValues newNode = nodeBuilder.build();
         boolean success =
@@ -216,155 +517,155 @@ public class TmcfCsvParser {
       }
     }
 
-    private Mcf.McfGraph.Values parseValues(
-        String templateEntity,
-        String currentProp,
-        Mcf.McfGraph.Values templateValues,
-        CSVRecord dataRow) {
+    private Mcf.McfGraph.Values parseValues(String templateEntity, PropPlan propPlan, Row dataRow) {
+      if (propPlan.constantValues != null) {
+        return propPlan.constantValues;
+      }
+      String currentProp = propPlan.prop;
       Mcf.McfGraph.Values.Builder instanceValues = Mcf.McfGraph.Values.newBuilder();
 
-      // Used for parseSchemaTerm() and splitAndStripWithQuoteEscape()
-      LogCb errCb =
-          new LogCb(
-                  logCtx,
-                  Debug.Log.Level.LEVEL_ERROR,
-                  csvFileName,
-                  csvParser.getCurrentLineNumber())
-              .setDetail(LogCb.PROP_KEY, currentProp)
-              .setDetail(LogCb.NODE_KEY, templateEntity);
-      LogCb warnCb =
-          new LogCb(
-                  logCtx,
-                  Debug.Log.Level.LEVEL_WARNING,
-                  csvFileName,
-                  csvParser.getCurrentLineNumber())
-              .setDetail(LogCb.PROP_KEY, currentProp)
-              .setDetail(LogCb.NODE_KEY, templateEntity);
-
-      for (Mcf.McfGraph.TypedValue typedValue : templateValues.getTypedValuesList()) {
-        if (typedValue.getType() == Mcf.ValueType.TABLE_ENTITY) {
-          if (currentProp.equals(Vocabulary.DCID)) {
-            // TODO: Add this check to checkTemplateNode(), and assert here
-            addLog(
-                Debug.Log.Level.LEVEL_ERROR,
-                "TMCF_TmcfEntityAsDcid",
-                "Value of dcid property is an 'E:' entity; must be a 'C:' column or "
-                    + "a constant :: value: '"
-                    + templateEntity
-                    + "'");
-            continue;
-          }
-          errCb.setDetail(LogCb.VALUE_KEY, typedValue.getValue());
-          String referenceNode = toNodeName(typedValue.getValue(), errCb);
-          Mcf.McfGraph.TypedValue.Builder newTypedValue = Mcf.McfGraph.TypedValue.newBuilder();
-          if (referenceNode.startsWith(Vocabulary.DCID_PREFIX)) {
-            Mcf.McfGraph.TypedValue dcidTypedVal =
-                entityToDcid.getOrDefault(
-                    typedValue.getValue(), Mcf.McfGraph.TypedValue.getDefaultInstance());
-            if (dcidTypedVal.getValue().isEmpty()) {
-              addLog(
-                  Debug.Log.Level.LEVEL_WARNING,
-                  "CSV_EmptyDcidReferences",
-                  "In dcid:{entity} reference, found {entity} to be empty :: property: '"
-                      + currentProp
-                      + "', node: '"
-                      + templateEntity
-                      + "'");
-              continue;
-            }
-            newTypedValue.setType(Mcf.ValueType.RESOLVED_REF);
-            newTypedValue.setValue(dcidTypedVal.getValue());
-            if (dcidTypedVal.hasColumn()) {
-              newTypedValue.setColumn(dcidTypedVal.getColumn());
-            }
-          } else {
-            // This is an internal reference, so prefix "l:"
-            newTypedValue.setType(Mcf.ValueType.UNRESOLVED_REF);
-            newTypedValue.setValue(Vocabulary.INTERNAL_REF_PREFIX + referenceNode);
-          }
-          instanceValues.addTypedValues(newTypedValue.build());
-        } else if (typedValue.getType() == Mcf.ValueType.TABLE_COLUMN) {
-          // Replace column-name with cell-value
-          errCb.setDetail(LogCb.VALUE_KEY, typedValue.getValue());
-          McfParser.SchemaTerm term = McfParser.parseSchemaTerm(typedValue.getValue(), errCb);
-          if (term == null) {
-            continue;
-          }
-          if (term.type != McfParser.SchemaTerm.Type.COLUMN) {
-            addLog(
-                Debug.Log.Level.LEVEL_ERROR,
-                "TMCF_UnexpectedNonColumn",
-                "Expected value to be a TMCF column that starts with 'C:' :: value: '"
-                    + typedValue.getValue()
-                    + "', property: '"
-                    + currentProp
-                    + "', node: '"
-                    + templateEntity
-                    + "'");
-            continue;
-          }
-          String column = term.value;
-          if (!cleanedColumnMap.containsKey(column)) {
-            addLog(
-                Debug.Log.Level.LEVEL_ERROR,
-                "CSV_TmcfMissingColumn",
-                "Column referred to in TMCF is missing from CSV header :: column: '"
-                    + column
-                    + "'");
-            continue;
-          }
-          int columnIndex = cleanedColumnMap.get(column);
-          if (columnIndex >= dataRow.size()) {
-            addLog(
-                Debug.Log.Level.LEVEL_WARNING,
-                "CSV_UnexpectedRow",
-                "Found row with fewer columns than expected :: row: '" + dataRow.toString() + "'");
-            continue;
-          }
+      errCb.setDetail(LogCb.PROP_KEY, currentProp).setDetail(LogCb.NODE_KEY, templateEntity);
+      warnCb.setDetail(LogCb.PROP_KEY, currentProp).setDetail(LogCb.NODE_KEY, templateEntity);
 
-          StringUtil.SplitAndStripArg ssArg = new StringUtil.SplitAndStripArg();
-          ssArg.delimiter = delimiter;
-          ssArg.includeEmpty = false;
-          ssArg.stripEnclosingQuotes = false;
-          ssArg.stripEscapesBeforeQuotes = true;
-          String origValue = dataRow.get(columnIndex);
-          warnCb.setDetail(LogCb.VALUE_KEY, origValue);
-          warnCb.setDetail(LogCb.COLUMN_KEY, column);
-          warnCb.setCounterSuffix(currentProp);
-          List<String> values = StringUtil.splitAndStripWithQuoteEscape(origValue, ssArg, warnCb);
-          for (String value : values) {
-            errCb.setDetail(LogCb.VALUE_KEY, value);
-            Mcf.McfGraph.TypedValue.Builder newTypedValue =
-                McfParser.parseTypedValue(
-                    Mcf.McfType.INSTANCE_MCF, false, currentProp, value, errCb);
-            if (newTypedValue != null) {
-              newTypedValue.setColumn(column);
+      for (ValuePlan valuePlan : propPlan.values) {
+        Mcf.McfGraph.TypedValue typedValue = valuePlan.templateValue;
+        switch (valuePlan.kind) {
+          case ENTITY_REF:
+            {
+              errCb.setDetail(LogCb.VALUE_KEY, typedValue.getValue());
+              String referenceNode =
+                  toNodeName(typedValue.getValue(), valuePlan.refNodeNamePrefix, errCb);
+              if (referenceNode == null) {
+                // toNodeName() must have logged the problem.
+                continue;
+              }
+              Mcf.McfGraph.TypedValue.Builder newTypedValue = Mcf.McfGraph.TypedValue.newBuilder();
+              if (referenceNode.startsWith(Vocabulary.DCID_PREFIX)) {
+                Mcf.McfGraph.TypedValue dcidTypedVal =
+                    entityToDcid.getOrDefault(
+                        typedValue.getValue(), Mcf.McfGraph.TypedValue.getDefaultInstance());
+                if (dcidTypedVal.getValue().isEmpty()) {
+                  addLog(
+                      Debug.Log.Level.LEVEL_WARNING,
+                      "CSV_EmptyDcidReferences",
+                      "In dcid:{entity} reference, found {entity} to be empty :: property: '"
+                          + currentProp
+                          + "', node: '"
+                          + templateEntity
+                          + "'");
+                  continue;
+                }
+                newTypedValue.setType(Mcf.ValueType.RESOLVED_REF);
+                newTypedValue.setValue(dcidTypedVal.getValue());
+                if (dcidTypedVal.hasColumn()) {
+                  newTypedValue.setColumn(dcidTypedVal.getColumn());
+                }
+              } else {
+                // This is an internal reference, so prefix "l:"
+                newTypedValue.setType(Mcf.ValueType.UNRESOLVED_REF);
+                newTypedValue.setValue(Vocabulary.INTERNAL_REF_PREFIX + referenceNode);
+              }
               instanceValues.addTypedValues(newTypedValue.build());
+              break;
             }
-          }
-        } else {
-          // Pass through constant value.
-          instanceValues.addTypedValues(typedValue);
+          case COLUMN:
+            {
+              // Replace column-name with cell-value
+              if (valuePlan.columnIndex >= dataRow.size()) {
+                addLog(
+                    Debug.Log.Level.LEVEL_WARNING,
+                    "CSV_UnexpectedRow",
+                    "Found row with fewer columns than expected :: row: '"
+                        + dataRow.toString()
+                        + "'");
+                continue;
+              }
+              String origValue = dataRow.get(valuePlan.columnIndex);
+              warnCb.setDetail(LogCb.VALUE_KEY, origValue);
+              warnCb.setDetail(LogCb.COLUMN_KEY, valuePlan.column);
+              warnCb.setCounterSuffix(currentProp);
+              List<String> values =
+                  StringUtil.splitAndStripWithQuoteEscape(origValue, splitArg, warnCb);
+              for (String value : values) {
+                errCb.setDetail(LogCb.VALUE_KEY, value);
+                Mcf.McfGraph.TypedValue.Builder newTypedValue =
+                    McfParser.parseTypedValue(
+                        Mcf.McfType.INSTANCE_MCF, false, currentProp, value, errCb);
+                if (newTypedValue != null) {
+                  newTypedValue.setColumn(valuePlan.column);
+                  instanceValues.addTypedValues(newTypedValue.build());
+                }
+              }
+              break;
+            }
+          case INVALID:
+            logInvalidValue(templateEntity, currentProp, typedValue);
+            break;
+          default:
+            // Pass through constant value.
+            instanceValues.addTypedValues(typedValue);
         }
       }
       return instanceValues.build();
     }
 
-    private String toNodeName(String entityId, LogCb logCb) {
+    // Logs the problem with a template value that compileTemplate() found to be invalid.
+    private void logInvalidValue(
+        String templateEntity, String currentProp, Mcf.McfGraph.TypedValue typedValue) {
+      if (typedValue.getType() == Mcf.ValueType.TABLE_ENTITY) {
+        // TODO: Add this check to checkTemplateNode(), and assert here
+        addLog(
+            Debug.Log.Level.LEVEL_ERROR,
+            "TMCF_TmcfEntityAsDcid",
+            "Value of dcid property is an 'E:' entity; must be a 'C:' column or "
+                + "a constant :: value: '"
+                + templateEntity
+                + "'");
+        return;
+      }
+      errCb.setDetail(LogCb.VALUE_KEY, typedValue.getValue());
+      McfParser.SchemaTerm term = McfParser.parseSchemaTerm(typedValue.getValue(), errCb);
+      if (term == null) {
+        return;
+      }
+      if (term.type != McfParser.SchemaTerm.Type.COLUMN) {
+        addLog(
+            Debug.Log.Level.LEVEL_ERROR,
+            "TMCF_UnexpectedNonColumn",
+            "Expected value to be a TMCF column that starts with 'C:' :: value: '"
+                + typedValue.getValue()
+                + "', property: '"
+                + currentProp
+                + "', node: '"
+                + templateEntity
+                + "'");
+        return;
+      }
+      addLog(
+          Debug.Log.Level.LEVEL_ERROR,
+          "CSV_TmcfMissingColumn",
+          "Column referred to in TMCF is missing from CSV header :: column: '" + term.value + "'");
+    }
+
+    // Returns the name of the node of "entityId" in this row, given its compiled node name prefix.
+    // Returns null (and logs) if the entity is malformed.
+    private String toNodeName(String entityId, String nodeNamePrefix, LogCb logCb) {
       if (entityToDcid.containsKey(entityId)) {
         return Vocabulary.DCID_PREFIX + entityToDcid.get(entityId).getValue();
       }
-
+      if (nodeNamePrefix != null) {
+        return nodeNamePrefix + rowId;
+      }
       McfParser.SchemaTerm term = McfParser.parseSchemaTerm(entityId, logCb);
       if (term == null) return null;
-      if (term.type != McfParser.SchemaTerm.Type.ENTITY) {
-        // TODO: Consider making this an assertion failure
-        logCb.logError(
-            "CSV_UnexpectedNonEntity", "Expected value to be a TMCF entity that starts with 'E:'");
-        return null;
-      }
+      // TODO: Consider making this an assertion failure
+      logCb.logError(
+          "CSV_UnexpectedNonEntity", "Expected value to be a TMCF entity that starts with 'E:'");
+      return null;
+    }
 
-      return term.table + "/" + term.value + "/" + rowId;
+    private void addLog(Debug.Log.Level level, String counter, String message) {
+      logCtx.addEntry(level, counter, message, csvFileName, lineNumber);
     }
   }
 
@@ -374,7 +675,7 @@ public class TmcfCsvParser {
         .toString();
   }
 
-  private void addLog(Debug.Log.Level level, String counter, String message) {
-    logCtx.addEntry(level, counter, message, csvFileName, csvParser.getCurrentLineNumber());
+  private long currentLineNumber() {
+    return csvParser.getCurrentLineNumber() + lineOffset;
   }
 }
@@ -200,11 +200,11 @@
           <#list svSummaryMap as sv, svSummary>
             <tr>
               <td><a name="statvars--${sv}" href="#statvars--${sv}">${sv}</a></td>
-              <td>${svSummary.getPlaces()?size}</td>
+              <td><#if svSummary.isPlacesSketched()>~</#if>${svSummary.getNumPlaces()}</td>
               <td>${svSummary.getNumObservations()}</td>
-              <td>${svSummary.getUniqueDates()?size}</td>
-              <td>${svSummary.getUniqueDates()?first!""}</td>
-              <td>${svSummary.getUniqueDates()?last!""}</td>
+              <td><#if svSummary.isDatesSketched()>~</#if>${svSummary.getNumUniqueDates()}</td>
+              <td>${svSummary.getMinDate()}</td>
+              <td>${svSummary.getMaxDate()}</td>
               <td>
                 <#list svSummary.getMMethods() as method>
                 <div>${method}</div>
@@ -259,7 +259,7 @@
                   <#list timeSeries as hash, seriesSummary>
                     <tr>
                       <td><a href="#places--${place}--${sv}" name="places--${place}--${sv}">${sv}</a></td>
-                      <td>${seriesSummary.getTimeSeries()?size}</td>
+                      <td>${seriesSummary.getNumDates()}</td>
                       <td>${seriesSummary.getDatesString()}</td>
                       <td>${seriesSummary.getValueString()}</td>
                       <td>
@@ -0,0 +1,68 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class AsyncWriterTest {
+  @Test
+  public void inOrder() throws IOException {
+    List<Integer> written = new ArrayList<>();
+    List<Integer> want = new ArrayList<>();
+    AsyncWriter writer = new AsyncWriter("test", 2);
+    for (int i = 0; i < 1000; i++) {
+      final int n = i;
+      writer.submit(() -> written.add(n));
+      want.add(i);
+    }
+    writer.close();
+    assertEquals(want, written);
+  }
+
+  @Test
+  public void failure() throws IOException {
+    List<Integer> written = new ArrayList<>();
+    AsyncWriter writer = new AsyncWriter("test", 2);
+    writer.submit(() -> written.add(1));
+    writer.submit(
+        () -> {
+          throw new IOException("disk full");
+        });
+    // Writes after the failure are skipped, and the failure is reported by submit() and close().
+    boolean failed = false;
+    try {
+      for (int i = 0; i < 1000; i++) {
+        writer.submit(() -> written.add(2));
+      }
+    } catch (IOException e) {
+      assertEquals("disk full", e.getMessage());
+      failed = true;
+    }
+    assertTrue(failed);
+    try {
+      writer.close();
+      assertTrue("Expected failure", false);
+    } catch (IOException e) {
+      assertEquals("disk full", e.getMessage());
+    }
+    assertEquals(List.of(1), written);
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompressedFilesTest {
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
+
+  @Test
+  public void names() {
+    assertTrue(CompressedFiles.isCompressed("dir/data.CSV.GZ"));
+    assertFalse(CompressedFiles.isCompressed("dir/data.csv"));
+    assertEquals("dir/data.csv", CompressedFiles.stripSuffix("dir/data.csv.gz"));
+    assertEquals("dir/data.csv", CompressedFiles.stripSuffix("dir/data.csv"));
+  }
+
+  @Test
+  public void readGzip() throws IOException {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      text.append("row").append(i).append(",").append(i * 7).append("\n");
+    }
+    Path plain = testFolder.getRoot().toPath().resolve("data.csv");
+    Path gzip = testFolder.getRoot().toPath().resolve("data.csv.gz");
+    Files.writeString(plain, text);
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+      out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    try (InputStream in = CompressedFiles.newInputStream(gzip)) {
+      assertTrue(in instanceof PrefetchInputStream);
+      assertEquals(text.toString(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+    try (InputStream in = CompressedFiles.newInputStream(plain)) {
+      assertFalse(in instanceof PrefetchInputStream);
+      assertEquals(text.toString(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void prefetch() throws IOException {
+    byte[] data = new byte[100000];
+    new Random(1).nextBytes(data);
+    // Small chunks and queue, so that the reader and the background thread wait on each other.
+    try (InputStream in = new PrefetchInputStream(new ByteArrayInputStream(data), "test", 7, 2)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertEquals(data[0] & 0xFF, in.read());
+      out.write(data[0]);
+      byte[] buf = new byte[13];
+      int n;
+      while ((n = in.read(buf, 0, buf.length)) != -1) {
+        out.write(buf, 0, n);
+      }
+      assertArrayEquals(data, out.toByteArray());
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void prefetchError() throws IOException {
+    InputStream failing =
+        new InputStream() {
+          @Override
+          public int read() throws IOException {
+            throw new IOException("broken");
+          }
+        };
+    try (InputStream in = new PrefetchInputStream(failing, "test", 7, 2)) {
+      in.readAllBytes();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CsvSplitterTest {
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
+
+  @Test
+  public void splitAtRowBoundaries() throws IOException {
+    String csv = "a,b\n1,2\n3,4\n5,6\n";
+    List<CsvSplitter.Range> ranges = CsvSplitter.split(writeCsv(csv), ',', 4);
+    assertEquals(3, ranges.size());
+    assertRange(csv, ranges.get(0), "1,2\n", 1);
+    assertRange(csv, ranges.get(1), "3,4\n", 2);
+    assertRange(csv, ranges.get(2), "5,6\n", 3);
+  }
+
+  @Test
+  public void lastRowWithoutNewline() throws IOException {
+    String csv = "a,b\n1,2\n3,4";
+    List<CsvSplitter.Range> ranges = CsvSplitter.split(writeCsv(csv), ',', 100);
+    assertEquals(1, ranges.size());
+    assertRange(csv, ranges.get(0), "1,2\n3,4", 1);
+  }
+
+  @Test
+  public void quotedNewlinesDoNotSplit() throws IOException {
+    String csv =
+        "a,\"multi\nline header\"\r\n\"x\ny\",\"say \"\"hi\n\"\"\"\r\n \"p\nq\",2\r\n3,4\\\n5\r\n";
+    List<CsvSplitter.Range> ranges = CsvSplitter.split(writeCsv(csv), ',', 1);
+    assertEquals(3, ranges.size());
+    assertRange(csv, ranges.get(0), "\"x\ny\",\"say \"\"hi\n\"\"\"\r\n", 2);
+    assertRange(csv, ranges.get(1), " \"p\nq\",2\r\n", 5);
+    assertRange(csv, ranges.get(2), "3,4\\\n5\r\n", 7);
+  }
+
+  @Test
+  public void headerOnly() throws IOException {
+    assertTrue(CsvSplitter.split(writeCsv("a,b\n"), ',', 1).isEmpty());
+    assertTrue(CsvSplitter.split(writeCsv("a,b"), ',', 1).isEmpty());
+  }
+
+  private String writeCsv(String content) throws IOException {
+    File file = testFolder.newFile();
+    Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+    return file.getPath();
+  }
+
+  private static void assertRange(
+      String csv, CsvSplitter.Range range, String expected, long lineOffset) {
+    assertEquals(expected, csv.substring((int) range.start, (int) range.end));
+    assertEquals(lineOffset, range.lineOffset);
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExistenceCacheTest {
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
+
+  @Test
+  public void saveAndReopen() throws IOException {
+    Path path = testFolder.getRoot().toPath().resolve("cache").resolve("existence.bin");
+    ExistenceCache cache = ExistenceCache.open(path, Duration.ofHours(1));
+    assertEquals(ExistenceCache.Result.UNKNOWN, cache.get(42));
+    for (long i = -500; i < 500; i += 2) {
+      cache.put(i * 7919, i % 4 == 0);
+    }
+    assertEquals(ExistenceCache.Result.EXISTS, cache.get(0));
+    cache.save();
+
+    cache = ExistenceCache.open(path, Duration.ofHours(1));
+    for (long i = -500; i < 500; i++) {
+      ExistenceCache.Result expected =
+          i % 2 != 0
+              ? ExistenceCache.Result.UNKNOWN
+              : (i % 4 == 0 ? ExistenceCache.Result.EXISTS : ExistenceCache.Result.MISSING);
+      assertEquals(expected, cache.get(i * 7919));
+    }
+
+    // New results are merged with, and override, the saved ones.
+    cache.put(1, true);
+    cache.put(0, false);
+    cache.save();
+    cache = ExistenceCache.open(path, Duration.ofHours(1));
+    assertEquals(ExistenceCache.Result.EXISTS, cache.get(1));
+    assertEquals(ExistenceCache.Result.MISSING, cache.get(0));
+    assertEquals(ExistenceCache.Result.EXISTS, cache.get(4 * 7919));
+    assertEquals(16 + 16 * 501, Files.size(path));
+  }
+
+  @Test
+  public void expired() throws IOException {
+    Path path = testFolder.getRoot().toPath().resolve("existence.bin");
+    ExistenceCache cache = ExistenceCache.open(path, Duration.ofHours(1));
+    cache.put(1, true);
+    cache.save();
+
+    // With a negative TTL everything is expired, and is dropped on save.
+    cache = ExistenceCache.open(path, Duration.ofSeconds(-1));
+    assertEquals(ExistenceCache.Result.EXPIRED, cache.get(1));
+    cache.save();
+    cache = ExistenceCache.open(path, Duration.ofHours(1));
+    assertEquals(ExistenceCache.Result.UNKNOWN, cache.get(1));
+  }
+
+  @Test(expected = IOException.class)
+  public void invalidFile() throws IOException {
+    Path path = testFolder.getRoot().toPath().resolve("existence.bin");
+    Files.writeString(path, "not a cache");
+    ExistenceCache.open(path, Duration.ofHours(1));
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.datacommons.proto.Debug;
+import org.datacommons.proto.Mcf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Measures the cost of an existence check that is answered by the in-memory caches, which is the
+// common case. "stringKeys" is the old representation of the caches (HashSet of "s,p,o" strings)
+// and "fingerprintKeys" the current one (LongLongHashMap of fingerprints, with the check
+// fingerprint that a hit is verified with). Compare the "gc.alloc.rate.norm" (bytes allocated per
+// check) of the two.
+//
+// To run:
+//   mvn -pl util test-compile dependency:build-classpath -Dmdep.outputFile=/tmp/cp.txt
+//   java -cp util/target/test-classes:util/target/classes:$(cat /tmp/cp.txt) \
+//       org.datacommons.util.ExistenceCheckerBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExistenceCheckerBenchmark {
+  private static final int NUM_PROPS = 100000;
+  private static final String PRED = Vocabulary.DOMAIN_INCLUDES;
+
+  private String[] subs;
+  private String[] objs;
+  private Set<String> stringKeys;
+  private LongLongHashMap fingerprintKeys;
+  private ExistenceChecker checker;
+  private LogCb logCb;
+  private int next = 0;
+
+  @Setup
+  public void setup() throws IOException {
+    subs = new String[NUM_PROPS];
+    objs = new String[NUM_PROPS];
+    stringKeys = new HashSet<>();
+    fingerprintKeys = new LongLongHashMap();
+    Mcf.McfGraph.Builder graph = Mcf.McfGraph.newBuilder();
+    for (int i = 0; i < NUM_PROPS; i++) {
+      subs[i] = "someStatisticalProperty" + i;
+      objs[i] = "SomeClass" + (i % 1000);
+      stringKeys.add(subs[i] + "," + PRED + "," + objs[i]);
+      fingerprintKeys.put(
+          ExistenceChecker.fingerprint(subs[i], PRED, objs[i]),
+          ExistenceChecker.knownValue(subs[i], PRED, objs[i], true));
+      graph.putNodes(
+          subs[i],
+          Mcf.McfGraph.PropertyValues.newBuilder()
+              .putPvs(Vocabulary.DCID, McfUtil.newValues(Mcf.ValueType.TEXT, subs[i]))
+              .putPvs(Vocabulary.TYPE_OF, McfUtil.newValues(Mcf.ValueType.RESOLVED_REF, "Property"))
+              .putPvs(PRED, McfUtil.newValues(Mcf.ValueType.RESOLVED_REF, objs[i]))
+              .build());
+    }
+    LogWrapper logCtx = new LogWrapper(Debug.Log.newBuilder(), Path.of("InMemory"));
+    checker = new ExistenceChecker(null, false, logCtx);
+    checker.addLocalGraph(graph.build());
+    logCb = new LogCb(logCtx, Debug.Log.Level.LEVEL_WARNING, "InMemory", 0);
+  }
+
+  @Benchmark
+  public boolean stringKeys() {
+    int i = nextIndex();
+    return stringKeys.contains(subs[i] + "," + PRED + "," + objs[i]);
+  }
+
+  @Benchmark
+  public boolean fingerprintKeys() {
+    int i = nextIndex();
+    long value = fingerprintKeys.get(ExistenceChecker.fingerprint(subs[i], PRED, objs[i]), 0);
+    return value == ExistenceChecker.knownValue(subs[i], PRED, objs[i], true);
+  }
+
+  @Benchmark
+  public void submitTripleCheck() throws IOException, InterruptedException {
+    int i = nextIndex();
+    checker.submitTripleCheck(subs[i], PRED, objs[i], logCb);
+  }
+
+  private int nextIndex() {
+    next = next + 1 == NUM_PROPS ? 0 : next + 1;
+    return next;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(ExistenceCheckerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
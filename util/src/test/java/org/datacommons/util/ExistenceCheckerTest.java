@@ -1,6 +1,7 @@
 package org.datacommons.util;
 
 import static org.datacommons.util.LogCb.*;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -9,18 +10,34 @@ import static org.mockito.Mockito.*;
 import java.io.IOException;
 import java.net.http.HttpClient;
 import java.net.http.HttpResponse;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import org.datacommons.proto.Debug;
 import org.datacommons.proto.Mcf;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 
 public class ExistenceCheckerTest {
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
+
   private static final String NONEXISTING_LAT = "{ \"payload\": \"{\\\"latitude\\\":{}}\" }";
   private static final String EXISTING_GENDER =
       "{ \"payload\": \"{\\\"gender\\\":{\\\"out"
           + "\\\":[{\\\"dcid\\\":\\\"Person\\\",\\\"name\\\":\\\"Person\\\","
           + "\\\"provenanceId\\\":\\\"dc/5l5zxr1\\\",\\\"types\\\":[\\\"Class\\\"]}]}}\" }";
+  private static final String SCHEMA_NODES =
+      "Node: dcid:gender\n"
+          + "typeOf: schema:Property\n"
+          + "domainIncludes: schema:Person\n"
+          + "rangeIncludes: schema:GenderType\n"
+          + "\n"
+          + "Node: dcid:Person\n"
+          + "typeOf: schema:Class\n";
   private static final String LOCAL_KG_NODE =
       "Node: dcid:latitude\n"
           + "typeOf: schema:Property\n"
@@ -122,6 +139,126 @@ public class ExistenceCheckerTest {
     assertTrue(TestUtil.checkCounter(lw.getLog(), "Existence_MissingTriple", 2));
   }
 
+  @Test
+  public void testNodeAsync() throws IOException, InterruptedException {
+    var mockHttp = Mockito.mock(HttpClient.class);
+    var mockResp = Mockito.mock(HttpResponse.class);
+    var pendingResp = new CompletableFuture<HttpResponse<?>>();
+    doReturn(pendingResp).when(mockHttp).sendAsync(any(), any());
+
+    Debug.Log.Builder lb = Debug.Log.newBuilder();
+    LogWrapper lw = new LogWrapper(lb, Path.of("InMemory"));
+    ExistenceChecker.DC_CALL_BATCH_LIMIT = 1;
+
+    var checker = new ExistenceChecker(mockHttp, false, lw, 2, null, null);
+
+    // Non-existing node, call is in flight.
+    when(mockResp.body()).thenReturn(NONEXISTING_LAT);
+    checker.submitNodeCheck("latitude", newLogCb(lw, PREF_KEY, "latitude1"));
+    verify(mockHttp, times(1)).sendAsync(any(), any());
+    assertFalse(TestUtil.checkCounter(lw.getLog(), "Existence_MissingReference", 1));
+
+    // The same node is attached to the in-flight call. No further RPCs.
+    checker.submitNodeCheck("latitude", newLogCb(lw, PREF_KEY, "latitude2"));
+    verify(mockHttp, times(1)).sendAsync(any(), any());
+    assertFalse(TestUtil.checkCounter(lw.getLog(), "Existence_MissingReference", 1));
+
+    // Both checks are reported when the response arrives.
+    pendingResp.complete(mockResp);
+    checker.drainRemoteCalls();
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Existence_MissingReference", 2));
+
+    // Existing node, response from RPC.
+    when(mockResp.body()).thenReturn(EXISTING_GENDER);
+    checker.submitNodeCheck("gender", newLogCb(lw, PREF_KEY, "gender1"));
+    checker.drainRemoteCalls();
+    verify(mockHttp, times(2)).sendAsync(any(), any());
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Existence_MissingReference", 2));
+
+    // Cached results. No further RPCs.
+    checker.submitNodeCheck("gender", newLogCb(lw, PREF_KEY, "gender2"));
+    checker.submitNodeCheck("latitude", newLogCb(lw, PREF_KEY, "latitude3"));
+    checker.drainRemoteCalls();
+    verify(mockHttp, times(2)).sendAsync(any(), any());
+    verify(mockHttp, never()).send(any(), any());
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Existence_MissingReference", 3));
+  }
+
+  @Test
+  public void testPersistentCache() throws IOException, InterruptedException {
+    var mockHttp = Mockito.mock(HttpClient.class);
+    var mockResp = Mockito.mock(HttpResponse.class);
+    when(mockHttp.send(any(), any())).thenReturn(mockResp);
+    Path cachePath = testFolder.getRoot().toPath().resolve("existence_cache.bin");
+    ExistenceChecker.DC_CALL_BATCH_LIMIT = 1;
+
+    // First run, results come from RPCs and are saved.
+    Debug.Log.Builder lb = Debug.Log.newBuilder();
+    LogWrapper lw = new LogWrapper(lb, Path.of("InMemory"));
+    var checker =
+        new ExistenceChecker(
+            mockHttp, false, lw, 0, ExistenceCache.open(cachePath, Duration.ofHours(1)), null);
+    when(mockResp.body()).thenReturn(NONEXISTING_LAT);
+    checker.submitNodeCheck("latitude", newLogCb(lw, PREF_KEY, "latitude1"));
+    when(mockResp.body()).thenReturn(EXISTING_GENDER);
+    checker.submitNodeCheck("gender", newLogCb(lw, PREF_KEY, "gender1"));
+    verify(mockHttp, times(2)).send(any(), any());
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Existence_CacheMisses", 2));
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Existence_MissingReference", 1));
+    checker.saveCache();
+
+    // Second run, results come from the cache.
+    lb = Debug.Log.newBuilder();
+    lw = new LogWrapper(lb, Path.of("InMemory"));
+    checker =
+        new ExistenceChecker(
+            mockHttp, false, lw, 0, ExistenceCache.open(cachePath, Duration.ofHours(1)), null);
+    checker.submitNodeCheck("latitude", newLogCb(lw, PREF_KEY, "latitude2"));
+    checker.submitNodeCheck("gender", newLogCb(lw, PREF_KEY, "gender2"));
+    checker.drainRemoteCalls();
+    verify(mockHttp, times(2)).send(any(), any());
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Existence_CacheHits", 2));
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Existence_MissingReference", 1));
+  }
+
+  @Test
+  public void testSnapshot() throws IOException, InterruptedException {
+    var mockHttp = Mockito.mock(HttpClient.class);
+    Path schemaMcf = testFolder.newFile("schema.mcf").toPath();
+    Files.writeString(schemaMcf, SCHEMA_NODES);
+
+    Debug.Log.Builder lb = Debug.Log.newBuilder();
+    LogWrapper lw = new LogWrapper(lb, Path.of("InMemory"));
+    var snapshot = SchemaSnapshot.load(List.of(schemaMcf), lw);
+    assertEquals(4, snapshot.size());
+
+    // Round trip through an index file.
+    Path index = testFolder.getRoot().toPath().resolve("schema.bin");
+    snapshot.save(index);
+    assertTrue(SchemaSnapshot.isIndexFile(index));
+    assertFalse(SchemaSnapshot.isIndexFile(schemaMcf));
+    snapshot = SchemaSnapshot.load(List.of(index), lw);
+    assertEquals(4, snapshot.size());
+
+    var checker = new ExistenceChecker(mockHttp, false, lw, 0, null, snapshot);
+    checker.submitNodeCheck("gender", newLogCb(lw, PREF_KEY, "gender"));
+    checker.submitNodeCheck("Person", newLogCb(lw, PREF_KEY, "Person"));
+    checker.submitNodeCheck("latitude", newLogCb(lw, PREF_KEY, "latitude"));
+    checker.submitTripleCheck(
+        "gender", "domainIncludes", "Person", newLogCb(lw, SUB_KEY, "gender"));
+    checker.submitTripleCheck("gender", "rangeIncludes", "Person", newLogCb(lw, SUB_KEY, "gender"));
+    checker.drainRemoteCalls();
+    verify(mockHttp, never()).send(any(), any());
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Existence_MissingReference", 1));
+    assertTrue(TestUtil.checkLog(lw.getLog(), "Existence_MissingReference", "latitude"));
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Existence_MissingTriple", 1));
+
+    // The local graph takes precedence over the snapshot.
+    checker.addLocalGraph(TestUtil.graphFromMcf(LOCAL_KG_NODE));
+    checker.submitNodeCheck("latitude", newLogCb(lw, PREF_KEY, "latitude"));
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Existence_MissingReference", 1));
+  }
+
   @Test
   public void endToEnd() throws IOException, InterruptedException {
     Debug.Log.Builder lb = Debug.Log.newBuilder();
@@ -2,18 +2,31 @@ package org.datacommons.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.datacommons.proto.Debug;
 import org.datacommons.proto.Mcf;
 import org.datacommons.proto.Mcf.McfGraph;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
 
 public class ExternalIdResolverTest {
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
 
   // This includes 7 external IDs.
   // India using isoCode
@@ -100,6 +113,97 @@ public class ExternalIdResolverTest {
     assertTrue(TestUtil.checkCounter(lw.getLog(), "Resolution_NumDcCalls", 1));
   }
 
+  @Test
+  public void asyncWithMockedApi() throws IOException, InterruptedException {
+    var mockHttp = Mockito.mock(HttpClient.class);
+    var mockResp = Mockito.mock(HttpResponse.class);
+    var pendingResp = new CompletableFuture<HttpResponse<?>>();
+    doReturn(pendingResp).when(mockHttp).sendAsync(any(), any());
+    when(mockResp.body()).thenReturn(IN_SF_RESPONSE);
+
+    Debug.Log.Builder lb = Debug.Log.newBuilder();
+    LogWrapper lw = new LogWrapper(lb, Path.of("InMemory"));
+    ExternalIdResolver.MAX_RESOLUTION_BATCH_IDS = 2;
+
+    var resolver = new ExternalIdResolver(mockHttp, false, lw, 2, null);
+    // The first two IDs fill up a batch, whose call is in flight.
+    resolver.submitNode(in);
+    resolver.submitNode(sf);
+    verify(mockHttp, times(1)).sendAsync(any(), any());
+    // IDs that were sent already are not sent again.
+    resolver.submitNode(sf);
+    resolver.submitNode(vz);
+    verify(mockHttp, times(1)).sendAsync(any(), any());
+
+    // The rest is sent on drain, which waits for all the responses.
+    pendingResp.complete(mockResp);
+    resolver.drainRemoteCalls();
+    verify(mockHttp, times(2)).sendAsync(any(), any());
+    verify(mockHttp, never()).send(any(), any());
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Resolution_NumDcCalls", 2));
+
+    assertEquals(inDcid, resolver.resolveNode("in", in));
+    assertEquals(sfDcid, resolver.resolveNode("sf", sf));
+    // The response did not include Venezia.
+    assertEquals("", resolver.resolveNode("vz", vz));
+    assertTrue(
+        TestUtil.checkLog(
+            lw.getLog(),
+            "Resolution_UnresolvedExternalId_nutsCode",
+            "Unresolved external ID :: id: 'ITH35'"));
+  }
+
+  @Test
+  public void persistentCache() throws IOException, InterruptedException {
+    var mockHttp = Mockito.mock(HttpClient.class);
+    var mockResp = Mockito.mock(HttpResponse.class);
+    when(mockHttp.send(any(), any())).thenReturn(mockResp);
+    when(mockResp.body()).thenReturn(IN_SF_RESPONSE);
+    Path cachePath = testFolder.getRoot().toPath().resolve("resolution.bin");
+    ExternalIdResolver.MAX_RESOLUTION_BATCH_IDS = 10;
+
+    // The first run resolves with the API, and saves the results on drain.
+    LogWrapper lw = new LogWrapper(Debug.Log.newBuilder(), Path.of("InMemory"));
+    var resolver =
+        new ExternalIdResolver(
+            mockHttp, false, lw, 0, ResolutionCache.open(cachePath, Duration.ofHours(1)));
+    resolver.submitNode(in);
+    resolver.submitNode(sf);
+    resolver.submitNode(unk);
+    resolver.drainRemoteCalls();
+    verify(mockHttp, times(1)).send(any(), any());
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Resolution_CacheMisses", 3));
+
+    // The second run is answered from the cache, including the ID that did not resolve.
+    lw = new LogWrapper(Debug.Log.newBuilder(), Path.of("InMemory"));
+    resolver =
+        new ExternalIdResolver(
+            mockHttp, false, lw, 0, ResolutionCache.open(cachePath, Duration.ofHours(1)));
+    resolver.submitNode(in);
+    resolver.submitNode(sf);
+    resolver.submitNode(unk);
+    resolver.drainRemoteCalls();
+    verify(mockHttp, times(1)).send(any(), any());
+    assertTrue(TestUtil.checkCounter(lw.getLog(), "Resolution_CacheHits", 3));
+    assertEquals(inDcid, resolver.resolveNode("in", in));
+    assertEquals(sfDcid, resolver.resolveNode("sf", sf));
+    assertEquals("", resolver.resolveNode("unk", unk));
+    assertTrue(
+        TestUtil.checkLog(
+            lw.getLog(),
+            "Resolution_UnresolvedExternalId_isoCode",
+            "Unresolved external ID :: id: 'ZZZ'"));
+  }
+
+  private static final String IN_SF_RESPONSE =
+      "{\"resolvedEntities\": ["
+          + "{\"sourceId\": \"isoCode:IN\", "
+          + "\"resolvedIds\": [{\"ids\": [{\"prop\": \"dcid\", \"val\": \"country/IND\"}]}]}, "
+          + "{\"sourceId\": \"wikidataId:Q62\", "
+          + "\"resolvedIds\": [{\"ids\": [{\"prop\": \"dcid\", \"val\": \"geoId/0667000\"}]}]}, "
+          + "{\"sourceId\": \"isoCode:ZZZ\"}"
+          + "]}";
+
   // Runs assertions on the place constants as defined in the class constants.
   // These assertions are factored out of individual tests to allow testing different
   // input methods (API, addLocalGraph) have the same local behavior with the same input
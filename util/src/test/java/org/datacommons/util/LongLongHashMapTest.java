@@ -0,0 +1,82 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class LongLongHashMapTest {
+  @Test
+  public void basic() {
+    LongLongHashMap map = new LongLongHashMap();
+    assertTrue(map.isEmpty());
+    assertEquals(15, map.putIfAbsent(42, 15));
+    assertEquals(15, map.putIfAbsent(42, 25));
+    map.put(-1, Long.MIN_VALUE);
+    assertTrue(map.containsKey(42));
+    assertTrue(map.containsKey(-1));
+    assertFalse(map.containsKey(7));
+    assertEquals(Long.MIN_VALUE, map.get(-1, 0));
+    assertEquals(-9, map.get(7, -9));
+    assertEquals(2, map.size());
+
+    map.put(42, 4);
+    assertEquals(4, map.get(42, 0));
+    assertEquals(2, map.size());
+  }
+
+  @Test
+  public void zeroKey() {
+    LongLongHashMap map = new LongLongHashMap();
+    assertFalse(map.containsKey(0));
+    assertEquals(-1, map.get(0, -1));
+    assertEquals(0, map.putIfAbsent(0, 0));
+    assertEquals(0, map.putIfAbsent(0, 5));
+    assertTrue(map.containsKey(0));
+    assertEquals(1, map.size());
+    map.put(0, 6);
+    assertEquals(6, map.get(0, -1));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void matchesHashMap() {
+    // Small keys collide in the table a lot, which exercises probing and growing.
+    Random random = new Random(1);
+    LongLongHashMap map = new LongLongHashMap();
+    Map<Long, Long> expected = new HashMap<>();
+    for (int i = 0; i < 200000; i++) {
+      long key = random.nextInt(50000);
+      long value = random.nextLong();
+      if (random.nextInt(3) == 0) {
+        expected.put(key, value);
+        map.put(key, value);
+      } else {
+        assertEquals((long) expected.computeIfAbsent(key, k -> value), map.putIfAbsent(key, value));
+      }
+    }
+    assertEquals(expected.size(), map.size());
+    for (long key = 0; key < 50000; key++) {
+      assertEquals(expected.containsKey(key), map.containsKey(key));
+      assertEquals((long) expected.getOrDefault(key, -1L), map.get(key, -1));
+    }
+  }
+}
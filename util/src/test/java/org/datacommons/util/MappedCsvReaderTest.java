@@ -0,0 +1,108 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedCsvReaderTest {
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
+
+  @Test
+  public void values() throws IOException {
+    assertEquals(
+        List.of("1 [a, b]", "2 [1, 2]", "3 [, 3]"), read("a,b\n1,2\n,3\n", Integer.MAX_VALUE));
+    // Empty lines are skipped, and spaces around unquoted values are removed.
+    assertEquals(
+        List.of("1 [a, b]", "3 [1, 2]", "4 [3, ]"),
+        read("a,b\r\n\r\n 1 , 2 \r\n3,\r", Integer.MAX_VALUE));
+    // Quoted values keep their spaces, and may have delimiters, doubled quotes and newlines.
+    assertEquals(
+        List.of("2 [x,\"y\" , l1\nl2]", "2 [4, 5]"),
+        read("\"x,\"\"y\"\" \" , \"l1\nl2\"\n4,5", Integer.MAX_VALUE));
+    // Escapes.
+    assertEquals(
+        List.of("1 [a,b, c\\d, q\", e\\]", "2 [\"\"]"),
+        read("a\\,b,c\\d,\"q\\\"\",e\\\\\n\"\\\"\\\"\"\n", Integer.MAX_VALUE));
+    // The last line number is not counted without a trailing newline, like with CSVParser.
+    assertEquals(List.of("1 [a, b]", "1 [1, 2]"), read("a,b\n1,2", Integer.MAX_VALUE));
+    // Non-ASCII whitespace is removed too.
+    assertEquals(List.of("1 [\u00fc, v]"), read("\u3000\u00fc ,v\u2003\n", Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void malformed() throws IOException {
+    for (String csv : List.of("\"unterminated\n", "\"a\"x,b\n", "a\\")) {
+      try {
+        read(csv, Integer.MAX_VALUE);
+        assertTrue("Expected failure for " + csv, false);
+      } catch (IllegalStateException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith("IOException reading next record"));
+      }
+    }
+  }
+
+  @Test
+  public void segments() throws IOException {
+    StringBuilder csv = new StringBuilder("name,value\n");
+    for (int i = 0; i < 500; i++) {
+      csv.append(i % 3 == 0 ? "\"q" + i + "\n\"\",x\"," + i + "\r\n" : " n" + i + " , " + i + "\n");
+    }
+    // Records must be parsed again from the start after mapping a new segment.
+    List<String> want = read(csv.toString(), Integer.MAX_VALUE);
+    assertEquals(501, want.size());
+    assertEquals(want, read(csv.toString(), 64));
+    assertEquals(want, read(csv.toString(), 40));
+  }
+
+  @Test
+  public void range() throws IOException {
+    Path file = testFolder.getRoot().toPath().resolve("in.csv");
+    Files.writeString(file, "a,b\n1,2\n3,4\n5,6\n");
+    try (MappedCsvReader reader = MappedCsvReader.open(file, 4, 12, ',')) {
+      assertEquals(Arrays.asList("1", "2"), Arrays.asList(reader.next().values()));
+      assertEquals(Arrays.asList("3", "4"), Arrays.asList(reader.next().values()));
+      assertEquals(null, reader.next());
+      assertEquals(2, reader.getLineNumber());
+    }
+    assertFalse(MappedCsvReader.supports('"'));
+    assertFalse(MappedCsvReader.supports('\u00a6'));
+  }
+
+  // Returns "<line number> <values>" per record.
+  private List<String> read(String csv, int maxSegmentBytes) throws IOException {
+    Path file = testFolder.newFile().toPath();
+    Files.writeString(file, csv);
+    List<String> result = new ArrayList<>();
+    try (MappedCsvReader reader = MappedCsvReader.open(file, 0, -1, ',', maxSegmentBytes)) {
+      MappedCsvReader.Record record;
+      while ((record = reader.next()) != null) {
+        result.add(reader.getLineNumber() + " " + Arrays.toString(record.values()));
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import org.datacommons.proto.Debug;
+import org.datacommons.proto.Mcf;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedMcfParserTest {
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
+
+  @Test
+  public void sameAsMcfParser() throws IOException {
+    StringBuilder mcf = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      String nl = i % 2 == 0 ? "\n" : "\r\n";
+      mcf.append(i % 3 == 0 ? "Node: dcid:n" + i : "  Node :  n" + i).append(nl);
+      // Lines that look like nodes, but are not valid node lines, never start a chunk.
+      mcf.append("// Node: commented").append(nl);
+      if (i % 10 == 0) mcf.append("Node: \"quoted\"").append(nl);
+      if (i % 10 == 5) mcf.append("Node: a, b").append(nl);
+      if (i % 10 == 7) mcf.append("no colon").append(nl);
+      mcf.append("typeOf: dcs:StatVarObservation").append(nl);
+      mcf.append("value: ").append(i).append(nl).append(nl);
+    }
+    mcf.append("Node: last\ntypeOf: dcs:Thing");
+    Path file = testFolder.getRoot().toPath().resolve("in.mcf");
+    Files.writeString(file, mcf.toString());
+
+    LogWrapper wantLog = TestUtil.newLogCtx();
+    List<Mcf.McfGraph> want = parse(file, 0, null, wantLog);
+    assertEquals(101, want.size());
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (long chunkBytes : new long[] {1, 100, 1000, 1 << 20}) {
+        LogWrapper log = TestUtil.newLogCtx();
+        assertEquals(want, parse(file, chunkBytes, executor, log));
+        // Line numbers of logs refer to the whole file. Their order may differ.
+        assertEquals(wantLog.getLog().getLevelSummaryMap(), log.getLog().getLevelSummaryMap());
+        assertEquals(entries(wantLog.getLog()), entries(log.getLog()));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static List<Mcf.McfGraph> parse(
+      Path file, long chunkBytes, ExecutorService executor, LogWrapper logCtx) throws IOException {
+    McfParser parser =
+        McfParser.init(
+            Mcf.McfType.INSTANCE_MCF, file.toString(), false, logCtx, chunkBytes, executor, 3);
+    List<Mcf.McfGraph> nodes = new ArrayList<>();
+    Mcf.McfGraph node;
+    while ((node = parser.parseNextNode()) != null) {
+      nodes.add(node);
+    }
+    return nodes;
+  }
+
+  private static List<String> entries(Debug.Log log) {
+    return log.getEntriesList().stream()
+        .map(e -> e.getCounterKey() + ":" + e.getLocation().getLineNumber())
+        .sorted()
+        .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,191 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.datacommons.proto.Mcf;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class McfFileWriterTest {
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
+
+  private static final String TWO_NODES = node(1) + node(2);
+
+  @Test
+  public void plain() throws IOException {
+    Path dir = testFolder.getRoot().toPath();
+    McfFileWriter writer =
+        new McfFileWriter(dir.resolve("out.mcf").toString(), McfFileWriter.Compression.NONE, 0, 0);
+    assertTrue(writer.isEmpty());
+    writer.append(new StringReader(TWO_NODES));
+    writer.append(new StringReader(node(3)));
+    writer.close();
+    assertEquals(List.of("out.mcf"), list(dir));
+    assertEquals(TWO_NODES + node(3), read(dir.resolve("out.mcf")));
+  }
+
+  @Test
+  public void graph() throws IOException {
+    Mcf.McfGraph.Builder graph = Mcf.McfGraph.newBuilder().setType(Mcf.McfType.INSTANCE_MCF);
+    for (int i = 1; i <= 3; i++) {
+      graph.putNodes(
+          "n" + i,
+          Mcf.McfGraph.PropertyValues.newBuilder()
+              .putPvs(Vocabulary.TYPE_OF, McfUtil.newValues(Mcf.ValueType.NUMBER, "dcs:Thing"))
+              .build());
+    }
+    String want = McfUtil.serializeMcfGraph(graph.build(), false);
+    Path dir = testFolder.getRoot().toPath();
+    McfFileWriter writer =
+        new McfFileWriter(dir.resolve("out.mcf").toString(), McfFileWriter.Compression.NONE, 0, 0);
+    writer.write(graph.build());
+    writer.close();
+    assertEquals(want, read(dir.resolve("out.mcf")));
+
+    // When sharding, nodes are written one at a time.
+    writer =
+        new McfFileWriter(
+            dir.resolve("sharded.mcf").toString(), McfFileWriter.Compression.NONE, 2, 0);
+    writer.write(graph.build());
+    writer.close();
+    assertEquals(
+        want,
+        read(dir.resolve("sharded-00000-of-00002.mcf"))
+            + read(dir.resolve("sharded-00001-of-00002.mcf")));
+  }
+
+  @Test
+  public void proto() throws IOException {
+    List<Mcf.McfGraph> graphs = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      graphs.add(McfParser.parseInstanceMcfString(node(i), false, TestUtil.newLogCtx()));
+    }
+    Path dir = testFolder.getRoot().toPath();
+    McfFileWriter writer =
+        new McfFileWriter(
+            dir.resolve("part.mcfpb").toString(),
+            McfFileWriter.Compression.NONE,
+            McfFileWriter.Format.PROTO,
+            0,
+            0);
+    writer.write(graphs.get(1));
+    writer.write(graphs.get(2));
+    writer.close();
+    writer =
+        new McfFileWriter(
+            dir.resolve("out.mcfpb").toString(),
+            McfFileWriter.Compression.GZIP,
+            McfFileWriter.Format.PROTO,
+            2,
+            0);
+    // Shards end between graphs, whether they are written or appended.
+    writer.write(graphs.get(0));
+    try (InputStream in = Files.newInputStream(dir.resolve("part.mcfpb"))) {
+      writer.append(in);
+    }
+    writer.close();
+    assertEquals(
+        List.of("out-00000-of-00002.mcfpb.gz", "out-00001-of-00002.mcfpb.gz", "part.mcfpb"),
+        list(dir));
+    assertEquals(graphs.subList(0, 2), readProto(dir.resolve("out-00000-of-00002.mcfpb.gz")));
+    assertEquals(graphs.subList(2, 3), readProto(dir.resolve("out-00001-of-00002.mcfpb.gz")));
+  }
+
+  @Test
+  public void gzip() throws IOException {
+    Path dir = testFolder.getRoot().toPath();
+    McfFileWriter writer =
+        new McfFileWriter(dir.resolve("out.mcf").toString(), McfFileWriter.Compression.GZIP, 0, 0);
+    writer.append(new StringReader(TWO_NODES));
+    writer.close();
+    assertEquals(List.of("out.mcf.gz"), list(dir));
+    assertEquals(TWO_NODES, read(dir.resolve("out.mcf.gz")));
+  }
+
+  @Test
+  public void shardByNodes() throws IOException {
+    Path dir = testFolder.getRoot().toPath();
+    McfFileWriter writer =
+        new McfFileWriter(dir.resolve("out.mcf").toString(), McfFileWriter.Compression.GZIP, 2, 0);
+    // Shards end between nodes, within and across appends.
+    writer.append(new StringReader(TWO_NODES + node(3)));
+    writer.append(new StringReader(node(4) + node(5)));
+    writer.close();
+    assertEquals(
+        List.of(
+            "out-00000-of-00003.mcf.gz", "out-00001-of-00003.mcf.gz", "out-00002-of-00003.mcf.gz"),
+        list(dir));
+    assertEquals(TWO_NODES, read(dir.resolve("out-00000-of-00003.mcf.gz")));
+    assertEquals(node(3) + node(4), read(dir.resolve("out-00001-of-00003.mcf.gz")));
+    assertEquals(node(5), read(dir.resolve("out-00002-of-00003.mcf.gz")));
+  }
+
+  @Test
+  public void shardByChars() throws IOException {
+    Path dir = testFolder.getRoot().toPath();
+    McfFileWriter writer =
+        new McfFileWriter(
+            dir.resolve("out.mcf").toString(),
+            McfFileWriter.Compression.NONE,
+            0,
+            node(1).length() + 1);
+    writer.append(new StringReader(TWO_NODES + node(3)));
+    writer.close();
+    assertEquals(List.of("out-00000-of-00002.mcf", "out-00001-of-00002.mcf"), list(dir));
+    assertEquals(TWO_NODES, read(dir.resolve("out-00000-of-00002.mcf")));
+    assertEquals(node(3), read(dir.resolve("out-00001-of-00002.mcf")));
+  }
+
+  private static String node(int i) {
+    return "Node: n" + i + "\ntypeOf: dcs:StatVarObservation\nvalue: " + i + "\n\n";
+  }
+
+  private static List<String> list(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static List<Mcf.McfGraph> readProto(Path file) throws IOException {
+    McfParser parser =
+        McfParser.init(Mcf.McfType.INSTANCE_MCF, file.toString(), false, TestUtil.newLogCtx());
+    List<Mcf.McfGraph> graphs = new ArrayList<>();
+    Mcf.McfGraph graph;
+    while ((graph = parser.parseNextNode()) != null) {
+      graphs.add(graph);
+    }
+    return graphs;
+  }
+
+  private static String read(Path file) throws IOException {
+    try (InputStream in = CompressedFiles.newInputStream(file)) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+}
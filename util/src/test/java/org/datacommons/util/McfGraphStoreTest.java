@@ -0,0 +1,82 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.datacommons.proto.Debug;
+import org.datacommons.proto.Mcf;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class McfGraphStoreTest {
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
+
+  @Test
+  public void inMemory() throws IOException {
+    McfGraphStore store = new McfGraphStore(0, testFolder.getRoot().toPath());
+    List<Mcf.McfGraph> graphs = newGraphs(100);
+    for (var g : graphs) store.add(g);
+    assertFalse(store.hasSpilled());
+    assertEquals(100, store.size());
+    assertThat(store).containsExactlyElementsIn(graphs).inOrder();
+    store.close();
+  }
+
+  @Test
+  public void spilled() throws IOException {
+    McfGraphStore store = new McfGraphStore(200, testFolder.getRoot().toPath());
+    List<Mcf.McfGraph> graphs = newGraphs(100);
+    for (var g : graphs) store.add(g);
+    assertTrue(store.hasSpilled());
+    assertEquals(100, store.size());
+    // Iterate twice, the store can be streamed more than once.
+    assertThat(store).containsExactlyElementsIn(graphs).inOrder();
+    assertThat(store).containsExactlyElementsIn(graphs).inOrder();
+
+    store.close();
+    try (var files = Files.list(testFolder.getRoot().toPath())) {
+      assertEquals(0, files.count());
+    }
+  }
+
+  private static List<Mcf.McfGraph> newGraphs(int count) {
+    List<Mcf.McfGraph> graphs = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Mcf.McfGraph.Builder graph = Mcf.McfGraph.newBuilder().setType(Mcf.McfType.INSTANCE_MCF);
+      graph.putNodes(
+          "n" + i,
+          Mcf.McfGraph.PropertyValues.newBuilder()
+              .putPvs("name", McfUtil.newValues(Mcf.ValueType.TEXT, "Node " + i))
+              .build());
+      graph.putNodes(
+          "common",
+          Mcf.McfGraph.PropertyValues.newBuilder()
+              .putPvs("value", McfUtil.newValues(Mcf.ValueType.NUMBER, String.valueOf(i)))
+              .addLocations(Debug.Log.Location.newBuilder().setFile("test.mcf").setLineNumber(i))
+              .build());
+      graphs.add(graph.build());
+    }
+    return graphs;
+  }
+}
@@ -0,0 +1,156 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.datacommons.proto.Mcf;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Measures serializing a large graph of StatVarObservations, like the ones generated for wide CSV
+// rows. "concatenated" is the old implementation of McfUtil.serializeMcfGraph() (a string per
+// line), "serializeMcfGraph" the current one, and "writeMcfGraph" streams into a reused buffer,
+// like McfFileWriter does. Compare the "gc.alloc.rate.norm" (bytes allocated per graph) too.
+//
+// To run:
+//   mvn -pl util test-compile dependency:build-classpath -Dmdep.outputFile=/tmp/cp.txt
+//   java -cp util/target/test-classes:util/target/classes:$(cat /tmp/cp.txt) \
+//       org.datacommons.util.McfUtilBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class McfUtilBenchmark {
+  private static final int NUM_NODES = 1000;
+
+  @Param({"false", "true"})
+  public boolean sort;
+
+  private Mcf.McfGraph graph;
+  private StringBuilder buffer;
+
+  @Setup
+  public void setup() {
+    Mcf.McfGraph.Builder g = Mcf.McfGraph.newBuilder().setType(Mcf.McfType.INSTANCE_MCF);
+    for (int i = 0; i < NUM_NODES; i++) {
+      g.putNodes(
+          "E:SomeTable->E" + i,
+          Mcf.McfGraph.PropertyValues.newBuilder()
+              .putPvs(
+                  Vocabulary.TYPE_OF,
+                  McfUtil.newValues(Mcf.ValueType.RESOLVED_REF, "StatVarObservation"))
+              .putPvs(
+                  Vocabulary.VARIABLE_MEASURED,
+                  McfUtil.newValues(Mcf.ValueType.RESOLVED_REF, "Count_Person_Age" + (i % 50)))
+              .putPvs(
+                  Vocabulary.OBSERVATION_ABOUT,
+                  McfUtil.newValues(Mcf.ValueType.RESOLVED_REF, "geoId/" + (i / 50)))
+              .putPvs(Vocabulary.OBSERVATION_DATE, McfUtil.newValues(Mcf.ValueType.TEXT, "2020-01"))
+              .putPvs(
+                  Vocabulary.VALUE, McfUtil.newValues(Mcf.ValueType.NUMBER, Integer.toString(i)))
+              .putPvs(
+                  "measurementMethod", McfUtil.newValues(Mcf.ValueType.RESOLVED_REF, "CensusACS"))
+              .putPvs("unit", McfUtil.newValues(Mcf.ValueType.RESOLVED_REF, "Person"))
+              .build());
+    }
+    graph = g.build();
+    buffer = new StringBuilder();
+  }
+
+  @Benchmark
+  public String concatenated() {
+    return concatenatedSerialize(graph, sort);
+  }
+
+  @Benchmark
+  public String serializeMcfGraph() {
+    return McfUtil.serializeMcfGraph(graph, sort);
+  }
+
+  @Benchmark
+  public int writeMcfGraph() throws IOException {
+    buffer.setLength(0);
+    McfUtil.writeMcfGraph(graph, sort, buffer);
+    return buffer.length();
+  }
+
+  // The old McfUtil.serializeMcfGraph(), minus the error comments, which these nodes do not have.
+  private static String concatenatedSerialize(Mcf.McfGraph graph, boolean sort) {
+    StringBuilder result = new StringBuilder();
+    String sentinel = graph.getType() == Mcf.McfType.TEMPLATE_MCF ? "Template" : "Node";
+    List<String> keys = new ArrayList<>(graph.getNodesMap().keySet());
+    if (sort) Collections.sort(keys);
+    for (String key : keys) {
+      Mcf.McfGraph.PropertyValues node = graph.getNodesMap().get(key);
+      result.append(sentinel + ": " + key + "\n");
+      List<String> lines = new ArrayList<>();
+      for (Map.Entry<String, Mcf.McfGraph.Values> pv : node.getPvsMap().entrySet()) {
+        if (pv.getValue().getTypedValuesCount() == 0) continue;
+        List<String> vals = new ArrayList<>();
+        for (Mcf.McfGraph.TypedValue tv : pv.getValue().getTypedValuesList()) {
+          String value = getValue(tv);
+          if (!value.isEmpty()) vals.add(value);
+        }
+        if (sort) Collections.sort(vals);
+        if (!vals.isEmpty()) {
+          lines.add(pv.getKey() + ": " + String.join(", ", vals) + "\n");
+        }
+      }
+      if (sort) Collections.sort(lines);
+      result.append(String.join("", lines));
+      result.append("\n");
+    }
+    return result.toString();
+  }
+
+  private static String getValue(Mcf.McfGraph.TypedValue typedValue) {
+    if (typedValue.getType() == Mcf.ValueType.TEXT) {
+      return "\"" + typedValue.getValue() + "\"";
+    } else if (typedValue.getType() == Mcf.ValueType.RESOLVED_REF) {
+      return Vocabulary.DCID_PREFIX + typedValue.getValue();
+    } else {
+      return typedValue.getValue();
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(McfUtilBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+        .run();
+  }
+}
@@ -67,6 +67,41 @@ public class McfUtilTest {
     assertEquals(McfUtil.serializeMcfGraph(graph, true), output);
   }
 
+  @Test
+  public void writeMcfGraph() throws IOException {
+    Mcf.McfGraph.Values.Builder vals = Mcf.McfGraph.Values.newBuilder();
+    vals.addTypedValuesBuilder().setType(Mcf.ValueType.RESOLVED_REF).setValue("x");
+    vals.addTypedValuesBuilder().setType(Mcf.ValueType.TEXT).setValue("y");
+    Mcf.McfGraph.PropertyValues.Builder node = Mcf.McfGraph.PropertyValues.newBuilder();
+    node.putPvs("a", vals.build());
+    node.putPvs(
+        "a-b",
+        McfUtil.newValues(Mcf.ValueType.NUMBER, "1").toBuilder()
+            .addTypedValues(Mcf.McfGraph.TypedValue.newBuilder().setType(Mcf.ValueType.NUMBER))
+            .build());
+    node.putPvs("ab", McfUtil.newValues(Mcf.ValueType.NUMBER, ""));
+    node.addLocationsBuilder().setFile("f.csv").setLineNumber(3);
+    node.setErrorMessage("bad");
+    Mcf.McfGraph graph =
+        Mcf.McfGraph.newBuilder()
+            .setType(Mcf.McfType.INSTANCE_MCF)
+            .putNodes("n1", node.build())
+            .build();
+
+    // Properties sort like their lines, so "a-b: " comes before "a: ". Empty values are skipped.
+    String want =
+        "# From f.csv:3\n"
+            + "# Error: bad\n"
+            + "Node: n1\n"
+            + "a-b: 1\n"
+            + "a: \"y\", dcid:x\n"
+            + "\n";
+    StringBuilder out = new StringBuilder();
+    McfUtil.writeMcfGraph(graph, true, out);
+    assertEquals(want, out.toString());
+    assertEquals(want, McfUtil.serializeMcfGraph(graph, true));
+  }
+
   @Test
   public void funcMergeGraphs() throws IOException, AssertionError {
     List<Mcf.McfGraph> graphs =
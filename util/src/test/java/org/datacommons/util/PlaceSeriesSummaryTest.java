@@ -6,8 +6,10 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import org.datacommons.proto.Debug.DataPoint;
 import org.datacommons.proto.Mcf;
 import org.datacommons.proto.Mcf.McfGraph;
+import org.datacommons.util.PlaceSeriesSummary.SeriesSummary;
 import org.datacommons.util.SummaryReportGenerator.StatVarSummary;
 import org.junit.Test;
 
@@ -53,4 +55,78 @@ public class PlaceSeriesSummaryTest {
       assertEquals(expectedEntry.getValue().seriesValues, actualEntry.seriesValues);
     }
   }
+
+  @Test
+  public void testMergeOutOfOrderDates() throws IOException {
+    PlaceSeriesSummary first = newSummary(List.of("2015", "2013"), List.of(2, 1));
+    first.merge(newSummary(List.of("2014", "2015"), List.of(3, 4)));
+    Map<Long, SeriesSummary> series = first.getSvSeriesSummaryMap().get("Count_Person");
+    assertEquals(1, series.size());
+    SeriesSummary summary = series.values().iterator().next();
+    assertEquals(3, summary.getNumDates());
+    assertEquals("2013 | 2014 | 2015", summary.getDatesString());
+    // The first value of a date is reported.
+    assertEquals("1.0 | 3.0 | 2.0", summary.getValueString());
+    List<DataPoint> dataPoints = summary.getDataPoints();
+    assertEquals(3, dataPoints.size());
+    assertEquals("2015", dataPoints.get(2).getDate());
+    assertEquals(2, dataPoints.get(2).getValuesCount());
+    assertEquals(2.0, dataPoints.get(2).getValues(0).getValue(), 0);
+    assertEquals(4.0, dataPoints.get(2).getValues(1).getValue(), 0);
+    assertEquals(1, dataPoints.get(2).getValues(1).getLocationsCount());
+    assertEquals(dataPoints.get(2), summary.getTimeSeries().get("2015"));
+  }
+
+  @Test
+  public void testRunningStats() throws IOException {
+    SeriesSummary summary =
+        onlySeries(newSummary(List.of("2013", "2014", "2015", "2016"), List.of(1, 2, 20, 10)));
+    assertTrue(summary.isInDateOrder());
+    assertFalse(summary.hasMultipleValues());
+    assertEquals(4, summary.getFirstValueStats().getCount());
+    assertEquals(8.25, summary.getFirstValueStats().getMean(), 1e-12);
+    // From 2 to 20.
+    assertEquals(9, summary.getMaxDelta(), 1e-12);
+    assertEquals("2014", summary.getMaxDeltaBaseDataPoint().getDate());
+    assertEquals("2015", summary.getMaxDeltaDataPoint().getDate());
+
+    // Another value of an earlier date does not change the order.
+    summary = onlySeries(newSummary(List.of("2013", "2014", "2013"), List.of(1, 2, 3)));
+    assertTrue(summary.isInDateOrder());
+    assertTrue(summary.hasMultipleValues());
+    assertEquals(2, summary.getFirstValueStats().getCount());
+
+    // An earlier date does.
+    summary = onlySeries(newSummary(List.of("2014", "2013"), List.of(1, 2)));
+    assertFalse(summary.isInDateOrder());
+  }
+
+  private static SeriesSummary onlySeries(PlaceSeriesSummary placeSeriesSummary) {
+    Map<Long, SeriesSummary> series =
+        placeSeriesSummary.getSvSeriesSummaryMap().get("Count_Person");
+    assertEquals(1, series.size());
+    return series.values().iterator().next();
+  }
+
+  private static PlaceSeriesSummary newSummary(List<String> dates, List<Integer> values)
+      throws IOException {
+    StringBuilder mcf = new StringBuilder();
+    for (int i = 0; i < dates.size(); i++) {
+      mcf.append("Node: SVTest/" + dates.get(i) + "/" + values.get(i) + "\n");
+      mcf.append("typeOf: dcid:StatVarObservation\n");
+      mcf.append("observationDate: " + dates.get(i) + "\n");
+      mcf.append("observationAbout: dcid:geoId/06\n");
+      mcf.append("variableMeasured: dcid:Count_Person\n");
+      mcf.append("value: " + values.get(i) + "\n\n");
+    }
+    Mcf.McfGraph graph =
+        McfParser.parseInstanceMcfString(mcf.toString(), false, TestUtil.newLogCtx());
+    PlaceSeriesSummary placeSeriesSummary = new PlaceSeriesSummary();
+    // Add the nodes in the given order, which the graph does not keep.
+    for (int i = 0; i < dates.size(); i++) {
+      placeSeriesSummary.extractSeriesFromNode(
+          graph.getNodesOrThrow("SVTest/" + dates.get(i) + "/" + values.get(i)));
+    }
+    return placeSeriesSummary;
+  }
 }
@@ -0,0 +1,83 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResolutionCacheTest {
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
+
+  @Test
+  public void saveAndReopen() throws IOException {
+    Path path = testFolder.getRoot().toPath().resolve("cache").resolve("resolution.bin");
+    ResolutionCache cache = ResolutionCache.open(path, Duration.ofHours(1));
+    assertNull(cache.get("isoCode", "IN"));
+    for (int i = 0; i < 500; i++) {
+      cache.put("wikidataId", "Q" + i, i % 3 == 0 ? "" : "wikidataId/Q" + i);
+    }
+    cache.put("isoCode", "IN", "country/IND");
+    assertEquals("country/IND", cache.get("isoCode", "IN"));
+    cache.save();
+
+    cache = ResolutionCache.open(path, Duration.ofHours(1));
+    for (int i = 0; i < 500; i++) {
+      assertEquals(i % 3 == 0 ? "" : "wikidataId/Q" + i, cache.get("wikidataId", "Q" + i));
+    }
+    assertEquals("country/IND", cache.get("isoCode", "IN"));
+    // Same value, different ID property.
+    assertNull(cache.get("nutsCode", "IN"));
+    assertNull(cache.get("wikidataId", "Q500"));
+
+    // New results are merged with, and override, the saved ones.
+    cache.put("wikidataId", "Q0", "wikidataId/Q0");
+    cache.put("isoCode", "FR", "country/FRA");
+    cache.save();
+    cache = ResolutionCache.open(path, Duration.ofHours(1));
+    assertEquals("wikidataId/Q0", cache.get("wikidataId", "Q0"));
+    assertEquals("country/FRA", cache.get("isoCode", "FR"));
+    assertEquals("country/IND", cache.get("isoCode", "IN"));
+    assertEquals("wikidataId/Q1", cache.get("wikidataId", "Q1"));
+  }
+
+  @Test
+  public void expired() throws IOException {
+    Path path = testFolder.getRoot().toPath().resolve("resolution.bin");
+    ResolutionCache cache = ResolutionCache.open(path, Duration.ofHours(1));
+    cache.put("isoCode", "IN", "country/IND");
+    cache.save();
+
+    // With a negative TTL everything is expired, and is dropped on save.
+    cache = ResolutionCache.open(path, Duration.ofSeconds(-1));
+    assertNull(cache.get("isoCode", "IN"));
+    cache.save();
+    assertEquals(16, Files.size(path));
+  }
+
+  @Test(expected = IOException.class)
+  public void invalidFile() throws IOException {
+    Path path = testFolder.getRoot().toPath().resolve("resolution.bin");
+    Files.writeString(path, "not a cache");
+    ResolutionCache.open(path, Duration.ofHours(1));
+  }
+}
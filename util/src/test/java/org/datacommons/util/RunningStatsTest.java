@@ -0,0 +1,40 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RunningStatsTest {
+  @Test
+  public void stats() {
+    RunningStats stats = new RunningStats();
+    stats.add(2);
+    // Fewer than 2 values have no spread.
+    assertEquals(0, stats.getMean(), 0);
+    assertEquals(0, stats.getStdDev(), 0);
+    for (double val : new double[] {4, 4, 4, 5, 5, 7, 9}) {
+      stats.add(val);
+    }
+    assertEquals(8, stats.getCount());
+    assertEquals(5, stats.getMean(), 1e-12);
+    assertEquals(2, stats.getStdDev(), 1e-12);
+    assertFalse(stats.hasValuesBeyond(2));
+    assertTrue(stats.hasValuesBeyond(1.5));
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.datacommons.proto.Debug.DataPoint;
+import org.datacommons.proto.Mcf;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SeriesPartitionsTest {
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
+
+  private static final int NUM_PLACES = 20;
+  private static final int NUM_YEARS = 30;
+
+  @Test
+  public void manyRuns() throws IOException {
+    // A point per place and year, added in random order.
+    List<Integer> points = new ArrayList<>();
+    for (int i = 0; i < NUM_PLACES * NUM_YEARS; i++) {
+      points.add(i);
+    }
+    Collections.shuffle(points, new Random(1));
+
+    // With 3 observations per run, there are hundreds of runs in all, and a partition has many
+    // more than 4, so they are merged in several passes before they are read.
+    try (SeriesPartitions partitions = new SeriesPartitions(testFolder.getRoot().toPath(), 3, 4)) {
+      SeriesPartitions.Writer writer1 = partitions.newWriter();
+      SeriesPartitions.Writer writer2 = partitions.newWriter();
+      for (int i = 0; i < points.size(); i++) {
+        int point = points.get(i);
+        (i % 2 == 0 ? writer1 : writer2).add(svObs(point / NUM_YEARS, point % NUM_YEARS));
+      }
+      writer1.flush();
+      writer2.flush();
+
+      // Place -> "date=value" of each point of its series.
+      Map<String, List<String>> got = new TreeMap<>();
+      for (int partition = 0; partition < SeriesPartitions.NUM_PARTITIONS; partition++) {
+        partitions.forEachSeries(
+            partition,
+            series -> {
+              List<String> seriesPoints = new ArrayList<>();
+              for (DataPoint dp : series.getDataPoints()) {
+                seriesPoints.add(dp.getDate() + "=" + dp.getValues(0).getValue());
+              }
+              assertNull(got.put(series.getValidationResult().getPlaceDcid(), seriesPoints));
+            });
+      }
+
+      Map<String, List<String>> want = new TreeMap<>();
+      for (int place = 0; place < NUM_PLACES; place++) {
+        List<String> seriesPoints = new ArrayList<>();
+        for (int year = 0; year < NUM_YEARS; year++) {
+          seriesPoints.add(date(year) + "=" + value(place, year));
+        }
+        want.put("geoId/" + place, seriesPoints);
+      }
+      assertEquals(want, got);
+    }
+  }
+
+  private static Mcf.McfGraph.PropertyValues svObs(int place, int year) {
+    return Mcf.McfGraph.PropertyValues.newBuilder()
+        .putPvs(
+            Vocabulary.TYPE_OF, McfUtil.newValues(Mcf.ValueType.RESOLVED_REF, "StatVarObservation"))
+        .putPvs(
+            Vocabulary.OBSERVATION_ABOUT,
+            McfUtil.newValues(Mcf.ValueType.RESOLVED_REF, "geoId/" + place))
+        .putPvs(
+            Vocabulary.VARIABLE_MEASURED, McfUtil.newValues(Mcf.ValueType.RESOLVED_REF, "Count"))
+        .putPvs(Vocabulary.OBSERVATION_DATE, McfUtil.newValues(Mcf.ValueType.TEXT, date(year)))
+        .putPvs(
+            Vocabulary.VALUE,
+            McfUtil.newValues(Mcf.ValueType.NUMBER, Double.toString(value(place, year))))
+        .build();
+  }
+
+  private static String date(int year) {
+    return Integer.toString(2000 + year);
+  }
+
+  private static double value(int place, int year) {
+    return place * 100 + year;
+  }
+}
@@ -27,6 +27,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.io.FileUtils;
 import org.datacommons.proto.Debug;
 import org.datacommons.proto.Debug.DataPoint;
@@ -34,6 +37,7 @@ import org.datacommons.proto.Debug.DataPoint.DataValue;
 import org.datacommons.proto.Debug.StatValidationResult;
 import org.datacommons.proto.Debug.StatValidationResult.StatValidationEntry;
 import org.datacommons.proto.Mcf;
+import org.datacommons.util.SummaryReportGenerator.StatVarSummary;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -65,6 +69,91 @@ public class StatCheckerTest {
         .containsExactlyElementsIn(expectedLog.getStatsCheckSummaryList());
   }
 
+  @Test
+  public void testEndToEndMultiThreaded() throws Exception {
+    Debug.Log.Builder logCtx = Debug.Log.newBuilder();
+    LogWrapper lw = new LogWrapper(logCtx, testFolder.getRoot().toPath());
+    String mcfPath = this.getClass().getResource("StatCheckerTest.mcf").getPath();
+    Mcf.McfGraph graph = McfParser.parseInstanceMcfFile(mcfPath, false, lw);
+    // Extract a node at a time from several threads, which accumulate separately.
+    StatChecker sc = new StatChecker(lw, null);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<?>> futures = new ArrayList<>();
+    for (Map.Entry<String, Mcf.McfGraph.PropertyValues> node : graph.getNodesMap().entrySet()) {
+      Mcf.McfGraph nodeGraph =
+          graph.toBuilder().clearNodes().putNodes(node.getKey(), node.getValue()).build();
+      futures.add(executor.submit(() -> sc.extractStatsFromGraph(nodeGraph)));
+    }
+    for (Future<?> f : futures) {
+      f.get();
+    }
+    executor.shutdown();
+    sc.check();
+    expectReport(logCtx);
+  }
+
+  @Test
+  public void testParallelCheck() throws Exception {
+    Debug.Log.Builder logCtx = Debug.Log.newBuilder();
+    LogWrapper lw = new LogWrapper(logCtx, testFolder.getRoot().toPath());
+    String mcfPath = this.getClass().getResource("StatCheckerTest.mcf").getPath();
+    Mcf.McfGraph graph = McfParser.parseInstanceMcfFile(mcfPath, false, lw);
+    StatChecker sc = new StatChecker(lw, null);
+    sc.extractStatsFromGraph(graph);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    // More tasks than series.
+    sc.check(executor, 100);
+    executor.shutdown();
+    expectReport(logCtx);
+  }
+
+  @Test
+  public void testFullStatChecks() throws Exception {
+    Debug.Log.Builder logCtx = Debug.Log.newBuilder();
+    LogWrapper lw = new LogWrapper(logCtx, testFolder.getRoot().toPath());
+    String mcfPath = this.getClass().getResource("StatCheckerTest.mcf").getPath();
+    Mcf.McfGraph graph = McfParser.parseInstanceMcfFile(mcfPath, false, lw);
+    // All the places of the test MCF are sample places, so checking all the series gives the same
+    // report.
+    File spillDir = testFolder.newFolder();
+    StatChecker sc = new StatChecker(lw, null, 0, new SeriesPartitions(spillDir.toPath()));
+    sc.extractStatsFromGraph(graph);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    sc.check(executor, 4);
+    executor.shutdown();
+    expectReport(logCtx);
+    // The partitions are deleted once checked.
+    assertEquals(0, spillDir.list().length);
+  }
+
+  @Test
+  public void testFullStatChecksBeyondSamplePlaces() throws IOException {
+    Debug.Log.Builder logCtx = Debug.Log.newBuilder();
+    LogWrapper lw = new LogWrapper(logCtx, testFolder.getRoot().toPath());
+    // 30 places with an invalid date each, which is more than the 5 sample places of geoId.
+    StringBuilder mcf = new StringBuilder();
+    for (int i = 0; i < 30; i++) {
+      for (String date : List.of("2019", "2020", "20x1")) {
+        mcf.append("Node: Obs" + i + "_" + date + "\n")
+            .append("typeOf: dcs:StatVarObservation\n")
+            .append("variableMeasured: dcid:Count_Person\n")
+            .append("value: " + i + "\n")
+            .append("observationAbout: dcid:geoId/" + (10 + i) + "\n")
+            .append("observationDate: \"" + date + "\"\n\n");
+      }
+    }
+    Mcf.McfGraph graph = McfParser.parseInstanceMcfString(mcf.toString(), false, lw);
+    StatChecker sc =
+        new StatChecker(lw, null, 0, new SeriesPartitions(testFolder.getRoot().toPath()));
+    sc.extractStatsFromGraph(graph);
+    sc.check();
+    assertEquals(30, TestUtil.getCounter(lw.getLog(), "StatsCheck_Invalid_Date"));
+    // Summary entries are still capped per counter.
+    assertEquals(10, logCtx.getStatsCheckSummaryCount());
+    // The series of the sample places are still kept for the summary report.
+    assertEquals(5, sc.getPlaceSeriesSummaryMap().size());
+  }
+
   @Test
   public void testCheckSvObsInGraph() throws IOException {
     Debug.Log.Builder log = Debug.Log.newBuilder();
@@ -122,7 +211,9 @@ public class StatCheckerTest {
         TestUtil.checkLog(
             lw.getLog(),
             "Sanity_InconsistentSvObsValues",
-            "Found nodes with different values for the same StatVarObservation :: observationAbout: 'geoId/SF', variableMeasured: 'WomenIncome', observationDate: '2020', value1: 1.0E7, value2: 1.0000001E7"));
+            "Found nodes with different values for the same StatVarObservation :: observationAbout:"
+                + " 'geoId/SF', variableMeasured: 'WomenIncome', observationDate: '2020', value1:"
+                + " 1.0E7, value2: 1.0000001E7"));
 
     // check node that differs only in one property from an existing StatVarObservation node.
     mcf =
@@ -259,6 +350,18 @@ public class StatCheckerTest {
     assertEquals(
         1, TestUtil.getCounter(logCtx.getLog(), "StatsCheck_Inconsistent_Date_Granularity"));
     assertEquals(2, TestUtil.getCounter(logCtx.getLog(), "StatsCheck_Data_Holes"));
+
+    // Data holes are found from the dates alone, without building the data points.
+    resBuilder.clear();
+    StatChecker.checkDates(
+        List.of("2011", "2012", "2014"),
+        () -> {
+          throw new AssertionError("Data points built");
+        },
+        resBuilder,
+        logCtx);
+    assertTrue(checkHasCounter(resBuilder, "StatsCheck_Data_Holes", new ArrayList<>()));
+    assertEquals(3, TestUtil.getCounter(logCtx.getLog(), "StatsCheck_Data_Holes"));
   }
 
   @Test
@@ -388,6 +491,33 @@ public class StatCheckerTest {
     assertEquals(1, TestUtil.getCounter(logCtx.getLog(), "StatsCheck_3_Sigma"));
   }
 
+  @Test
+  public void testSummarySketchLimit() throws IOException {
+    Debug.Log.Builder logCtx = Debug.Log.newBuilder();
+    LogWrapper lw = new LogWrapper(logCtx, testFolder.getRoot().toPath());
+    // Places are sketched beyond 3, while the 2 dates stay exact.
+    StatChecker sc = new StatChecker(lw, null, 3);
+    StringBuilder mcf = new StringBuilder();
+    for (int i = 0; i < 10; i++) {
+      mcf.append("Node: Obs" + i + "\n")
+          .append("typeOf: dcs:StatVarObservation\n")
+          .append("variableMeasured: dcid:Count_Person\n")
+          .append("value: " + i + "\n")
+          .append("observationAbout: dcid:geoId/0" + i + "\n")
+          .append("observationDate: \"" + (2020 + i % 2) + "\"\n\n");
+    }
+    sc.extractStatsFromGraph(McfParser.parseInstanceMcfString(mcf.toString(), false, lw));
+    StatVarSummary summary = sc.getSVSummaryMap().get("Count_Person");
+    assertEquals(10, summary.getNumObservations());
+    assertTrue(summary.isPlacesSketched());
+    assertEquals(10, summary.getNumPlaces());
+    assertEquals(10, summary.getPlaces().size());
+    assertFalse(summary.isDatesSketched());
+    assertEquals(2, summary.getNumUniqueDates());
+    assertEquals("2020", summary.getMinDate());
+    assertEquals("2021", summary.getMaxDate());
+  }
+
   @Test
   public void testShouldExtractSeriesInfo() {
     Debug.Log.Builder logCtx = Debug.Log.newBuilder();
@@ -430,6 +560,20 @@ public class StatCheckerTest {
     assertTrue(sc.shouldExtractSeriesInfo(typelessNamespace + "002"));
   }
 
+  // Expects the stats check summary in "logCtx" to be as in StatCheckerTestReport.json.
+  private void expectReport(Debug.Log.Builder logCtx) throws IOException {
+    File expectedReport =
+        new File(this.getClass().getResource("StatCheckerTestReport.json").getPath());
+    String expectedReportStr = FileUtils.readFileToString(expectedReport, StandardCharsets.UTF_8);
+    Debug.Log.Builder expectedLog = Debug.Log.newBuilder();
+    JsonFormat.parser().merge(expectedReportStr, expectedLog);
+    expect
+        .about(ProtoTruth.protos())
+        .that(logCtx.getStatsCheckSummaryList())
+        .ignoringRepeatedFieldOrder()
+        .containsExactlyElementsIn(expectedLog.getStatsCheckSummaryList());
+  }
+
   private boolean checkHasCounter(
       StatValidationResult.Builder resBuilder, String counterName, List<String> problemPointDates) {
     boolean counterFound = false;
@@ -0,0 +1,74 @@
+// Copyright 2021 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.datacommons.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import org.junit.Test;
+
+public class StringSetSketchTest {
+  @Test
+  public void small() {
+    StringSetSketch sketch = new StringSetSketch(10);
+    assertEquals(0, sketch.estimateSize());
+    assertNull(sketch.getMin());
+    for (String value : new String[] {"geoId/06", "geoId/01", "geoId/06", "country/USA"}) {
+      sketch.add(value);
+    }
+    // Exact while all the distinct values fit in the sample.
+    assertEquals(3, sketch.estimateSize());
+    assertEquals(Set.of("country/USA", "geoId/01", "geoId/06"), sketch.getSample());
+    assertEquals("country/USA", sketch.getMin());
+    assertEquals("geoId/06", sketch.getMax());
+  }
+
+  @Test
+  public void estimate() {
+    for (int n : new int[] {1000, 10000, 1000000}) {
+      StringSetSketch sketch = new StringSetSketch(100);
+      // Each value twice, which does not change the estimate.
+      for (int i = 0; i < 2 * n; i++) {
+        sketch.add("geoId/" + (i % n));
+      }
+      long estimate = sketch.estimateSize();
+      assertTrue(n + " estimated as " + estimate, Math.abs(estimate - n) < 0.05 * n);
+      assertEquals(100, sketch.getSample().size());
+      assertEquals("geoId/0", sketch.getMin());
+      assertEquals("geoId/" + (n - 1), sketch.getMax());
+    }
+  }
+
+  @Test
+  public void merge() {
+    StringSetSketch all = new StringSetSketch(50);
+    StringSetSketch first = new StringSetSketch(50);
+    StringSetSketch second = new StringSetSketch(50);
+    for (int i = 0; i < 30000; i++) {
+      String value = "2020-" + i;
+      all.add(value);
+      // Overlapping halves.
+      if (i < 20000) first.add(value);
+      if (i >= 10000) second.add(value);
+    }
+    first.addAll(second);
+    assertEquals(all.estimateSize(), first.estimateSize());
+    assertEquals(all.getSample(), first.getSample());
+    assertEquals(all.getMin(), first.getMin());
+    assertEquals(all.getMax(), first.getMax());
+  }
+}
@@ -18,19 +18,26 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 import org.datacommons.proto.Debug;
 import org.datacommons.proto.Mcf.McfGraph;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 // TODO: Add test once sanity-check is implemented.
 public class TmcfCsvParserTest {
   private Debug.Log.Builder log = Debug.Log.newBuilder();
   private LogWrapper logCtx = new LogWrapper(log, Paths.get("."));
+  @Rule public TemporaryFolder testFolder = new TemporaryFolder();
 
   @Before
   public void setUp() {
@@ -71,6 +78,33 @@ public class TmcfCsvParserTest {
     assertEquals(want, got);
   }
 
+  @Test
+  public void mmapCsv() throws IOException, URISyntaxException, InterruptedException {
+    for (String name : List.of("SVO", "PopObs", "MultiValue")) {
+      String tmcf = "TmcfCsvParser_" + name + ".tmcf";
+      String csv = "TmcfCsvParser_" + name + ".csv";
+      LogWrapper wantLog = new LogWrapper(Debug.Log.newBuilder(), Paths.get("."));
+      LogWrapper gotLog = new LogWrapper(Debug.Log.newBuilder(), Paths.get("."));
+      assertEquals(run(tmcf, csv, wantLog, false), run(tmcf, csv, gotLog, true));
+      assertEquals(wantLog.getLog(), gotLog.getLog());
+    }
+  }
+
+  @Test
+  public void gzipInput() throws IOException, URISyntaxException, InterruptedException {
+    String want = run("TmcfCsvParser_SVO.tmcf", "TmcfCsvParser_SVO.csv");
+    Path tmcf = gzip(resourceFile("TmcfCsvParser_SVO.tmcf"));
+    Path csv = gzip(resourceFile("TmcfCsvParser_SVO.csv"));
+    LogWrapper gzipLog = new LogWrapper(Debug.Log.newBuilder(), Paths.get("."));
+    TmcfCsvParser parser = TmcfCsvParser.init(tmcf.toString(), csv.toString(), ',', gzipLog);
+    List<McfGraph> result = new ArrayList<>();
+    McfGraph graph;
+    while ((graph = parser.parseNextRow()) != null) {
+      result.add(graph);
+    }
+    assertEquals(want, McfUtil.serializeMcfGraph(McfUtil.mergeGraphs(result), true));
+  }
+
   @Test
   public void tmcfFailure() throws IOException, URISyntaxException, InterruptedException {
     TmcfCsvParser parser =
@@ -87,8 +121,13 @@ public class TmcfCsvParserTest {
 
   private String run(String mcfFile, String csvFile)
       throws IOException, URISyntaxException, InterruptedException {
+    return run(mcfFile, csvFile, logCtx, false);
+  }
+
+  private String run(String mcfFile, String csvFile, LogWrapper logCtx, boolean mmapCsv)
+      throws IOException, URISyntaxException, InterruptedException {
     TmcfCsvParser parser =
-        TmcfCsvParser.init(resourceFile(mcfFile), resourceFile(csvFile), ',', logCtx);
+        TmcfCsvParser.init(resourceFile(mcfFile), resourceFile(csvFile), ',', logCtx, mmapCsv);
     List<McfGraph> result = new ArrayList<>();
     McfGraph graph;
     while ((graph = parser.parseNextRow()) != null) {
@@ -98,6 +137,14 @@ public class TmcfCsvParserTest {
     return McfUtil.serializeMcfGraph(graph, true);
   }
 
+  private Path gzip(String file) throws IOException {
+    Path path = testFolder.getRoot().toPath().resolve(Path.of(file).getFileName() + ".gz");
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+      Files.copy(Path.of(file), out);
+    }
+    return path;
+  }
+
   private String resourceFile(String resource) {
     return this.getClass().getResource(resource).getPath();
   }